@@ -0,0 +1,64 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of equally sized byte arrays used as copy buffers. Buffers are allocated lazily; at most {@code maxPooledBuffers} released buffers are kept,
+ * further released buffers are left to the garbage collector.
+ *
+ * @since 17.07
+ */
+public final class BufferPool {
+
+	private final int bufferSize;
+
+	private final ArrayBlockingQueue<byte[]> buffers;
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param bufferSize size of the buffers in bytes, should match the amount of data the link transfers efficiently at once
+	 * @param maxPooledBuffers maximum number of idle buffers kept in the pool
+	 * @throws IllegalArgumentException Thrown if any parameter is not positive.
+	 */
+	public BufferPool(final int bufferSize, final int maxPooledBuffers) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("'bufferSize' must be positive!");
+		}
+		if (maxPooledBuffers <= 0) {
+			throw new IllegalArgumentException("'maxPooledBuffers' must be positive!");
+		}
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+	}
+
+	/**
+	 * @return size of the buffers of this pool in bytes
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Takes a buffer from the pool or allocates a new one if the pool is empty. The buffer has to be given back by {@link #release(byte[])}.
+	 *
+	 * @return buffer of {@link #getBufferSize()} bytes, its content is undefined
+	 */
+	public byte[] acquire() {
+		final byte[] buffer = this.buffers.poll();
+		return buffer != null ? buffer : new byte[this.bufferSize];
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The caller mustn't use the buffer afterwards.
+	 *
+	 * @param buffer buffer obtained by {@link #acquire()}
+	 * @throws IllegalArgumentException Thrown if the buffer is {@code null} or was not allocated by this pool.
+	 */
+	public void release(final byte[] buffer) {
+		if (buffer == null || buffer.length != this.bufferSize) {
+			throw new IllegalArgumentException("'buffer' wasn't acquired from this pool!");
+		}
+		this.buffers.offer(buffer);
+	}
+}
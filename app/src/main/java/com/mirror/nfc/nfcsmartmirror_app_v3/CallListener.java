@@ -3,42 +3,77 @@ package com.mirror.nfc.nfcsmartmirror_app_v3;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
-import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.util.Log;
 import android.widget.Toast;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * retrieves incoming calls and logs them together with the incoming phone number and call duration.
+ * The state of the call is shown on the mirrors' call view, which is refreshed before any other view.
  */
 
 
 public class CallListener extends BroadcastReceiver {
 
+    /** View of the mirror showing the current call */
+    static final String VIEW_ID_CALL = "CallView";
+
+    static {
+        try {
+            final ViewRegistrator registrator = ViewRegistrator.getInstance();
+            registrator.addView(VIEW_ID_CALL, ViewTemplates.MESSAGE_TEMPLATE, null);
+            RefreshScheduler.getInstance().register(VIEW_ID_CALL, RefreshScheduler.Priority.URGENT, registrator::publishDirty);
+        } catch (IOException e) {
+            Log.e("CallListener", "Call view not available", e);
+        }
+    }
+
     @Override
     public void onReceive(final Context context, Intent intent) {
-        //create instance of TelephonyManager to retrieve calls in application context
-        TelephonyManager callManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-        callManager.listen(new PhoneStateListener() {
-            @Override
-            /**
-             * when incoming call registered, show toast notification and create html file with the same contents
-             */
-            public void onCallStateChanged(int state, String incomingNumber) {
-                super.onCallStateChanged(state, incomingNumber);
-                System.out.println("incomingNumber : " + incomingNumber);
-                int duration = Toast.LENGTH_LONG;
-                Toast toast = Toast.makeText(context,"incomingNumber: "+ incomingNumber, duration );
-                toast.show();
-
-                Intent msgIntent = new Intent("Msg");
-                msgIntent.putExtra("package", "");
-                msgIntent.putExtra("ticker", incomingNumber);
-                msgIntent.putExtra("title", incomingNumber);
-                msgIntent.putExtra("text", "");
-
-                LocalBroadcastManager.getInstance(context).sendBroadcast(msgIntent);
+        // the broadcast already carries the new state, so no PhoneStateListener has to be registered; the tracker is shared by all broadcasts
+        CallStateTracker.State state = toState(intent.getStringExtra(TelephonyManager.EXTRA_STATE));
+        if (state == null) {
+            return;
+        }
+        String incomingNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
+        CallStateTracker tracker = CallStateTracker.getInstance();
+        CallStateTracker.Transition transition = tracker.onStateChanged(state, incomingNumber, System.currentTimeMillis());
+        if (transition != null) {
+            // the number is only reported while ringing, the tracker remembers it for the whole call
+            MirrorEvent event = tracker.getLastEvent();
+            Map<String, String> pageValues = new HashMap<>();
+            pageValues.put("TITLE", event.getTitle());
+            pageValues.put("TEXT", event.getText());
+            try {
+                if (ViewRegistrator.getInstance().setReplacements(VIEW_ID_CALL, pageValues)) {
+                    RefreshScheduler.getInstance().request(VIEW_ID_CALL);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.e("CallListener", "Call page not published", e);
             }
-        }, PhoneStateListener.LISTEN_CALL_STATE);
+        }
+        if (transition == CallStateTracker.Transition.RINGING) {
+            Log.d("CallListener", "incomingNumber : " + incomingNumber);
+            int duration = Toast.LENGTH_LONG;
+            Toast toast = Toast.makeText(context,"incomingNumber: "+ incomingNumber, duration );
+            toast.show();
+        }
+    }
+
+    private static CallStateTracker.State toState(String state) {
+        if (TelephonyManager.EXTRA_STATE_RINGING.equals(state)) {
+            return CallStateTracker.State.RINGING;
+        }
+        if (TelephonyManager.EXTRA_STATE_OFFHOOK.equals(state)) {
+            return CallStateTracker.State.OFFHOOK;
+        }
+        if (TelephonyManager.EXTRA_STATE_IDLE.equals(state)) {
+            return CallStateTracker.State.IDLE;
+        }
+        return null;
     }
-}
\ No newline at end of file
+}
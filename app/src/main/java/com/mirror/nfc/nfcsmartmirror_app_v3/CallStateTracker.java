@@ -0,0 +1,154 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.Locale;
+
+/**
+ * Process-wide model of the phone's call state. The states reported by the system are fed in as they arrive, repeated reports of the same state are
+ * ignored; each transition (ringing, answered, outgoing, ended, missed) produces exactly one event on the {@link MirrorEventBus}, ended calls with their
+ * duration.
+ *
+ * @since 17.07
+ */
+public final class CallStateTracker {
+
+	public enum State {
+		IDLE,
+		RINGING,
+		OFFHOOK
+	}
+
+	public enum Transition {
+		/** idle to ringing */
+		RINGING("Incoming call"),
+		/** ringing to offhook */
+		ANSWERED("Call answered"),
+		/** idle to offhook */
+		OUTGOING("Outgoing call"),
+		/** offhook to idle */
+		ENDED("Call ended"),
+		/** ringing to idle */
+		MISSED("Missed call");
+
+		private final String text;
+
+		Transition(final String text) {
+			this.text = text;
+		}
+
+		/**
+		 * @return text shown on the mirror for the transition
+		 */
+		public String getText() {
+			return this.text;
+		}
+	}
+
+	private static CallStateTracker instance;
+
+	private final MirrorEventBus bus;
+
+	private State state = State.IDLE;
+
+	private String number;
+
+	private long offhookSince;
+
+	private long lastDurationMillis;
+
+	private MirrorEvent lastEvent;
+
+	/**
+	 * @param bus bus the call events are published to
+	 */
+	public CallStateTracker(final MirrorEventBus bus) {
+		if (bus == null) {
+			throw new IllegalArgumentException("'bus' mustn't be null!");
+		}
+		this.bus = bus;
+	}
+
+	/**
+	 * @return tracker shared by the process, publishing to {@link MirrorEventBus#getInstance()}
+	 */
+	public static synchronized CallStateTracker getInstance() {
+		if (instance == null) {
+			instance = new CallStateTracker(MirrorEventBus.getInstance());
+		}
+		return instance;
+	}
+
+	/**
+	 * Feeds a reported call state.
+	 *
+	 * @param newState reported state
+	 * @param reportedNumber number of the other party, {@code null} or empty if not reported
+	 * @param timeMillis time of the report
+	 * @return the transition or {@code null} if the state didn't change
+	 */
+	public synchronized Transition onStateChanged(final State newState, final String reportedNumber, final long timeMillis) {
+		if (newState == null) {
+			throw new IllegalArgumentException("'newState' mustn't be null!");
+		}
+		if (reportedNumber != null && !reportedNumber.isEmpty()) {
+			this.number = reportedNumber;
+		}
+		if (newState == this.state) {
+			return null;
+		}
+		final Transition transition = transition(this.state, newState);
+		this.state = newState;
+		String text = transition.text;
+		if (newState == State.OFFHOOK) {
+			this.offhookSince = timeMillis;
+		}
+		else if (transition == Transition.ENDED) {
+			this.lastDurationMillis = Math.max(0, timeMillis - this.offhookSince);
+			text += " after " + formatDuration(this.lastDurationMillis);
+		}
+		final String caller = this.number == null ? "" : this.number;
+		this.lastEvent = new MirrorEvent(MirrorEvent.Type.CALL, "call:" + caller, "", text, caller, text, null, timeMillis);
+		this.bus.publish(this.lastEvent);
+		if (newState == State.IDLE) {
+			this.number = null;
+		}
+		return transition;
+	}
+
+	private static Transition transition(final State from, final State to) {
+		switch (to) {
+		case RINGING:
+			return Transition.RINGING;
+		case OFFHOOK:
+			return from == State.RINGING ? Transition.ANSWERED : Transition.OUTGOING;
+		default:
+			return from == State.RINGING ? Transition.MISSED : Transition.ENDED;
+		}
+	}
+
+	private static String formatDuration(final long millis) {
+		final long seconds = millis / 1000;
+		return String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+	}
+
+	/**
+	 * @return current call state
+	 */
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return event of the last transition, its title is the number remembered for the call and its text includes the duration of an ended call,
+	 *         {@code null} if there was no transition yet
+	 */
+	public synchronized MirrorEvent getLastEvent() {
+		return this.lastEvent;
+	}
+
+	/**
+	 * @return duration of the last ended call in milliseconds, {@code 0} if no call ended yet
+	 */
+	public synchronized long getLastDurationMillis() {
+		return this.lastDurationMillis;
+	}
+}
@@ -0,0 +1,110 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which uploads are gzip compressed. Only text formats above a size threshold are compressed, already compressed formats (images, fonts) are sent as
+ * they are. The policy measures the time spent compressing and the throughput of the link; as long as compressing costs more time than sending the saved
+ * bytes would take, compression is skipped and only probed again every {@value #PROBE_INTERVAL} uploads.
+ *
+ * @since 17.07
+ */
+public final class CompressionPolicy {
+
+	/** Resources smaller than this are not worth compressing */
+	public static final long DEFAULT_MIN_SIZE = 1024;
+
+	/** Number of compressible uploads after which compression is probed again while it is disabled */
+	private static final int PROBE_INTERVAL = 20;
+
+	/** Weight of the latest measurement in the moving averages */
+	private static final double SMOOTHING = 0.3;
+
+	private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(
+			Arrays.asList("html", "htm", "css", "js", "json", "svg", "txt", "xml", "csv", "template"));
+
+	private final long minSize;
+
+	private double averageCompressionNanos;
+
+	private double averageSavedNanos;
+
+	private boolean measured;
+
+	private int uploadsSinceProbe;
+
+	public CompressionPolicy() {
+		this(DEFAULT_MIN_SIZE);
+	}
+
+	/**
+	 * @param minSize resources with a known size below this number of bytes are never compressed
+	 */
+	public CompressionPolicy(final long minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * @return {@code true} if the file path denotes a text format that typically compresses well
+	 */
+	public static boolean isCompressible(final String filePath) {
+		final int dot = filePath.lastIndexOf('.');
+		return dot >= 0 && COMPRESSIBLE_EXTENSIONS.contains(filePath.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Decides whether an upload should be compressed.
+	 *
+	 * @param filePath target path of the resource
+	 * @param contentLength size of the resource or {@link StaticResourceUploader#UNKNOWN_CONTENT_LENGTH}
+	 * @return {@code true} if the resource should be sent gzip compressed
+	 */
+	public synchronized boolean shouldCompress(final String filePath, final long contentLength) {
+		if (!isCompressible(filePath) || contentLength >= 0 && contentLength < this.minSize) {
+			return false;
+		}
+		if (!this.measured || this.averageCompressionNanos <= this.averageSavedNanos) {
+			return true;
+		}
+		if (++this.uploadsSinceProbe >= PROBE_INTERVAL) {
+			this.uploadsSinceProbe = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records the measurements of a compressed upload.
+	 *
+	 * @param rawBytes size of the resource
+	 * @param compressedBytes number of bytes sent
+	 * @param compressionNanos time spent compressing
+	 * @param sendNanos time spent writing the compressed bytes to the connection
+	 */
+	public synchronized void record(final long rawBytes, final long compressedBytes, final long compressionNanos, final long sendNanos) {
+		if (compressedBytes <= 0 || sendNanos <= 0) {
+			return;
+		}
+		final double nanosPerByte = (double) sendNanos / compressedBytes;
+		final double savedNanos = (rawBytes - compressedBytes) * nanosPerByte;
+		if (this.measured) {
+			this.averageCompressionNanos += SMOOTHING * (compressionNanos - this.averageCompressionNanos);
+			this.averageSavedNanos += SMOOTHING * (savedNanos - this.averageSavedNanos);
+		}
+		else {
+			this.averageCompressionNanos = compressionNanos;
+			this.averageSavedNanos = savedNanos;
+			this.measured = true;
+		}
+	}
+
+	/**
+	 * @return {@code true} if the measurements show that compression currently pays off or nothing has been measured yet
+	 */
+	public synchronized boolean isEffective() {
+		return !this.measured || this.averageCompressionNanos <= this.averageSavedNanos;
+	}
+}
@@ -0,0 +1,583 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Durable, append-only journal of the events sent to mirrors, so a mirror that was unreachable can replay what it missed once it reconnects.
+ * <p>
+ * Events are written as compact binary records into memory-mapped segment files of a fixed size; when a segment is full the journal continues with a new one
+ * and deletes the oldest segments beyond the retention limit. Every record has a sequence number, and every mirror has a cursor: the sequence number of the
+ * first event it has not acknowledged yet. Cursors are persisted, so replay also works after the app restarts. Snapshots are journaled as a group of
+ * events that replaces everything before it; a mirror without cursor starts with the latest snapshot kept. Writes reach the file system when the
+ * operating system writes back the mapped pages, which survives a crash of the app but not of the device unless {@link #flush()} is called.
+ * <p>
+ * Icons are journaled by their path on the mirror only, the handles of replayed events can't be uploaded again (see
+ * {@link NotificationIconCache.Handle#getPath()}).
+ *
+ * @since 17.07
+ */
+public final class EventJournal implements Closeable {
+
+	/**
+	 * Event read from the journal.
+	 */
+	public static final class Entry {
+
+		private final long sequence;
+
+		private final MirrorEvent event;
+
+		private final int flags;
+
+		Entry(final long sequence, final MirrorEvent event, final int flags) {
+			this.sequence = sequence;
+			this.event = event;
+			this.flags = flags;
+		}
+
+		/**
+		 * @return sequence number of the event, to be passed to {@link EventJournal#acknowledge(String, long)}
+		 */
+		public long getSequence() {
+			return this.sequence;
+		}
+
+		public MirrorEvent getEvent() {
+			return this.event;
+		}
+
+		/**
+		 * @return {@code true} if the event is the first of a snapshot, see {@link EventJournal#appendSnapshot(Collection)}
+		 */
+		public boolean isSnapshotStart() {
+			return (this.flags & FLAG_SNAPSHOT_START) != 0;
+		}
+
+		/**
+		 * @return {@code true} if the event belongs to a snapshot
+		 */
+		public boolean isSnapshot() {
+			return (this.flags & FLAG_SNAPSHOT) != 0;
+		}
+	}
+
+	private static final class Segment {
+
+		private final File file;
+
+		private final long baseSequence;
+
+		private final RandomAccessFile randomAccessFile;
+
+		private final MappedByteBuffer buffer;
+
+		/** offsets of the records in the segment */
+		private int[] offsets = new int[256];
+
+		private int count;
+
+		/** offset the next record is written to */
+		private int position = HEADER_SIZE;
+
+		Segment(final File file, final long baseSequence, final int size)
+				throws IOException {
+			this.file = file;
+			this.baseSequence = baseSequence;
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				this.buffer = this.randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (final IOException e) {
+				this.randomAccessFile.close();
+				throw e;
+			}
+		}
+
+		void addOffset(final int offset) {
+			if (this.count == this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+			}
+			this.offsets[this.count++] = offset;
+		}
+
+		long nextSequence() {
+			return this.baseSequence + this.count;
+		}
+
+		void close()
+				throws IOException {
+			this.randomAccessFile.close();
+		}
+	}
+
+	/** Default size of a segment file */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	/** Default number of segments kept */
+	public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+	private static final int MAGIC = 0x4D4A524E;
+
+	/** Version of the segment format, written into the header of every segment */
+	private static final int FORMAT_VERSION = 1;
+
+	/** magic, format version, base sequence */
+	private static final int HEADER_SIZE = 16;
+
+	/** Length of a string that is {@code null} */
+	private static final int NULL_STRING = 0xFFFF;
+
+	private static final int MAX_STRING_BYTES = NULL_STRING - 1;
+
+	private static final int FLAG_REMOVED = 1;
+
+	/** the bits in between mark the changed fields */
+	private static final int FLAG_SNAPSHOT = 0x20;
+
+	private static final int FLAG_SNAPSHOT_START = 0x40;
+
+	/** the path of the icon follows the text */
+	private static final int FLAG_ICON = 0x80;
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final String CURSORS_FILE = "cursors";
+
+	private static final MirrorEvent.Type[] TYPES = MirrorEvent.Type.values();
+
+	private static final MirrorEvent.Field[] FIELDS = MirrorEvent.Field.values();
+
+	private final File directory;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+	private final Map<String, Long> cursors = new HashMap<>();
+
+	private Segment active;
+
+	/** sequence number of the first event of the latest snapshot, {@code -1} if none is kept */
+	private long lastSnapshot = -1;
+
+	/**
+	 * Opens the journal in a directory, recovering the segments and cursors written before.
+	 *
+	 * @param directory directory only used by this journal, created if it doesn't exist
+	 * @param segmentSize size of a segment file in bytes, limits the size of a single event
+	 * @param maxSegments number of segments kept, bounds the disk usage to {@code segmentSize * maxSegments}
+	 * @throws IOException Thrown if the directory can't be created or the segments can't be mapped.
+	 */
+	public EventJournal(final File directory, final int segmentSize, final int maxSegments)
+			throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("'directory' mustn't be null!");
+		}
+		if (segmentSize < 4096) {
+			throw new IllegalArgumentException("'segmentSize' must be at least 4096!");
+		}
+		if (maxSegments < 2) {
+			throw new IllegalArgumentException("'maxSegments' must be at least 2!");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		recover();
+		loadCursors();
+	}
+
+	/**
+	 * Appends an event.
+	 *
+	 * @return sequence number of the event
+	 * @throws IOException Thrown if a new segment can't be created.
+	 * @throws IllegalArgumentException Thrown if the event doesn't fit into a segment.
+	 */
+	public synchronized long append(final MirrorEvent event)
+			throws IOException {
+		if (event == null) {
+			throw new IllegalArgumentException("'event' mustn't be null!");
+		}
+		return append(event, 0);
+	}
+
+	/**
+	 * Appends a snapshot that replaces everything the view showed, as one group of events. Removals are skipped, an empty snapshot is kept as a single
+	 * removal with an empty key, which replays as an empty snapshot.
+	 *
+	 * @param events complete events of everything the view should show
+	 * @return sequence number of the snapshot's last event
+	 * @throws IOException Thrown if a new segment can't be created.
+	 * @throws IllegalArgumentException Thrown if an event doesn't fit into a segment.
+	 */
+	public synchronized long appendSnapshot(final Collection<MirrorEvent> events)
+			throws IOException {
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		final long first = getNextSequence();
+		long last = -1;
+		for (final MirrorEvent event : events) {
+			if (!event.isRemoved()) {
+				last = append(event, last < 0 ? FLAG_SNAPSHOT | FLAG_SNAPSHOT_START : FLAG_SNAPSHOT);
+			}
+		}
+		if (last < 0) {
+			last = append(MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "", null, System.currentTimeMillis()), FLAG_SNAPSHOT | FLAG_SNAPSHOT_START);
+		}
+		this.lastSnapshot = first;
+		return last;
+	}
+
+	private long append(final MirrorEvent event, final int snapshotFlags)
+			throws IOException {
+		final byte[][] strings = event.getIcon() == null
+				? new byte[][] { utf8(event.getKey()), utf8(event.getPackageName()), utf8(event.getTicker()), utf8(event.getTitle()), utf8(event.getText()) }
+				: new byte[][] { utf8(event.getKey()), utf8(event.getPackageName()), utf8(event.getTicker()), utf8(event.getTitle()), utf8(event.getText()),
+						utf8(event.getIcon().getPath()) };
+		int length = 1 + 1 + 8;
+		for (final byte[] string : strings) {
+			length += 2 + (string == null ? 0 : string.length);
+		}
+		// the record, and the zero length marking the end of the segment
+		final int required = 4 + length + 4;
+		if (HEADER_SIZE + required > this.segmentSize) {
+			throw new IllegalArgumentException("Event of " + length + " bytes doesn't fit into a journal segment");
+		}
+		ensureOpen();
+		if (this.active.position + required > this.segmentSize) {
+			rotate();
+		}
+		final Segment segment = this.active;
+		final MappedByteBuffer buffer = segment.buffer;
+		final int offset = segment.position;
+		buffer.position(offset + 4);
+		buffer.put((byte) event.getType().ordinal());
+		int flags = snapshotFlags | (event.isRemoved() ? FLAG_REMOVED : 0) | (event.getIcon() == null ? 0 : FLAG_ICON);
+		for (final MirrorEvent.Field field : event.getChangedFields()) {
+			flags |= 2 << field.ordinal();
+		}
+		buffer.put((byte) flags);
+		buffer.putLong(event.getTimestamp());
+		for (final byte[] string : strings) {
+			if (string == null) {
+				buffer.putShort((short) NULL_STRING);
+			}
+			else {
+				buffer.putShort((short) string.length);
+				buffer.put(string);
+			}
+		}
+		// the length is written last, a record interrupted by a crash stays invisible
+		buffer.putInt(offset, length);
+		segment.position = offset + 4 + length;
+		segment.addOffset(offset);
+		return segment.nextSequence() - 1;
+	}
+
+	/**
+	 * Reads the events a mirror hasn't acknowledged yet, without moving its cursor. A mirror reading for the first time starts with the latest snapshot
+	 * kept, or the oldest event if there is none. A snapshot is never split, it is read completely even if that exceeds the maximum.
+	 *
+	 * @param mirrorId identifier of the mirror, e.g. its api url
+	 * @param maxEvents maximum number of events returned
+	 * @return events in the order they were appended
+	 */
+	public synchronized List<Entry> read(final String mirrorId, final int maxEvents) {
+		if (mirrorId == null) {
+			throw new IllegalArgumentException("'mirrorId' mustn't be null!");
+		}
+		ensureOpen();
+		final List<Entry> entries = new ArrayList<>(Math.min(maxEvents, 256));
+		final Long cursor = this.cursors.get(mirrorId);
+		long sequence = cursor != null ? Math.max(cursor, getFirstSequence()) : this.lastSnapshot >= 0 ? this.lastSnapshot : getFirstSequence();
+		final long end = getNextSequence();
+		while (sequence < end) {
+			final Segment segment = this.segments.floorEntry(sequence).getValue();
+			final int offset = segment.offsets[(int) (sequence - segment.baseSequence)];
+			final int flags = flags(segment.buffer, offset);
+			if (entries.size() >= maxEvents && ((flags & FLAG_SNAPSHOT) == 0 || (flags & FLAG_SNAPSHOT_START) != 0)) {
+				break;
+			}
+			entries.add(new Entry(sequence, decode(segment.buffer, offset), flags));
+			sequence++;
+		}
+		return entries;
+	}
+
+	/**
+	 * Moves the cursor of a mirror behind an event, after the mirror received it and all events before.
+	 *
+	 * @param mirrorId identifier of the mirror
+	 * @param sequence sequence number of the last event received
+	 * @throws IOException Thrown if the cursor can't be persisted.
+	 */
+	public synchronized void acknowledge(final String mirrorId, final long sequence)
+			throws IOException {
+		if (mirrorId == null) {
+			throw new IllegalArgumentException("'mirrorId' mustn't be null!");
+		}
+		final long cursor = Math.min(sequence + 1, getNextSequence());
+		if (cursor <= getCursor(mirrorId)) {
+			return;
+		}
+		this.cursors.put(mirrorId, cursor);
+		saveCursors();
+	}
+
+	/**
+	 * @return sequence number of the first event not acknowledged by the mirror, events before the oldest event kept are lost; {@code 0} for a mirror
+	 *         that hasn't acknowledged anything yet
+	 */
+	public synchronized long getCursor(final String mirrorId) {
+		final Long cursor = this.cursors.get(mirrorId);
+		return cursor == null ? 0 : cursor;
+	}
+
+	/**
+	 * @return sequence number of the oldest event kept
+	 */
+	public synchronized long getFirstSequence() {
+		return this.segments.isEmpty() ? 0 : this.segments.firstKey();
+	}
+
+	/**
+	 * @return sequence number the next event will get
+	 */
+	public synchronized long getNextSequence() {
+		return this.active == null ? 0 : this.active.nextSequence();
+	}
+
+	/**
+	 * Forces the active segment to the storage device.
+	 */
+	public synchronized void flush() {
+		if (this.active != null) {
+			this.active.buffer.force();
+		}
+	}
+
+	@Override
+	public synchronized void close()
+			throws IOException {
+		if (this.active == null) {
+			return;
+		}
+		this.active.buffer.force();
+		for (final Segment segment : this.segments.values()) {
+			segment.close();
+		}
+		this.segments.clear();
+		this.active = null;
+	}
+
+	private void ensureOpen() {
+		if (this.active == null) {
+			throw new IllegalStateException("Journal is closed");
+		}
+	}
+
+	private void rotate()
+			throws IOException {
+		final Segment segment = createSegment(this.active.nextSequence());
+		this.segments.put(segment.baseSequence, segment);
+		this.active = segment;
+		while (this.segments.size() > this.maxSegments) {
+			final Segment oldest = this.segments.pollFirstEntry().getValue();
+			if (this.lastSnapshot < oldest.nextSequence()) {
+				this.lastSnapshot = -1;
+			}
+			oldest.close();
+			if (!oldest.file.delete()) {
+				throw new IOException("Failed to delete journal segment " + oldest.file);
+			}
+		}
+	}
+
+	private Segment createSegment(final long baseSequence)
+			throws IOException {
+		final File file = new File(this.directory, String.format(Locale.ROOT, "%s%016x%s", SEGMENT_PREFIX, baseSequence, SEGMENT_SUFFIX));
+		final Segment segment = new Segment(file, baseSequence, this.segmentSize);
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, FORMAT_VERSION);
+		segment.buffer.putLong(8, baseSequence);
+		return segment;
+	}
+
+	private void recover()
+			throws IOException {
+		final File[] files = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			Arrays.sort(files);
+			for (final File file : files) {
+				if (file.length() != this.segmentSize) {
+					// written with another segment size, can't be mapped consistently
+					deleteSegmentFile(file);
+					continue;
+				}
+				final int magic;
+				final int version;
+				final long baseSequence;
+				try (final DataInputStream header = new DataInputStream(new FileInputStream(file))) {
+					magic = header.readInt();
+					version = header.readInt();
+					baseSequence = header.readLong();
+				}
+				if (magic != MAGIC || version != FORMAT_VERSION
+						|| !this.segments.isEmpty() && baseSequence != this.segments.lastEntry().getValue().nextSequence()) {
+					// not a segment, or not continuing the segments before
+					deleteSegmentFile(file);
+					continue;
+				}
+				final Segment recovered = new Segment(file, baseSequence, this.segmentSize);
+				int position = HEADER_SIZE;
+				while (position + 4 <= this.segmentSize) {
+					final int length = recovered.buffer.getInt(position);
+					if (length <= 0 || position + 4 + length + 4 > this.segmentSize) {
+						break;
+					}
+					if ((flags(recovered.buffer, position) & FLAG_SNAPSHOT_START) != 0) {
+						this.lastSnapshot = recovered.nextSequence();
+					}
+					recovered.addOffset(position);
+					position += 4 + length;
+				}
+				recovered.position = position;
+				this.segments.put(baseSequence, recovered);
+			}
+		}
+		if (this.segments.isEmpty()) {
+			final Segment segment = createSegment(0);
+			this.segments.put(0L, segment);
+		}
+		this.active = this.segments.lastEntry().getValue();
+	}
+
+	private static void deleteSegmentFile(final File file)
+			throws IOException {
+		if (!file.delete()) {
+			throw new IOException("Failed to delete invalid journal segment " + file);
+		}
+	}
+
+	private static int flags(final MappedByteBuffer buffer, final int offset) {
+		// behind the length and the type
+		return buffer.get(offset + 5) & 0xFF;
+	}
+
+	private static MirrorEvent decode(final MappedByteBuffer mapped, final int offset) {
+		// a duplicate has its own position, so reading doesn't disturb appending
+		final ByteBuffer buffer = mapped.duplicate();
+		buffer.position(offset + 4);
+		final MirrorEvent.Type type = TYPES[buffer.get()];
+		final int flags = buffer.get() & 0xFF;
+		final long timestamp = buffer.getLong();
+		final String key = readString(buffer);
+		final String packageName = readString(buffer);
+		final String ticker = readString(buffer);
+		final String title = readString(buffer);
+		final String text = readString(buffer);
+		final NotificationIconCache.Handle icon = (flags & FLAG_ICON) == 0 ? null : NotificationIconCache.Handle.detached(readString(buffer));
+		if ((flags & FLAG_REMOVED) != 0) {
+			return MirrorEvent.tombstone(type, key, packageName, timestamp);
+		}
+		final Set<MirrorEvent.Field> fields = EnumSet.noneOf(MirrorEvent.Field.class);
+		for (final MirrorEvent.Field field : FIELDS) {
+			if ((flags & 2 << field.ordinal()) != 0) {
+				fields.add(field);
+			}
+		}
+		if (fields.size() == FIELDS.length || key == null) {
+			return new MirrorEvent(type, key, packageName, ticker, title, text, icon, timestamp);
+		}
+		return MirrorEvent.changes(type, key, packageName, ticker, title, text, icon, timestamp, fields);
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = buffer.getShort() & 0xFFFF;
+		if (length == NULL_STRING) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] utf8(final String value) {
+		if (value == null) {
+			return null;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("Event field of " + bytes.length + " bytes is too long for the journal");
+		}
+		return bytes;
+	}
+
+	private void loadCursors()
+			throws IOException {
+		final File file = new File(this.directory, CURSORS_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FORMAT_VERSION) {
+				return;
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String mirrorId = in.readUTF();
+				this.cursors.put(mirrorId, Math.min(in.readLong(), getNextSequence()));
+			}
+		} catch (final EOFException e) {
+			// truncated file, keep what could be read
+		}
+	}
+
+	private void saveCursors()
+			throws IOException {
+		final File file = new File(this.directory, CURSORS_FILE);
+		final File tempFile = new File(this.directory, CURSORS_FILE + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(this.cursors.size());
+			for (final Map.Entry<String, Long> cursor : this.cursors.entrySet()) {
+				out.writeUTF(cursor.getKey());
+				out.writeLong(cursor.getValue());
+			}
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("Failed to replace cursor file " + file);
+		}
+	}
+}
@@ -0,0 +1,645 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Data channel to views on a mirror, next to the static resources. A view is uploaded once as page (see {@link ViewTemplates#FEED_TEMPLATE}), afterwards
+ * messages, calls and notifications are sent as small JSON patches which the page applies itself ({@code js/mirror-patch.js}), instead of uploading a new page
+ * for every change.
+ * <p>
+ * A request body is a JSON array of patches, each patch has the form
+ *
+ * <pre>
+ * {"v":12,"key":"0|com.example|1","type":"NOTIFICATION","op":"set","ts":1500000000000,"package":"com.example","fields":{"title":"Alice","text":"Hi",
+ *  "icon":"/apps/app/icons/com.example-3fa4.webp"}}
+ * {"v":13,"key":"0|com.example|1","type":"NOTIFICATION","op":"remove","ts":1500000001000}
+ * </pre>
+ *
+ * {@code fields} only contains the fields that changed. Icons are uploaded as static resources before the first patch referencing them, at the path of
+ * their {@link NotificationIconCache.Handle}, and the patch carries the path on the mirror; see {@link #setIconUploader(StaticResourceUploader)}.
+ * <p>
+ * Versions are counted per view and increase by one with every patch the mirror accepted, a failed request doesn't use up versions. So the mirror and the
+ * page can spot a gap and ask for the patches they missed. Both skip patches whose version isn't newer than the last one they applied, so the versions
+ * have to continue where they stopped when the app restarts, see {@link #setVersionFile(File)}. A snapshot (see {@link #sendSnapshot(String, Collection)}) replaces everything the view shows
+ * and takes a single version, the incremental patches continue after it:
+ *
+ * <pre>
+ * {"v":14,"op":"snapshot","count":2,"patches":[{"v":14,"key":"0|com.example|1","type":"NOTIFICATION","op":"set",...},{"v":14,...}]}
+ * </pre>
+ *
+ * @since 17.07
+ */
+public final class MirrorDataChannel {
+
+	/** Version of the file format, written as first value of the version file */
+	private static final int FORMAT_VERSION = 1;
+
+	/** Number of uploaded icons whose path on the mirror is remembered */
+	private static final int MAX_ICON_PATHS = 256;
+
+	private final URLConnectionFactory.UploadTarget target;
+
+	/**
+	 * Data endpoint and last accepted version of a view. Requests to the same view are serialized on it, so versions stay gapless.
+	 */
+	private static final class View {
+
+		private final URL url;
+
+		private long version;
+
+		View(final URL url) {
+			this.url = url;
+		}
+	}
+
+	private final ConcurrentMap<String, View> views = new ConcurrentHashMap<>();
+
+	private volatile OfflineUploadQueue offlineQueue;
+
+	private volatile long offlineTtlMillis;
+
+	private volatile int timeoutMillis = RetryPolicy.DEFAULT.getAttemptTimeoutMillis();
+
+	/** {@code null} if the versions aren't persisted */
+	private volatile File versionFile;
+
+	private final Object versionFileLock = new Object();
+
+	private final AtomicLong versionFileFailures = new AtomicLong();
+
+	/** {@code null} if icons aren't uploaded */
+	private volatile StaticResourceUploader iconUploader;
+
+	/** Paths on the mirror of the uploaded icons by their path relative to the app, least recently used first */
+	private final LinkedHashMap<String, String> iconPaths = new LinkedHashMap<>(64, 0.75f, true);
+
+	private final AtomicLong iconFailures = new AtomicLong();
+
+	private volatile Exception lastIconFailure;
+
+	/**
+	 * @param mirrorApiUrl api url of the mirror
+	 * @param appId identifier of the app
+	 * @param userId identifier of the user
+	 * @throws MalformedURLException Thrown if mirrorApiUrl is malformed.
+	 */
+	public MirrorDataChannel(final String mirrorApiUrl, final String appId, final String userId)
+			throws MalformedURLException {
+		this(new URLConnectionFactory.UploadTarget(mirrorApiUrl, appId, userId));
+	}
+
+	/**
+	 * @param target destination on the mirror, may be shared with a {@link StaticResourceUploader}
+	 */
+	public MirrorDataChannel(final URLConnectionFactory.UploadTarget target) {
+		if (target == null) {
+			throw new IllegalArgumentException("'target' mustn't be null!");
+		}
+		this.target = target;
+	}
+
+	/**
+	 * Sends a single event to a view.
+	 *
+	 * @return version of the patch
+	 * @throws IOException Thrown if the mirror can't be reached or rejects the patch.
+	 * @see #send(String, Collection)
+	 */
+	public long send(final String viewId, final MirrorEvent event)
+			throws IOException {
+		return send(viewId, Collections.singletonList(event));
+	}
+
+	/**
+	 * Sends a batch of events to a view in one request, e.g. a batch delivered by the {@link MirrorEventBus}.
+	 *
+	 * @param viewId id of the view
+	 * @param events events to send in this order
+	 * @return version of the last patch, {@code -1} if the batch is empty
+	 * @throws IOException Thrown if the mirror can't be reached or rejects the patches, patches that couldn't be sent are queued if an offline queue is set.
+	 */
+	public long send(final String viewId, final Collection<MirrorEvent> events)
+			throws IOException {
+		return send(viewId, events, true);
+	}
+
+	/**
+	 * Sends a batch of events without queueing it if the mirror can't be reached, for events that are kept elsewhere, e.g. in an {@link EventJournal}.
+	 */
+	long sendUnqueued(final String viewId, final Collection<MirrorEvent> events)
+			throws IOException {
+		return send(viewId, events, false);
+	}
+
+	private long send(final String viewId, final Collection<MirrorEvent> events, final boolean queueOnFailure)
+			throws IOException {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		if (events.isEmpty()) {
+			return -1;
+		}
+		final View view = view(viewId);
+		final Map<String, String> icons = uploadIcons(events);
+		long version;
+		synchronized (view) {
+			final StringBuilder json = new StringBuilder(events.size() * 160);
+			version = view.version;
+			json.append('[');
+			for (final MirrorEvent event : events) {
+				if (version > view.version) {
+					json.append(',');
+				}
+				appendPatch(json, ++version, event, icons);
+			}
+			json.append(']');
+			try {
+				post(view.url, json.toString().getBytes(StandardCharsets.UTF_8), this.timeoutMillis);
+			} catch (final IOException e) {
+				final OfflineUploadQueue queue = this.offlineQueue;
+				if (queue != null && queueOnFailure && !(e instanceof UploadException && ((UploadException) e).getReason() == UploadException.Reason.REJECTED)) {
+					try {
+						for (final MirrorEvent event : events) {
+							queue.enqueuePatch(viewId, event, this.offlineTtlMillis);
+						}
+					} catch (final IOException | RuntimeException queueFailure) {
+						e.addSuppressed(queueFailure);
+					}
+				}
+				throw e;
+			}
+			view.version = version;
+		}
+		saveVersions();
+		return version;
+	}
+
+	/**
+	 * Replaces everything a view shows with a snapshot, sent as one request. Removals in the snapshot are skipped. A snapshot that can't be sent isn't
+	 * queued, the next snapshot supersedes it anyway.
+	 *
+	 * @param viewId id of the view
+	 * @param events complete events of everything the view should show
+	 * @return version of the snapshot
+	 * @throws IOException Thrown if the mirror can't be reached or rejects the snapshot.
+	 */
+	public long sendSnapshot(final String viewId, final Collection<MirrorEvent> events)
+			throws IOException {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		final View view = view(viewId);
+		final Map<String, String> icons = uploadIcons(events);
+		final long version;
+		synchronized (view) {
+			version = view.version + 1;
+			final StringBuilder json = new StringBuilder(64 + events.size() * 160);
+			final StringBuilder patches = new StringBuilder(events.size() * 160);
+			int count = 0;
+			for (final MirrorEvent event : events) {
+				if (event.isRemoved()) {
+					continue;
+				}
+				if (count++ > 0) {
+					patches.append(',');
+				}
+				appendPatch(patches, version, event, icons);
+			}
+			json.append("[{\"v\":").append(version).append(",\"op\":\"snapshot\",\"count\":").append(count).append(",\"patches\":[").append(patches)
+					.append("]}]");
+			post(view.url, json.toString().getBytes(StandardCharsets.UTF_8), this.timeoutMillis);
+			view.version = version;
+		}
+		saveVersions();
+		return version;
+	}
+
+	/**
+	 * Creates a bus consumer sending the events of the bus to a view, batches as patches and snapshots as snapshots. Failures are thrown as
+	 * {@link UncheckedIOException}, patches are queued if an offline queue is set.
+	 *
+	 * @param viewId id of the view
+	 * @return consumer for {@link MirrorEventBus#subscribe(MirrorEventBus.Consumer)}
+	 */
+	public MirrorEventBus.Consumer consumer(final String viewId) {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		return new MirrorEventBus.Consumer() {
+
+			@Override
+			public void onEvents(final List<MirrorEvent> events) {
+				try {
+					send(viewId, events);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public void onSnapshot(final List<MirrorEvent> events) {
+				try {
+					sendSnapshot(viewId, events);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Sends a patch of the offline queue, without queueing it again if the mirror is still unreachable.
+	 */
+	long sendQueued(final OfflineUploadQueue.Entry entry)
+			throws IOException {
+		return send(entry.getViewId(), Collections.singletonList(entry.getEvent()), false);
+	}
+
+	/**
+	 * Sets the queue that keeps patches which couldn't be sent because the mirror was unreachable. Sending still fails with an exception, the queued
+	 * patches are sent with new versions once the mirror is reachable again.
+	 *
+	 * @param queue queue to use or {@code null} to not queue failed patches
+	 * @param ttlMillis time after which a queued patch is dropped
+	 * @see OfflineUploadQueue#sender(StaticResourceUploader, MirrorDataChannel)
+	 */
+	public void setOfflineQueue(final OfflineUploadQueue queue, final long ttlMillis) {
+		if (queue != null && ttlMillis <= 0) {
+			throw new IllegalArgumentException("'ttlMillis' must be positive!");
+		}
+		this.offlineTtlMillis = ttlMillis;
+		this.offlineQueue = queue;
+	}
+
+	/**
+	 * Sets the connect and read timeout of the requests. A request that times out fails like one to an unreachable mirror.
+	 *
+	 * @param timeoutMillis timeout in milliseconds, by default the attempt timeout of {@link RetryPolicy#DEFAULT}
+	 * @see RetryPolicy#getAttemptTimeoutMillis()
+	 */
+	public void setTimeoutMillis(final int timeoutMillis) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("'timeoutMillis' must be positive!");
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sets the uploader for the icons of the events, usually the one uploading the views to the same mirror. An icon is uploaded before the first patch
+	 * referencing it, waiting at most the timeout for its transcoding, and is referenced by its path on the mirror afterwards. A patch whose icon can't
+	 * be uploaded is sent without it, see {@link #getIconFailureCount()}.
+	 *
+	 * @param uploader uploader to use or {@code null} to send the patches without icons
+	 */
+	public void setIconUploader(final StaticResourceUploader uploader) {
+		this.iconUploader = uploader;
+	}
+
+	/**
+	 * Uploads the icons of the events the mirror doesn't have yet.
+	 *
+	 * @return paths of the icons on the mirror by their path relative to the app, icons that couldn't be uploaded are missing
+	 */
+	private Map<String, String> uploadIcons(final Collection<MirrorEvent> events) {
+		final StaticResourceUploader uploader = this.iconUploader;
+		if (uploader == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> icons = null;
+		for (final MirrorEvent event : events) {
+			final NotificationIconCache.Handle icon = event.getIcon();
+			if (icon == null || event.isRemoved() || !event.getChangedFields().contains(MirrorEvent.Field.ICON)) {
+				continue;
+			}
+			if (icons == null) {
+				icons = new HashMap<>();
+			}
+			else if (icons.containsKey(icon.getPath())) {
+				continue;
+			}
+			String path;
+			synchronized (this.iconPaths) {
+				path = this.iconPaths.get(icon.getPath());
+			}
+			if (path == null) {
+				try {
+					path = uploader.uploadResource(icon.getIcon().get(this.timeoutMillis, TimeUnit.MILLISECONDS), icon.getPath());
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.iconFailures.incrementAndGet();
+					this.lastIconFailure = e;
+					break;
+				} catch (final ExecutionException | TimeoutException | IOException e) {
+					this.iconFailures.incrementAndGet();
+					this.lastIconFailure = e;
+					continue;
+				}
+				rememberIconPath(icon.getPath(), path);
+			}
+			icons.put(icon.getPath(), path);
+		}
+		return icons == null ? Collections.emptyMap() : icons;
+	}
+
+	private void rememberIconPath(final String iconPath, final String mirrorPath) {
+		synchronized (this.iconPaths) {
+			this.iconPaths.put(iconPath, mirrorPath);
+			final Iterator<String> eldest = this.iconPaths.keySet().iterator();
+			while (this.iconPaths.size() > MAX_ICON_PATHS) {
+				eldest.next();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return number of icons that couldn't be transcoded or uploaded, their patches were sent without icon
+	 */
+	public long getIconFailureCount() {
+		return this.iconFailures.get();
+	}
+
+	/**
+	 * @return cause of the last icon that couldn't be transcoded or uploaded, {@code null} if none failed yet
+	 */
+	public Exception getLastIconFailure() {
+		return this.lastIconFailure;
+	}
+
+	/**
+	 * Keeps the last accepted version of each view in a file, so the versions continue after the app restarted instead of starting over. The versions in
+	 * the file are loaded, a view keeps its version if it counted further already. The file is rewritten after every accepted request; if that fails the
+	 * request still counts as sent, see {@link #getVersionFileFailureCount()}.
+	 *
+	 * @param file file the versions are kept in, created with the first accepted request, {@code null} to not persist the versions
+	 * @throws IOException Thrown if the existing file can't be read.
+	 */
+	public void setVersionFile(final File file)
+			throws IOException {
+		if (file != null && file.isFile()) {
+			try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (in.readInt() == FORMAT_VERSION) {
+					final int count = in.readInt();
+					for (int i = 0; i < count; i++) {
+						continueVersion(in.readUTF(), in.readLong());
+					}
+				}
+			} catch (final EOFException e) {
+				// truncated file, keep what could be read
+			}
+		}
+		this.versionFile = file;
+	}
+
+	/**
+	 * Continues the versions of a previous channel to the same mirror, e.g. after the mirror was lost and found again. The icons the previous channel
+	 * uploaded are referenced without uploading them again, like the {@link UploadManifest} skips the resources the mirror has already.
+	 */
+	void continueVersions(final MirrorDataChannel previous)
+			throws MalformedURLException {
+		for (final Map.Entry<String, View> entry : previous.views.entrySet()) {
+			synchronized (entry.getValue()) {
+				continueVersion(entry.getKey(), entry.getValue().version);
+			}
+		}
+		final Map<String, String> icons;
+		synchronized (previous.iconPaths) {
+			icons = new LinkedHashMap<>(previous.iconPaths);
+		}
+		for (final Map.Entry<String, String> icon : icons.entrySet()) {
+			rememberIconPath(icon.getKey(), icon.getValue());
+		}
+	}
+
+	private void continueVersion(final String viewId, final long version)
+			throws MalformedURLException {
+		final View view = view(viewId);
+		synchronized (view) {
+			view.version = Math.max(view.version, version);
+		}
+	}
+
+	private void saveVersions() {
+		final File file = this.versionFile;
+		if (file == null) {
+			return;
+		}
+		// concurrent requests to different views write the same file, the last writer takes the latest versions
+		synchronized (this.versionFileLock) {
+			final Map<String, Long> versions = new HashMap<>();
+			for (final Map.Entry<String, View> entry : this.views.entrySet()) {
+				synchronized (entry.getValue()) {
+					versions.put(entry.getKey(), entry.getValue().version);
+				}
+			}
+			final File tempFile = new File(file.getPath() + ".tmp");
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(versions.size());
+				for (final Map.Entry<String, Long> entry : versions.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue());
+				}
+			} catch (final IOException e) {
+				this.versionFileFailures.incrementAndGet();
+				return;
+			}
+			if (!tempFile.renameTo(file)) {
+				this.versionFileFailures.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return number of accepted requests whose versions couldn't be written to the version file
+	 */
+	public long getVersionFileFailureCount() {
+		return this.versionFileFailures.get();
+	}
+
+	/**
+	 * @return last version the mirror accepted for a view, {@code 0} if nothing was sent yet
+	 */
+	public long getVersion(final String viewId) {
+		final View view = this.views.get(viewId);
+		if (view == null) {
+			return 0;
+		}
+		synchronized (view) {
+			return view.version;
+		}
+	}
+
+	private View view(final String viewId)
+			throws MalformedURLException {
+		final View cached = this.views.get(viewId);
+		if (cached != null) {
+			return cached;
+		}
+		final View view = new View(this.target.dataUrl(viewId));
+		final View raced = this.views.putIfAbsent(viewId, view);
+		return raced == null ? view : raced;
+	}
+
+	private static void post(final URL url, final byte[] body, final int timeoutMillis)
+			throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		// without timeouts a mirror that stops answering blocks the patch thread forever
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		boolean reusable = false;
+		try {
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+			connection.setFixedLengthStreamingMode(body.length);
+			try (final OutputStream os = connection.getOutputStream()) {
+				os.write(body);
+			}
+			final int responseCode = connection.getResponseCode();
+			if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+				throw new IOException("Mirror answered with status " + responseCode);
+			}
+			if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+				throw new UploadException(UploadException.Reason.REJECTED, "Mirror rejected patch with status " + responseCode, 1, 0, null);
+			}
+			try (final InputStream in = connection.getInputStream()) {
+				// the response has no content of interest, it is read to the end so the connection can be reused
+				final byte[] buffer = new byte[256];
+				while (in.read(buffer) != -1) {
+					// skip
+				}
+			}
+			reusable = true;
+		}
+		finally {
+			if (!reusable) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Appends the JSON patch of an event.
+	 *
+	 * @param icons paths of the uploaded icons on the mirror by their path relative to the app, the icon of the event is left out if it's missing
+	 */
+	static void appendPatch(final StringBuilder json, final long version, final MirrorEvent event, final Map<String, String> icons) {
+		json.append("{\"v\":").append(version).append(",\"key\":");
+		appendString(json, event.getKey());
+		json.append(",\"type\":\"").append(event.getType().name()).append("\",\"op\":\"").append(event.isRemoved() ? "remove" : "set")
+				.append("\",\"ts\":").append(event.getTimestamp());
+		if (event.isRemoved()) {
+			json.append('}');
+			return;
+		}
+		if (event.isComplete()) {
+			json.append(",\"package\":");
+			appendString(json, event.getPackageName());
+		}
+		json.append(",\"fields\":{");
+		boolean first = true;
+		for (final MirrorEvent.Field field : event.getChangedFields()) {
+			final String value;
+			switch (field) {
+			case TICKER:
+				value = event.getTicker();
+				break;
+			case TITLE:
+				value = event.getTitle();
+				break;
+			case TEXT:
+				value = event.getText();
+				break;
+			case ICON:
+				value = event.getIcon() == null ? null : icons.get(event.getIcon().getPath());
+				// an icon that couldn't be uploaded is left out, a complete event has no icon to remove
+				if (value == null && (event.isComplete() || event.getIcon() != null)) {
+					continue;
+				}
+				break;
+			default:
+				continue;
+			}
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append('"').append(field.name().toLowerCase(Locale.ROOT)).append("\":");
+			appendString(json, value);
+		}
+		json.append("}}");
+	}
+
+	private static void appendString(final StringBuilder json, final String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+					json.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+}
@@ -0,0 +1,156 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import android.content.Context;
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+import android.net.wifi.WifiManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+/**
+ * Finds the mirrors on the local network by mDNS/DNS-SD and reports them to a {@link ViewRegistrator}. Mirrors announce the service type
+ * {@value #SERVICE_TYPE}; the path of their api is taken from the TXT record {@value #TXT_API_PATH}, {@value #DEFAULT_API_PATH} if missing. Uploads are
+ * only gzip compressed for mirrors announcing the TXT record {@value #TXT_GZIP} with the value {@code 1}.
+ */
+public class MirrorDiscovery {
+
+    public static final String SERVICE_TYPE = "_smartmirror._tcp.";
+    public static final String TXT_API_PATH = "api";
+    public static final String DEFAULT_API_PATH = "/api";
+    public static final String TXT_GZIP = "gzip";
+
+    private static final String TAG = "MirrorDiscovery";
+
+    private final NsdManager nsdManager;
+    private final WifiManager.MulticastLock multicastLock;
+    private final ViewRegistrator registrator;
+    // NsdManager resolves one service at a time, the others wait here
+    private final ArrayDeque<NsdServiceInfo> pendingResolves = new ArrayDeque<>();
+    private boolean resolving;
+    private boolean started;
+
+    private final NsdManager.DiscoveryListener discoveryListener = new NsdManager.DiscoveryListener() {
+
+        @Override
+        public void onStartDiscoveryFailed(String serviceType, int errorCode) {
+            Log.e(TAG, "Discovery failed to start: " + errorCode);
+        }
+
+        @Override
+        public void onStopDiscoveryFailed(String serviceType, int errorCode) {
+            Log.e(TAG, "Discovery failed to stop: " + errorCode);
+        }
+
+        @Override
+        public void onDiscoveryStarted(String serviceType) {
+            Log.i(TAG, "Looking for mirrors");
+        }
+
+        @Override
+        public void onDiscoveryStopped(String serviceType) {
+            Log.i(TAG, "Stopped looking for mirrors");
+        }
+
+        @Override
+        public void onServiceFound(NsdServiceInfo serviceInfo) {
+            resolve(serviceInfo);
+        }
+
+        @Override
+        public void onServiceLost(NsdServiceInfo serviceInfo) {
+            Log.i(TAG, "Mirror lost: " + serviceInfo.getServiceName());
+            registrator.mirrorLost(serviceInfo.getServiceName());
+        }
+    };
+
+    /**
+     * @param context context of the app
+     * @param registrator registrator the mirrors are reported to
+     */
+    public MirrorDiscovery(Context context, ViewRegistrator registrator) {
+        this.nsdManager = (NsdManager) context.getSystemService(Context.NSD_SERVICE);
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        // without the lock the wifi driver may filter the multicast answers of the mirrors
+        this.multicastLock = wifiManager.createMulticastLock(TAG);
+        this.multicastLock.setReferenceCounted(false);
+        this.registrator = registrator;
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        multicastLock.acquire();
+        nsdManager.discoverServices(SERVICE_TYPE, NsdManager.PROTOCOL_DNS_SD, discoveryListener);
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        pendingResolves.clear();
+        nsdManager.stopServiceDiscovery(discoveryListener);
+        multicastLock.release();
+    }
+
+    private synchronized void resolve(NsdServiceInfo serviceInfo) {
+        if (resolving) {
+            pendingResolves.add(serviceInfo);
+            return;
+        }
+        resolving = true;
+        nsdManager.resolveService(serviceInfo, new NsdManager.ResolveListener() {
+
+            @Override
+            public void onResolveFailed(NsdServiceInfo failed, int errorCode) {
+                Log.w(TAG, "Failed to resolve mirror " + failed.getServiceName() + ": " + errorCode);
+                resolveNext();
+            }
+
+            @Override
+            public void onServiceResolved(NsdServiceInfo resolved) {
+                String apiUrl = "http://" + resolved.getHost().getHostAddress() + ":" + resolved.getPort() + apiPath(resolved);
+                Log.i(TAG, "Mirror found: " + resolved.getServiceName() + " at " + apiUrl);
+                try {
+                    registrator.mirrorAvailable(resolved.getServiceName(), apiUrl, acceptsGzip(resolved));
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Mirror " + resolved.getServiceName() + " can't be used", e);
+                }
+                resolveNext();
+            }
+        });
+    }
+
+    private void resolveNext() {
+        NsdServiceInfo next;
+        synchronized (this) {
+            resolving = false;
+            next = started ? pendingResolves.poll() : null;
+        }
+        if (next != null) {
+            resolve(next);
+        }
+    }
+
+    private static String apiPath(NsdServiceInfo serviceInfo) {
+        Map<String, byte[]> attributes = serviceInfo.getAttributes();
+        byte[] path = attributes == null ? null : attributes.get(TXT_API_PATH);
+        if (path == null || path.length == 0) {
+            return DEFAULT_API_PATH;
+        }
+        String value = new String(path, StandardCharsets.UTF_8);
+        return value.startsWith("/") ? value : "/" + value;
+    }
+
+    private static boolean acceptsGzip(NsdServiceInfo serviceInfo) {
+        Map<String, byte[]> attributes = serviceInfo.getAttributes();
+        byte[] gzip = attributes == null ? null : attributes.get(TXT_GZIP);
+        return gzip != null && "1".equals(new String(gzip, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,189 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Immutable record of something that should be shown on the mirror, produced by the notification, SMS and call listeners. An event either carries all
+ * fields, only the fields that changed since the last event with the same key, or it is a tombstone telling the mirror to drop what it shows for the key.
+ *
+ * @since 17.07
+ */
+public final class MirrorEvent {
+
+	public enum Type {
+		NOTIFICATION,
+		SMS,
+		CALL
+	}
+
+	/**
+	 * Fields of an event that can change independently.
+	 */
+	public enum Field {
+		TICKER,
+		TITLE,
+		TEXT,
+		ICON
+	}
+
+	private static final Set<Field> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(Field.class));
+
+	private static final Set<Field> NO_FIELDS = Collections.unmodifiableSet(EnumSet.noneOf(Field.class));
+
+	private final Type type;
+	private final String key;
+	private final String packageName;
+	private final String ticker;
+	private final String title;
+	private final String text;
+	private final NotificationIconCache.Handle icon;
+	private final long timestamp;
+	private final Set<Field> changedFields;
+	private final boolean removed;
+
+	/**
+	 * Creates an event carrying all fields.
+	 *
+	 * @param type source of the event
+	 * @param key identifies the thing the event updates, consecutive events with the same key replace each other while waiting for delivery;
+	 *            {@code null} if the event must never be merged
+	 * @param packageName package of the app that caused the event, empty for SMS and calls
+	 * @param ticker short summary
+	 * @param title title, e.g. the sender
+	 * @param text content
+	 * @param icon handle of the icon in the {@link NotificationIconCache} or {@code null}
+	 * @param timestamp time the event occurred in milliseconds since the epoch
+	 */
+	public MirrorEvent(final Type type, final String key, final String packageName, final String ticker, final String title, final String text,
+			final NotificationIconCache.Handle icon, final long timestamp) {
+		this(type, key, packageName, ticker, title, text, icon, timestamp, ALL_FIELDS, false);
+	}
+
+	private MirrorEvent(final Type type, final String key, final String packageName, final String ticker, final String title, final String text,
+			final NotificationIconCache.Handle icon, final long timestamp, final Set<Field> changedFields, final boolean removed) {
+		if (type == null) {
+			throw new IllegalArgumentException("'type' mustn't be null!");
+		}
+		this.type = type;
+		this.key = key;
+		this.packageName = packageName;
+		this.ticker = ticker;
+		this.title = title;
+		this.text = text;
+		this.icon = icon;
+		this.timestamp = timestamp;
+		this.changedFields = changedFields;
+		this.removed = removed;
+	}
+
+	/**
+	 * Creates an event carrying only the changed fields, the other fields are {@code null}.
+	 *
+	 * @param changedFields fields that changed since the last event with the same key
+	 * @throws IllegalArgumentException Thrown if the key is {@code null} or no field changed.
+	 * @see #MirrorEvent(Type, String, String, String, String, String, NotificationIconCache.Handle, long)
+	 */
+	public static MirrorEvent changes(final Type type, final String key, final String packageName, final String ticker, final String title,
+			final String text, final NotificationIconCache.Handle icon, final long timestamp, final Set<Field> changedFields) {
+		if (key == null) {
+			throw new IllegalArgumentException("'key' mustn't be null!");
+		}
+		if (changedFields == null || changedFields.isEmpty()) {
+			throw new IllegalArgumentException("'changedFields' mustn't be empty!");
+		}
+		final Set<Field> fields = Collections.unmodifiableSet(EnumSet.copyOf(changedFields));
+		return new MirrorEvent(type, key, packageName, changedFields.contains(Field.TICKER) ? ticker : null,
+				changedFields.contains(Field.TITLE) ? title : null, changedFields.contains(Field.TEXT) ? text : null,
+				changedFields.contains(Field.ICON) ? icon : null, timestamp, fields, false);
+	}
+
+	/**
+	 * Creates a tombstone telling the mirror that the thing identified by the key is gone.
+	 *
+	 * @throws IllegalArgumentException Thrown if the key is {@code null}.
+	 */
+	public static MirrorEvent tombstone(final Type type, final String key, final String packageName, final long timestamp) {
+		if (key == null) {
+			throw new IllegalArgumentException("'key' mustn't be null!");
+		}
+		return new MirrorEvent(type, key, packageName, null, null, null, null, timestamp, NO_FIELDS, true);
+	}
+
+	/**
+	 * Combines this event with a newer event of the same key, so no change is lost if the newer event replaces this one before delivery.
+	 *
+	 * @param newer event published after this one
+	 * @return event with the combined changes
+	 */
+	MirrorEvent merge(final MirrorEvent newer) {
+		if (newer.removed || newer.changedFields.size() == ALL_FIELDS.size() || this.removed) {
+			// a tombstone or a complete event supersedes everything, and anything after a tombstone starts over
+			return newer;
+		}
+		final Set<Field> fields = EnumSet.copyOf(this.changedFields);
+		fields.addAll(newer.changedFields);
+		return new MirrorEvent(newer.type, newer.key, newer.packageName, pick(Field.TICKER, newer.ticker, this.ticker, newer),
+				pick(Field.TITLE, newer.title, this.title, newer), pick(Field.TEXT, newer.text, this.text, newer),
+				pick(Field.ICON, newer.icon, this.icon, newer), newer.timestamp,
+				fields.size() == ALL_FIELDS.size() ? ALL_FIELDS : Collections.unmodifiableSet(fields), false);
+	}
+
+	private static <T> T pick(final Field field, final T newerValue, final T olderValue, final MirrorEvent newer) {
+		return newer.changedFields.contains(field) ? newerValue : olderValue;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public String getKey() {
+		return this.key;
+	}
+
+	public String getPackageName() {
+		return this.packageName;
+	}
+
+	public String getTicker() {
+		return this.ticker;
+	}
+
+	public String getTitle() {
+		return this.title;
+	}
+
+	public String getText() {
+		return this.text;
+	}
+
+	public NotificationIconCache.Handle getIcon() {
+		return this.icon;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return fields carried by this event, all fields for a complete event and none for a tombstone
+	 */
+	public Set<Field> getChangedFields() {
+		return this.changedFields;
+	}
+
+	/**
+	 * @return {@code true} if this event carries all fields
+	 */
+	public boolean isComplete() {
+		return this.changedFields.size() == ALL_FIELDS.size();
+	}
+
+	/**
+	 * @return {@code true} if this event is a tombstone
+	 */
+	public boolean isRemoved() {
+		return this.removed;
+	}
+}
@@ -0,0 +1,308 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process event bus between the event sources (notifications, SMS, calls) and the code that updates the mirror. Events are buffered in a bounded ring
+ * buffer and delivered to the consumers in batches at a fixed cadence, so a burst of events costs one delivery instead of one broadcast per event.
+ * While an event waits for delivery, a newer event with the same key is merged into it, see {@link MirrorEvent#merge(MirrorEvent)}. If the buffer is full
+ * the oldest event is dropped.
+ *
+ * @since 17.07
+ */
+public final class MirrorEventBus {
+
+	/**
+	 * Receives the events of the bus, always on the bus' delivery thread.
+	 */
+	public interface Consumer {
+
+		/**
+		 * @param events events in the order they were published, never empty
+		 */
+		void onEvents(List<MirrorEvent> events);
+
+		/**
+		 * Receives a snapshot of all active notifications, delivered before any event published after it. Consumers that don't distinguish snapshots
+		 * receive it as a batch.
+		 *
+		 * @param events complete events of the active notifications, may be empty
+		 */
+		default void onSnapshot(final List<MirrorEvent> events) {
+			if (!events.isEmpty()) {
+				onEvents(events);
+			}
+		}
+	}
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/** Roughly six display frames, fast enough to look immediate on the mirror */
+	public static final long DEFAULT_CADENCE_MILLIS = 100;
+
+	private static MirrorEventBus instance;
+
+	private final MirrorEvent[] ring;
+	/** sequence number of the oldest buffered event, the slot of sequence {@code s} is {@code s % ring.length} */
+	private long head;
+	private int size;
+	/** sequence numbers of buffered events by key */
+	private final Map<String, Long> pendingKeys = new HashMap<>();
+	private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+	private final long cadenceMillis;
+	/** snapshot waiting for delivery, delivered ahead of the ring buffer */
+	private List<MirrorEvent> snapshot;
+	private ScheduledExecutorService deliveryThread;
+
+	private long published;
+	private long merged;
+	private long dropped;
+	private long delivered;
+	private long failed;
+	private RuntimeException lastFailure;
+
+	/**
+	 * @param capacity maximum number of events waiting for delivery
+	 * @param cadenceMillis interval in which buffered events are delivered
+	 */
+	public MirrorEventBus(final int capacity, final long cadenceMillis) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("'capacity' must be positive!");
+		}
+		if (cadenceMillis <= 0) {
+			throw new IllegalArgumentException("'cadenceMillis' must be positive!");
+		}
+		this.ring = new MirrorEvent[capacity];
+		this.cadenceMillis = cadenceMillis;
+	}
+
+	/**
+	 * @return the bus shared by all components of the app
+	 */
+	public static synchronized MirrorEventBus getInstance() {
+		if (instance == null) {
+			instance = new MirrorEventBus(DEFAULT_CAPACITY, DEFAULT_CADENCE_MILLIS);
+		}
+		return instance;
+	}
+
+	/**
+	 * Buffers an event for the next delivery. Never blocks.
+	 */
+	public synchronized void publish(final MirrorEvent event) {
+		if (event == null) {
+			throw new IllegalArgumentException("'event' mustn't be null!");
+		}
+		this.published++;
+		final String key = event.getKey();
+		if (key != null) {
+			final Long pending = this.pendingKeys.get(key);
+			if (pending != null) {
+				final int slot = slot(pending);
+				this.ring[slot] = this.ring[slot].merge(event);
+				this.merged++;
+				return;
+			}
+		}
+		if (this.size == this.ring.length) {
+			final MirrorEvent oldest = this.ring[slot(this.head)];
+			if (oldest.getKey() != null) {
+				this.pendingKeys.remove(oldest.getKey());
+			}
+			this.ring[slot(this.head)] = null;
+			this.head++;
+			this.size--;
+			this.dropped++;
+		}
+		final long sequence = this.head + this.size;
+		this.ring[slot(sequence)] = event;
+		this.size++;
+		if (key != null) {
+			this.pendingKeys.put(key, sequence);
+		}
+	}
+
+	/**
+	 * Replaces the state of all notifications, e.g. when the notification listener (re)connects. Buffered notification events are superseded by the
+	 * snapshot and dropped, buffered SMS and call events are delivered after it. Never blocks.
+	 *
+	 * @param events complete events of the active notifications
+	 */
+	public synchronized void publishSnapshot(final List<MirrorEvent> events) {
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		final List<MirrorEvent> kept = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			final int slot = slot(this.head + i);
+			if (this.ring[slot].getType() != MirrorEvent.Type.NOTIFICATION) {
+				kept.add(this.ring[slot]);
+			}
+			this.ring[slot] = null;
+		}
+		this.head += this.size;
+		this.size = 0;
+		this.pendingKeys.clear();
+		for (final MirrorEvent event : kept) {
+			final long sequence = this.head + this.size++;
+			this.ring[slot(sequence)] = event;
+			if (event.getKey() != null) {
+				this.pendingKeys.put(event.getKey(), sequence);
+			}
+		}
+		this.snapshot = Collections.unmodifiableList(new ArrayList<>(events));
+		this.published += events.size();
+	}
+
+	/**
+	 * Registers a consumer and starts the delivery thread with the first consumer.
+	 */
+	public synchronized void subscribe(final Consumer consumer) {
+		if (consumer == null) {
+			throw new IllegalArgumentException("'consumer' mustn't be null!");
+		}
+		this.consumers.add(consumer);
+		if (this.deliveryThread == null) {
+			this.deliveryThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "mirror-event-bus");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.deliveryThread.scheduleWithFixedDelay(this::flush, this.cadenceMillis, this.cadenceMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Removes a consumer and stops the delivery thread with the last one. Buffered events wait for the next subscription.
+	 */
+	public synchronized void unsubscribe(final Consumer consumer) {
+		this.consumers.remove(consumer);
+		if (this.consumers.isEmpty() && this.deliveryThread != null) {
+			this.deliveryThread.shutdown();
+			this.deliveryThread = null;
+		}
+	}
+
+	/**
+	 * Delivers all buffered events to the consumers immediately. Called by the delivery thread at the configured cadence.
+	 */
+	public void flush() {
+		final List<MirrorEvent> currentSnapshot;
+		final List<MirrorEvent> batch;
+		synchronized (this) {
+			if (this.consumers.isEmpty()) {
+				return;
+			}
+			currentSnapshot = this.snapshot;
+			this.snapshot = null;
+			if (currentSnapshot != null) {
+				this.delivered += currentSnapshot.size();
+			}
+			batch = drain();
+		}
+		if (currentSnapshot != null) {
+			for (final Consumer consumer : this.consumers) {
+				try {
+					consumer.onSnapshot(currentSnapshot);
+				} catch (final RuntimeException e) {
+					// a failing consumer mustn't stop the delivery to the others
+					failed(e);
+				}
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		for (final Consumer consumer : this.consumers) {
+			try {
+				consumer.onEvents(batch);
+			} catch (final RuntimeException e) {
+				// a failing consumer mustn't stop the delivery to the others
+				failed(e);
+			}
+		}
+	}
+
+	private synchronized void failed(final RuntimeException error) {
+		this.failed++;
+		this.lastFailure = error;
+	}
+
+	private List<MirrorEvent> drain() {
+		if (this.size == 0) {
+			return Collections.emptyList();
+		}
+		final List<MirrorEvent> batch = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			final int slot = slot(this.head + i);
+			batch.add(this.ring[slot]);
+			this.ring[slot] = null;
+		}
+		this.head += this.size;
+		this.size = 0;
+		this.pendingKeys.clear();
+		this.delivered += batch.size();
+		return Collections.unmodifiableList(batch);
+	}
+
+	private int slot(final long sequence) {
+		return (int) (sequence % this.ring.length);
+	}
+
+	/**
+	 * @return number of events published so far
+	 */
+	public synchronized long getPublishedCount() {
+		return this.published;
+	}
+
+	/**
+	 * @return number of events that replaced a buffered event with the same key
+	 */
+	public synchronized long getMergedCount() {
+		return this.merged;
+	}
+
+	/**
+	 * @return number of events dropped because the buffer was full
+	 */
+	public synchronized long getDroppedCount() {
+		return this.dropped;
+	}
+
+	/**
+	 * @return number of events handed to the consumers
+	 */
+	public synchronized long getDeliveredCount() {
+		return this.delivered;
+	}
+
+	/**
+	 * @return number of deliveries a consumer failed to handle, counted once per consumer and batch
+	 */
+	public synchronized long getFailedCount() {
+		return this.failed;
+	}
+
+	/**
+	 * @return exception of the last failed delivery, {@code null} if none failed
+	 */
+	public synchronized RuntimeException getLastFailure() {
+		return this.lastFailure;
+	}
+
+	/**
+	 * @return {@code true} while the delivery thread runs, i.e. between the first subscription and the last unsubscription
+	 */
+	public synchronized boolean isDelivering() {
+		return this.deliveryThread != null;
+	}
+}
@@ -0,0 +1,368 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Decides which notifications are shown on the mirror. The rules are compiled once, when the preferences change, so evaluating them is cheap enough to run
+ * before anything else is done with a notification: packages are looked up in hash sets, keywords are matched in a single pass over the text by an
+ * Aho-Corasick automaton.
+ * <p>
+ * A notification is rejected if its package is denied, if packages are allowed explicitly and its package is not one of them, if it is posted during the
+ * quiet hours or if keywords are configured and none of them occurs in its ticker, title or text. Keywords are matched case insensitive.
+ *
+ * @since 17.07
+ */
+public final class NotificationFilter {
+
+	/** Preference enabling the filter, without it all notifications are accepted */
+	public static final String PREF_ENABLED = "mirror_filter_enabled";
+
+	/** Preference listing the packages shown on the mirror, all packages if empty */
+	public static final String PREF_ALLOWED_PACKAGES = "mirror_filter_allowed_packages";
+
+	/** Preference listing the packages never shown on the mirror */
+	public static final String PREF_DENIED_PACKAGES = "mirror_filter_denied_packages";
+
+	/** Preference listing the keywords of which one has to occur, one per line or comma separated */
+	public static final String PREF_KEYWORDS = "mirror_filter_keywords";
+
+	/** Preference with the start of the quiet hours as {@code HH:mm} */
+	public static final String PREF_QUIET_FROM = "mirror_filter_quiet_from";
+
+	/** Preference with the end of the quiet hours as {@code HH:mm} */
+	public static final String PREF_QUIET_UNTIL = "mirror_filter_quiet_until";
+
+	/** Filter accepting all notifications */
+	public static final NotificationFilter ACCEPT_ALL = new NotificationFilter(Collections.<String> emptySet(), Collections.<String> emptySet(), null, -1,
+			-1, TimeZone.getTimeZone("UTC"));
+
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+	private final Set<String> allowedPackages;
+
+	private final Set<String> deniedPackages;
+
+	private final KeywordMatcher keywords;
+
+	private final int quietFromMinute;
+
+	private final int quietUntilMinute;
+
+	private final TimeZone timeZone;
+
+	private NotificationFilter(final Set<String> allowedPackages, final Set<String> deniedPackages, final KeywordMatcher keywords,
+			final int quietFromMinute, final int quietUntilMinute, final TimeZone timeZone) {
+		this.allowedPackages = allowedPackages;
+		this.deniedPackages = deniedPackages;
+		this.keywords = keywords;
+		this.quietFromMinute = quietFromMinute;
+		this.quietUntilMinute = quietUntilMinute;
+		this.timeZone = timeZone;
+	}
+
+	/**
+	 * Compiles a set of rules.
+	 *
+	 * @param allowedPackages packages shown on the mirror, all packages if empty
+	 * @param deniedPackages packages never shown on the mirror
+	 * @param keywords keywords of which one has to occur in a notification, no keyword matching if empty
+	 * @param quietFromMinute minute of the day the quiet hours start, {@code -1} for no quiet hours
+	 * @param quietUntilMinute minute of the day the quiet hours end (exclusive), before the start if they span midnight
+	 * @param timeZone time zone of the quiet hours
+	 * @return compiled filter
+	 */
+	public static NotificationFilter compile(final Collection<String> allowedPackages, final Collection<String> deniedPackages,
+			final Collection<String> keywords, final int quietFromMinute, final int quietUntilMinute, final TimeZone timeZone) {
+		if (allowedPackages == null) {
+			throw new IllegalArgumentException("'allowedPackages' mustn't be null!");
+		}
+		if (deniedPackages == null) {
+			throw new IllegalArgumentException("'deniedPackages' mustn't be null!");
+		}
+		if (keywords == null) {
+			throw new IllegalArgumentException("'keywords' mustn't be null!");
+		}
+		if (timeZone == null) {
+			throw new IllegalArgumentException("'timeZone' mustn't be null!");
+		}
+		if (quietFromMinute >= MINUTES_PER_DAY || quietUntilMinute >= MINUTES_PER_DAY) {
+			throw new IllegalArgumentException("Quiet hours must be minutes of the day!");
+		}
+		final boolean quietHours = quietFromMinute >= 0 && quietUntilMinute >= 0 && quietFromMinute != quietUntilMinute;
+		return new NotificationFilter(new HashSet<>(allowedPackages), new HashSet<>(deniedPackages), KeywordMatcher.compile(keywords),
+				quietHours ? quietFromMinute : -1, quietHours ? quietUntilMinute : -1, timeZone);
+	}
+
+	/**
+	 * Compiles the rules configured in the preferences, see the {@code PREF_*} keys.
+	 *
+	 * @param preferences all preferences of the app
+	 * @param timeZone time zone of the quiet hours
+	 * @return compiled filter, {@link #ACCEPT_ALL} if the filter is disabled
+	 */
+	public static NotificationFilter fromPreferences(final Map<String, ?> preferences, final TimeZone timeZone) {
+		if (preferences == null) {
+			throw new IllegalArgumentException("'preferences' mustn't be null!");
+		}
+		if (!Boolean.TRUE.equals(preferences.get(PREF_ENABLED))) {
+			return ACCEPT_ALL;
+		}
+		return compile(split(preferences.get(PREF_ALLOWED_PACKAGES), ",;\\s"), split(preferences.get(PREF_DENIED_PACKAGES), ",;\\s"),
+				split(preferences.get(PREF_KEYWORDS), ",;\\n"), parseMinute(preferences.get(PREF_QUIET_FROM)),
+				parseMinute(preferences.get(PREF_QUIET_UNTIL)), timeZone);
+	}
+
+	private static List<String> split(final Object value, final String separators) {
+		if (!(value instanceof String)) {
+			return Collections.emptyList();
+		}
+		final List<String> values = new ArrayList<>();
+		for (final String part : ((String) value).split("[" + separators + "]+")) {
+			final String trimmed = part.trim();
+			if (!trimmed.isEmpty()) {
+				values.add(trimmed);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return minute of the day of a {@code HH:mm} value, {@code -1} if missing or malformed
+	 */
+	static int parseMinute(final Object value) {
+		if (!(value instanceof String)) {
+			return -1;
+		}
+		final String time = ((String) value).trim();
+		final int colon = time.indexOf(':');
+		if (colon <= 0) {
+			return -1;
+		}
+		try {
+			final int hours = Integer.parseInt(time.substring(0, colon));
+			final int minutes = Integer.parseInt(time.substring(colon + 1));
+			if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+				return -1;
+			}
+			return hours * 60 + minutes;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * First stage, evaluated before anything is extracted from the notification.
+	 *
+	 * @param packageName package that posted the notification
+	 * @param timeMillis time the notification was posted
+	 * @return {@code false} if the notification is rejected by its package or the quiet hours
+	 */
+	public boolean acceptsPackage(final String packageName, final long timeMillis) {
+		if (this.deniedPackages.contains(packageName)) {
+			return false;
+		}
+		if (!this.allowedPackages.isEmpty() && !this.allowedPackages.contains(packageName)) {
+			return false;
+		}
+		if (this.quietFromMinute < 0) {
+			return true;
+		}
+		final long localMillis = timeMillis + this.timeZone.getOffset(timeMillis);
+		final int minute = (int) Math.floorMod(localMillis / MILLIS_PER_MINUTE, (long) MINUTES_PER_DAY);
+		final boolean quiet = this.quietFromMinute < this.quietUntilMinute ? minute >= this.quietFromMinute && minute < this.quietUntilMinute
+				: minute >= this.quietFromMinute || minute < this.quietUntilMinute;
+		return !quiet;
+	}
+
+	/**
+	 * Second stage, evaluated on the texts of a notification accepted by {@link #acceptsPackage(String, long)}.
+	 *
+	 * @return {@code false} if keywords are configured and none occurs in any of the texts
+	 */
+	public boolean acceptsText(final CharSequence ticker, final CharSequence title, final CharSequence text) {
+		if (this.keywords == null) {
+			return true;
+		}
+		return this.keywords.matches(ticker) || this.keywords.matches(title) || this.keywords.matches(text);
+	}
+
+	/**
+	 * @return number of compiled package and keyword rules
+	 */
+	public int getRuleCount() {
+		return this.allowedPackages.size() + this.deniedPackages.size() + (this.keywords == null ? 0 : this.keywords.size);
+	}
+
+	/**
+	 * Aho-Corasick automaton over lower cased characters. The transitions of all states are kept in one open addressing table keyed by state and character,
+	 * which keeps large keyword lists compact.
+	 */
+	static final class KeywordMatcher {
+
+		private static final long EMPTY = -1;
+
+		private final long[] keys;
+
+		private final int[] targets;
+
+		private final int mask;
+
+		private final int[] fail;
+
+		private final boolean[] terminal;
+
+		private final int size;
+
+		private KeywordMatcher(final long[] keys, final int[] targets, final int[] fail, final boolean[] terminal, final int size) {
+			this.keys = keys;
+			this.targets = targets;
+			this.mask = keys.length - 1;
+			this.fail = fail;
+			this.terminal = terminal;
+			this.size = size;
+		}
+
+		/**
+		 * @return matcher for the keywords, {@code null} if there are no non-blank keywords
+		 */
+		static KeywordMatcher compile(final Collection<String> keywords) {
+			// trie as first child / next sibling lists, the transition table is built once the number of edges is known
+			int[] firstChild = new int[64];
+			int[] nextSibling = new int[64];
+			char[] label = new char[64];
+			boolean[] terminal = new boolean[64];
+			Arrays.fill(firstChild, -1);
+			int states = 1;
+			int count = 0;
+			for (final String keyword : keywords) {
+				final String trimmed = keyword == null ? "" : keyword.trim();
+				if (trimmed.isEmpty()) {
+					continue;
+				}
+				count++;
+				int state = 0;
+				for (int i = 0; i < trimmed.length(); i++) {
+					final char c = Character.toLowerCase(trimmed.charAt(i));
+					int child = firstChild[state];
+					while (child >= 0 && label[child] != c) {
+						child = nextSibling[child];
+					}
+					if (child < 0) {
+						if (states == label.length) {
+							final int capacity = states * 2;
+							firstChild = Arrays.copyOf(firstChild, capacity);
+							Arrays.fill(firstChild, states, capacity, -1);
+							nextSibling = Arrays.copyOf(nextSibling, capacity);
+							label = Arrays.copyOf(label, capacity);
+							terminal = Arrays.copyOf(terminal, capacity);
+						}
+						child = states++;
+						label[child] = c;
+						nextSibling[child] = firstChild[state];
+						firstChild[state] = child;
+					}
+					state = child;
+				}
+				terminal[state] = true;
+			}
+			if (count == 0) {
+				return null;
+			}
+			int capacity = 16;
+			while (capacity < 2 * states) {
+				capacity <<= 1;
+			}
+			final long[] keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			final KeywordMatcher matcher = new KeywordMatcher(keys, new int[capacity], new int[states], Arrays.copyOf(terminal, states), count);
+			for (int state = 0; state < states; state++) {
+				for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+					matcher.put(state, label[child], child);
+				}
+			}
+			// failure links in breadth first order, a state is terminal if any keyword ends at it or at one of its suffixes
+			final int[] queue = new int[states];
+			int head = 0;
+			int tail = 0;
+			for (int child = firstChild[0]; child >= 0; child = nextSibling[child]) {
+				queue[tail++] = child;
+			}
+			while (head < tail) {
+				final int state = queue[head++];
+				for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+					queue[tail++] = child;
+					int fallback = matcher.fail[state];
+					int target = matcher.next(fallback, label[child]);
+					while (target < 0 && fallback != 0) {
+						fallback = matcher.fail[fallback];
+						target = matcher.next(fallback, label[child]);
+					}
+					matcher.fail[child] = target < 0 ? 0 : target;
+					matcher.terminal[child] |= matcher.terminal[matcher.fail[child]];
+				}
+			}
+			return matcher;
+		}
+
+		private static int slot(final long key, final int mask) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ hash >>> 32) & mask;
+		}
+
+		private void put(final int state, final char c, final int target) {
+			final long key = (long) state << 16 | c;
+			int slot = slot(key, this.mask);
+			while (this.keys[slot] != EMPTY) {
+				slot = slot + 1 & this.mask;
+			}
+			this.keys[slot] = key;
+			this.targets[slot] = target;
+		}
+
+		private int next(final int state, final char c) {
+			final long key = (long) state << 16 | c;
+			int slot = slot(key, this.mask);
+			long current;
+			while ((current = this.keys[slot]) != EMPTY) {
+				if (current == key) {
+					return this.targets[slot];
+				}
+				slot = slot + 1 & this.mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return {@code true} if any keyword occurs in the text
+		 */
+		boolean matches(final CharSequence text) {
+			if (text == null) {
+				return false;
+			}
+			int state = 0;
+			for (int i = 0; i < text.length(); i++) {
+				final char c = Character.toLowerCase(text.charAt(i));
+				int target = next(state, c);
+				while (target < 0 && state != 0) {
+					state = this.fail[state];
+					target = next(state, c);
+				}
+				state = target < 0 ? 0 : target;
+				if (this.terminal[state]) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
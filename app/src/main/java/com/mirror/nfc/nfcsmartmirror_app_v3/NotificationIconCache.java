@@ -0,0 +1,250 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of notification icons transcoded for the mirror. Icons are keyed by the package of the notification and a cheap fingerprint of the bitmap, so an
+ * app posting the same avatar again and again is transcoded once. Transcoding runs on a worker thread; callers immediately get a {@link Handle} that
+ * completes with the encoded icon. The cache is least recently used first evicted as soon as the encoded icons exceed the memory budget.
+ * <p>
+ * Every icon has a path on the mirror derived from its key (see {@link Handle#getPath()}), so the {@link MirrorDataChannel} uploads an icon once and
+ * references it in the patches of all notifications showing it.
+ *
+ * @since 17.07
+ */
+public final class NotificationIconCache {
+
+	/**
+	 * Encodes an icon, called on the worker thread.
+	 */
+	public interface Transcoder {
+
+		/**
+		 * @return encoded icon
+		 * @throws IOException Thrown if the icon can't be encoded.
+		 */
+		byte[] transcode()
+				throws IOException;
+	}
+
+	/**
+	 * Reference to a cached icon, passed along with events instead of the icon's bytes.
+	 */
+	public static final class Handle {
+
+		private final String key;
+
+		private final String path;
+
+		private final CompletableFuture<byte[]> icon = new CompletableFuture<>();
+
+		Handle(final String key, final String path) {
+			this.key = key;
+			this.path = path;
+		}
+
+		/**
+		 * Creates the handle of an icon whose encoded bytes aren't kept, e.g. for an event read back from the {@link EventJournal}. It only refers to
+		 * the icon if it was uploaded to the mirror already.
+		 */
+		static Handle detached(final String path) {
+			final Handle handle = new Handle(path, path);
+			handle.icon.completeExceptionally(new IOException("Icon '" + path + "' isn't kept"));
+			return handle;
+		}
+
+		/**
+		 * @return cache key, equal for all notifications showing the same icon of the same app
+		 */
+		public String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * @return path of the icon on the mirror relative to the app, equal for all notifications showing the same icon of the same app
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * @return future completing with the encoded icon, completes exceptionally if the icon couldn't be transcoded
+		 */
+		public CompletableFuture<byte[]> getIcon() {
+			return this.icon;
+		}
+	}
+
+	/** Default memory budget for encoded icons */
+	public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+	/** Directory of the icons on the mirror */
+	static final String ICON_DIRECTORY = "icons/";
+
+	private final long maxBytes;
+
+	private final String fileSuffix;
+
+	private final LinkedHashMap<String, Handle> handles = new LinkedHashMap<>(64, 0.75f, true);
+
+	private final ExecutorService transcoder;
+
+	private long usedBytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Creates a cache for PNG encoded icons.
+	 *
+	 * @param maxBytes memory budget for the encoded icons in bytes
+	 * @throws IllegalArgumentException Thrown if the budget is not positive.
+	 */
+	public NotificationIconCache(final long maxBytes) {
+		this(maxBytes, ".png");
+	}
+
+	/**
+	 * @param maxBytes memory budget for the encoded icons in bytes
+	 * @param fileSuffix suffix of the icons' paths on the mirror matching the encoding of the transcoder, e.g. {@code .webp}
+	 * @throws IllegalArgumentException Thrown if the budget is not positive.
+	 */
+	public NotificationIconCache(final long maxBytes, final String fileSuffix) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("'maxBytes' must be positive!");
+		}
+		if (fileSuffix == null) {
+			throw new IllegalArgumentException("'fileSuffix' mustn't be null!");
+		}
+		this.maxBytes = maxBytes;
+		this.fileSuffix = fileSuffix;
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			final Thread thread = new Thread(runnable, "mirror-icon-transcoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		this.transcoder = executor;
+	}
+
+	/**
+	 * Returns the handle of a cached icon or schedules the icon for transcoding. Never blocks on transcoding.
+	 *
+	 * @param packageName package of the app that posted the icon
+	 * @param fingerprint cheap fingerprint of the icon's pixels, equal icons must have equal fingerprints
+	 * @param transcoder encodes the icon if it is not cached yet
+	 * @return handle of the icon
+	 */
+	public Handle get(final String packageName, final long fingerprint, final Transcoder transcoder) {
+		if (packageName == null) {
+			throw new IllegalArgumentException("'packageName' mustn't be null!");
+		}
+		if (transcoder == null) {
+			throw new IllegalArgumentException("'transcoder' mustn't be null!");
+		}
+		final String hash = Long.toHexString(fingerprint);
+		final String key = packageName + '#' + hash;
+		final Handle handle;
+		synchronized (this) {
+			final Handle cached = this.handles.get(key);
+			if (cached != null) {
+				this.hits++;
+				return cached;
+			}
+			this.misses++;
+			// package names only consist of letters, digits, '_' and '.', so the path needs no escaping
+			handle = new Handle(key, ICON_DIRECTORY + packageName + '-' + hash + this.fileSuffix);
+			this.handles.put(key, handle);
+		}
+		this.transcoder.execute(() -> transcode(handle, transcoder));
+		return handle;
+	}
+
+	private void transcode(final Handle handle, final Transcoder transcoder) {
+		final byte[] icon;
+		try {
+			icon = transcoder.transcode();
+		} catch (final IOException | RuntimeException e) {
+			synchronized (this) {
+				this.handles.remove(handle.getKey(), handle);
+			}
+			handle.icon.completeExceptionally(e);
+			return;
+		}
+		synchronized (this) {
+			if (this.handles.get(handle.getKey()) == handle) {
+				this.usedBytes += icon.length;
+				evict();
+			}
+		}
+		handle.icon.complete(icon);
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<String, Handle>> iterator = this.handles.entrySet().iterator();
+		while (this.usedBytes > this.maxBytes && iterator.hasNext()) {
+			final Handle eldest = iterator.next().getValue();
+			if (!eldest.icon.isDone()) {
+				// still being transcoded, its size is not accounted yet
+				continue;
+			}
+			iterator.remove();
+			this.usedBytes -= eldest.icon.join().length;
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * @return number of lookups that found the icon in the cache
+	 */
+	public synchronized long getHitCount() {
+		return this.hits;
+	}
+
+	/**
+	 * @return number of lookups that had to transcode the icon
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+
+	/**
+	 * @return share of lookups that found the icon in the cache, {@code 0} before the first lookup
+	 */
+	public synchronized double getHitRate() {
+		final long lookups = this.hits + this.misses;
+		return lookups == 0 ? 0 : (double) this.hits / lookups;
+	}
+
+	/**
+	 * @return number of icons evicted to stay within the memory budget
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return bytes currently used by encoded icons
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	/**
+	 * @return number of cached icons, including icons that are still being transcoded
+	 */
+	public synchronized int size() {
+		return this.handles.size();
+	}
+}
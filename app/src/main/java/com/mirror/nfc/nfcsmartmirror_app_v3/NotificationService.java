@@ -1,21 +1,51 @@
 package com.mirror.nfc.nfcsmartmirror_app_v3;
 
-import android.app.Notification;
 import android.content.Context;
-import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 
 //aus Notificationlistener
 public class NotificationService extends NotificationListenerService {
 
+    /** Edge length in pixels of the icons shown on the mirror */
+    private static final int MIRROR_ICON_SIZE = 96;
+    private static final int ICON_QUALITY = 80;
+    /** Pixels per axis sampled for the icon fingerprint */
+    private static final int FINGERPRINT_SAMPLES = 4;
+    /** Time each quote is shown on the quote view */
+    private static final long QUOTE_INTERVAL_MILLIS = 60_000;
+    /** Disk budget of each mirror's offline queue */
+    private static final long OFFLINE_QUEUE_BYTES = 4 * 1024 * 1024;
+    /** Time uploads and patches wait for an unreachable mirror before they are dropped */
+    private static final long OFFLINE_TTL_MILLIS = 60 * 60_000;
+
     Context context;
+    private final NotificationIconCache iconCache = new NotificationIconCache(NotificationIconCache.DEFAULT_MAX_BYTES, ".webp");
+    private final NotificationStateTable states = new NotificationStateTable();
+    private EventJournal journal;
+    private MirrorDiscovery discovery;
+    private QuoteRotation quotes;
+    private MirrorEventBus.Consumer feedPublisher;
+    private volatile NotificationFilter filter = NotificationFilter.ACCEPT_ALL;
+    // held in a field, the preferences only keep a weak reference to their listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener filterUpdater = (preferences, key) -> {
+        if (key != null && key.startsWith("mirror_filter_")) {
+            filter = NotificationFilter.fromPreferences(preferences.getAll(), TimeZone.getDefault());
+        }
+    };
 
     @Override
 
@@ -24,55 +54,193 @@ public class NotificationService extends NotificationListenerService {
         super.onCreate();
         context = getApplicationContext();
 
-    }
+        // the filter is compiled once here and again only when its preferences change, not per notification
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        filter = NotificationFilter.fromPreferences(preferences.getAll(), TimeZone.getDefault());
+        preferences.registerOnSharedPreferenceChangeListener(filterUpdater);
+
+        // before the first mirror is found, the pool reads its configuration with the first connection
+        StaticResourceUploader.configureConnectionPool(StaticResourceUploader.DEFAULT_MAX_CONNECTIONS, StaticResourceUploader.DEFAULT_KEEP_ALIVE_MILLIS);
+
+        // the service runs as long as the app is used, so it looks for the mirrors on the network
+        ViewRegistrator registrator = ViewRegistrator.getInstance();
+        registrator.setManifestDirectory(new File(getFilesDir(), "manifests"));
+        // what fails while a mirror is unreachable is delivered once it is found again
+        registrator.setOfflineQueueDirectory(new File(getFilesDir(), "offline"), OFFLINE_QUEUE_BYTES, OFFLINE_TTL_MILLIS);
+
+        // every event of the feed view is journaled, so a mirror that was unreachable replays what it missed once it is found again
+        try {
+            journal = new EventJournal(new File(getFilesDir(), "journal"), EventJournal.DEFAULT_SEGMENT_SIZE, EventJournal.DEFAULT_MAX_SEGMENTS);
+            registrator.setEventJournal(journal, ViewRegistrator.VIEW_ID_FEED);
+        } catch (IOException e) {
+            Log.e("Journal", "Event journal not available, events can't be replayed", e);
+        }
+        discovery = new MirrorDiscovery(this, registrator);
+        discovery.start();
+
+        // notifications, messages and calls reach the mirrors as patches of the feed view, the snapshot of onListenerConnected included
+        try {
+            registrator.addFeedView(ViewRegistrator.VIEW_ID_FEED, null, MirrorDiscovery.DEFAULT_API_PATH);
+            feedPublisher = registrator.consumer(ViewRegistrator.VIEW_ID_FEED);
+            MirrorEventBus.getInstance().subscribe(feedPublisher);
+        } catch (IOException e) {
+            Log.e("Feed", "Feed view not available", e);
+        }
 
-    public void onListenerConnected(){
+        try {
+            quotes = new QuoteRotation(QuoteStore.loadResource(getClassLoader()), registrator, QuoteRotation.VIEW_ID_QUOTES, QuoteRotation.Order.RANDOM,
+                    new Random(), QuoteRotation.DEFAULT_PREFETCH);
+            // quotes are shown when no message or call is waiting for its refresh
+            quotes.setScheduler(RefreshScheduler.getInstance());
+            quotes.start(QUOTE_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            Log.e("Quotes", "Quote view not available", e);
+        }
+    }
 
-        String notifications = String.valueOf(getActiveNotifications().clone());
-        Log.i("bla", notifications);
+    @Override
+    public void onDestroy() {
+        if (discovery != null) {
+            discovery.stop();
+        }
+        if (quotes != null) {
+            quotes.stop();
+            if (quotes.getFailureCount() > 0) {
+                Log.w("Quotes", quotes.getFailureCount() + " rotations failed", quotes.getLastFailure());
+            }
+        }
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(filterUpdater);
+        if (feedPublisher != null) {
+            final MirrorEventBus bus = MirrorEventBus.getInstance();
+            bus.unsubscribe(feedPublisher);
+            if (bus.getFailedCount() > 0) {
+                Log.w("Feed", bus.getFailedCount() + " event deliveries failed", bus.getLastFailure());
+            }
+        }
+        if (journal != null) {
+            final ViewRegistrator registrator = ViewRegistrator.getInstance();
+            if (registrator.getJournalFailureCount() > 0) {
+                Log.w("Journal", registrator.getJournalFailureCount() + " event batches weren't journaled", registrator.getLastJournalFailure());
+            }
+            registrator.setEventJournal(null, null);
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.e("Journal", "Failed to close event journal", e);
+            }
+        }
+        super.onDestroy();
+    }
 
+    @Override
+    public void onListenerConnected() {
+        // the mirror gets all active notifications as one snapshot instead of one update each, afterwards only the changes follow
+        StatusBarNotification[] active = getActiveNotifications();
+        List<MirrorEvent> snapshot = new ArrayList<>();
+        states.clear();
+        if (active != null) {
+            for (StatusBarNotification sbn : active) {
+                MirrorEvent event = toEvent(sbn, false);
+                if (event != null) {
+                    snapshot.add(event);
+                }
+            }
+        }
+        Log.i("Snapshot", snapshot.size() + " of " + (active == null ? 0 : active.length) + " active notifications");
+        MirrorEventBus.getInstance().publishSnapshot(snapshot);
     }
 
     @Override
 
     public void onNotificationPosted(StatusBarNotification sbn) {
+        // re-posts only send the fields that changed, re-posts without changes send nothing
+        MirrorEvent event = toEvent(sbn, true);
+        if (event != null) {
+            MirrorEventBus.getInstance().publish(event);
+        }
+
+
+    }
+
+    /**
+     * Filters and normalizes a notification and records it in the state table.
+     *
+     * @return event for the mirror or {@code null} if the notification is filtered or didn't change
+     */
+    private MirrorEvent toEvent(StatusBarNotification sbn, boolean log) {
         String pack = sbn.getPackageName();
+        // rejected notifications leave before any extra is read, logged or transcoded
+        NotificationFilter currentFilter = filter;
+        if (!currentFilter.acceptsPackage(pack, sbn.getPostTime())) {
+            return null;
+        }
         String ticker ="";
         if(sbn.getNotification().tickerText !=null) {
             ticker = sbn.getNotification().tickerText.toString();
         }
         Bundle extras = sbn.getNotification().extras;
         String title = extras.getString("android.title");
-        String text = extras.getCharSequence("android.text").toString();
-        int id1 = extras.getInt(Notification.EXTRA_SMALL_ICON);
+        CharSequence textExtra = extras.getCharSequence("android.text");
+        String text = textExtra == null ? "" : textExtra.toString();
+        if (!currentFilter.acceptsText(ticker, title, text)) {
+            return null;
+        }
         Bitmap id = sbn.getNotification().largeIcon;
 
+        if (log) {
+            Log.i("Package",pack);
+            Log.i("Ticker",ticker);
+            Log.i("Title",String.valueOf(title));
+            Log.i("Text",text);
+        }
 
-        Log.i("Package",pack);
-        Log.i("Ticker",ticker);
-        Log.i("Title",title);
-        Log.i("Text",text);
-
-        Intent msgrcv = new Intent("Msg");
-        msgrcv.putExtra("package", pack);
-        msgrcv.putExtra("ticker", ticker);
-        msgrcv.putExtra("title", title);
-        msgrcv.putExtra("text", text);
+        NotificationIconCache.Handle icon = null;
         if(id != null) {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            id.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            byte[] byteArray = stream.toByteArray();
-            msgrcv.putExtra("icon",byteArray);
+            icon = iconCache.get(pack, fingerprint(id), () -> transcode(id));
         }
-        LocalBroadcastManager.getInstance(context).sendBroadcast(msgrcv);
-
-
+        return states.posted(sbn.getKey(), pack, ticker, title, text, icon, sbn.getPostTime());
     }
 
     @Override
 
     public void onNotificationRemoved(StatusBarNotification sbn) {
         Log.i("Msg","Notification Removed");
+        MirrorEvent tombstone = states.removed(sbn.getKey(), sbn.getPackageName(), System.currentTimeMillis());
+        if (tombstone != null) {
+            MirrorEventBus.getInstance().publish(tombstone);
+        }
+
+    }
 
+    /**
+     * Cheap fingerprint of an icon: its size and a grid of sampled pixels. Apps re-send the same avatar as a new bitmap, so the bitmap's identity can't be used.
+     */
+    private static long fingerprint(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        long hash = 31L * width + height;
+        for (int y = 0; y < FINGERPRINT_SAMPLES; y++) {
+            for (int x = 0; x < FINGERPRINT_SAMPLES; x++) {
+                final int pixel = bitmap.getPixel((2 * x + 1) * width / (2 * FINGERPRINT_SAMPLES), (2 * y + 1) * height / (2 * FINGERPRINT_SAMPLES));
+                hash = (hash ^ pixel) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Downscales an icon to the size shown on the mirror and encodes it as WebP, called on the cache's worker thread.
+     */
+    private static byte[] transcode(Bitmap bitmap) {
+        final float scale = Math.min(1f, (float) MIRROR_ICON_SIZE / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        final Bitmap scaled = scale < 1f
+                ? Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)), Math.max(1, Math.round(bitmap.getHeight() * scale)), true)
+                : bitmap;
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        scaled.compress(Bitmap.CompressFormat.WEBP, ICON_QUALITY, stream);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        return stream.toByteArray();
     }
 }
@@ -0,0 +1,103 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Last state sent to the mirror for each active notification, keyed by the notification key. Apps re-post progress, media and chat notifications many times
+ * a minute; the table turns a re-post into an event with only the changed fields and suppresses re-posts that change nothing.
+ *
+ * @since 17.07
+ */
+public final class NotificationStateTable {
+
+	private static final class State {
+
+		private final String ticker;
+
+		private final String title;
+
+		private final String text;
+
+		private final String iconKey;
+
+		State(final String ticker, final String title, final String text, final NotificationIconCache.Handle icon) {
+			this.ticker = ticker;
+			this.title = title;
+			this.text = text;
+			this.iconKey = icon == null ? null : icon.getKey();
+		}
+	}
+
+	private final Map<String, State> states = new HashMap<>();
+
+	/**
+	 * Records a posted notification.
+	 *
+	 * @param key notification key
+	 * @param packageName package of the app that posted the notification
+	 * @return a complete event for a new notification, an event with the changed fields for a known notification or {@code null} if nothing changed
+	 */
+	public synchronized MirrorEvent posted(final String key, final String packageName, final String ticker, final String title, final String text,
+			final NotificationIconCache.Handle icon, final long timestamp) {
+		if (key == null) {
+			throw new IllegalArgumentException("'key' mustn't be null!");
+		}
+		final State state = new State(ticker, title, text, icon);
+		final State previous = this.states.put(key, state);
+		if (previous == null) {
+			return new MirrorEvent(MirrorEvent.Type.NOTIFICATION, key, packageName, ticker, title, text, icon, timestamp);
+		}
+		final Set<MirrorEvent.Field> changed = EnumSet.noneOf(MirrorEvent.Field.class);
+		if (!Objects.equals(previous.ticker, state.ticker)) {
+			changed.add(MirrorEvent.Field.TICKER);
+		}
+		if (!Objects.equals(previous.title, state.title)) {
+			changed.add(MirrorEvent.Field.TITLE);
+		}
+		if (!Objects.equals(previous.text, state.text)) {
+			changed.add(MirrorEvent.Field.TEXT);
+		}
+		if (!Objects.equals(previous.iconKey, state.iconKey)) {
+			changed.add(MirrorEvent.Field.ICON);
+		}
+		if (changed.isEmpty()) {
+			return null;
+		}
+		return MirrorEvent.changes(MirrorEvent.Type.NOTIFICATION, key, packageName, ticker, title, text, icon, timestamp, changed);
+	}
+
+	/**
+	 * Records a removed notification.
+	 *
+	 * @param key notification key
+	 * @param packageName package of the app that posted the notification
+	 * @return tombstone for the notification or {@code null} if the notification was never sent
+	 */
+	public synchronized MirrorEvent removed(final String key, final String packageName, final long timestamp) {
+		if (key == null) {
+			throw new IllegalArgumentException("'key' mustn't be null!");
+		}
+		if (this.states.remove(key) == null) {
+			return null;
+		}
+		return MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, key, packageName, timestamp);
+	}
+
+	/**
+	 * Forgets all notifications, e.g. when the listener is disconnected.
+	 */
+	public synchronized void clear() {
+		this.states.clear();
+	}
+
+	/**
+	 * @return number of notifications currently known
+	 */
+	public synchronized int size() {
+		return this.states.size();
+	}
+}
@@ -0,0 +1,745 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+/**
+ * Outbound queue for uploads and view patches that couldn't be delivered because the mirror was unreachable. Entries are persisted in a directory, so they
+ * survive a restart of the app, and are flushed in priority order once the mirror is reachable again: main pages first, then icons, other resources and
+ * finally patches. Every entry has a time to live, entries that expired are dropped instead of being delivered late. The queue stays within a disk budget
+ * by evicting the entries with the lowest priority, oldest first. Only the newest upload of a path is kept, an older revision must never overwrite a newer
+ * one on the mirror.
+ *
+ * @since 17.07
+ */
+public final class OfflineUploadQueue {
+
+	public enum Priority {
+		MAIN_PAGE,
+		ICON,
+		RESOURCE,
+		PATCH
+	}
+
+	/**
+	 * Delivers queued entries to the mirror.
+	 */
+	public interface Sender {
+
+		/**
+		 * @param entry entry to deliver
+		 * @throws IOException Thrown if the entry couldn't be delivered. An {@link UploadException} whose reason isn't transient (see
+		 *             {@link OfflineUploadQueue#isTransient(UploadException.Reason)}) drops the entry, any other failure stops the flush and keeps the
+		 *             entry.
+		 */
+		void send(Entry entry)
+				throws IOException;
+	}
+
+	/**
+	 * Queued upload or patch.
+	 */
+	public static final class Entry implements Comparable<Entry> {
+
+		private final File file;
+
+		private final long sequence;
+
+		private final Priority priority;
+
+		private final long createdMillis;
+
+		private final long expiresMillis;
+
+		private final String path;
+
+		private final String viewId;
+
+		private final boolean mainPage;
+
+		private final boolean icon;
+
+		private final MirrorEvent event;
+
+		private final long contentOffset;
+
+		private final long contentLength;
+
+		Entry(final File file, final long sequence, final Priority priority, final long createdMillis, final long expiresMillis, final String path,
+				final String viewId, final boolean mainPage, final boolean icon, final MirrorEvent event, final long contentOffset,
+				final long contentLength) {
+			this.file = file;
+			this.sequence = sequence;
+			this.priority = priority;
+			this.createdMillis = createdMillis;
+			this.expiresMillis = expiresMillis;
+			this.path = path;
+			this.viewId = viewId;
+			this.mainPage = mainPage;
+			this.icon = icon;
+			this.event = event;
+			this.contentOffset = contentOffset;
+			this.contentLength = contentLength;
+		}
+
+		public Priority getPriority() {
+			return this.priority;
+		}
+
+		/**
+		 * @return time the entry was queued
+		 */
+		public long getCreatedMillis() {
+			return this.createdMillis;
+		}
+
+		/**
+		 * @return time after which the entry is dropped
+		 */
+		public long getExpiresMillis() {
+			return this.expiresMillis;
+		}
+
+		/**
+		 * @return {@code true} for a view patch, {@code false} for an upload
+		 */
+		public boolean isPatch() {
+			return this.event != null;
+		}
+
+		/**
+		 * @return target path of an upload, {@code null} for a patch
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * @return view of the upload's registration or the patch, may be {@code null} for uploads
+		 */
+		public String getViewId() {
+			return this.viewId;
+		}
+
+		public boolean isMainPage() {
+			return this.mainPage;
+		}
+
+		public boolean isIcon() {
+			return this.icon;
+		}
+
+		/**
+		 * @return event of a patch, {@code null} for an upload
+		 */
+		public MirrorEvent getEvent() {
+			return this.event;
+		}
+
+		/**
+		 * @return size of the upload's content in bytes, {@code 0} for a patch
+		 */
+		public long getContentLength() {
+			return this.contentLength;
+		}
+
+		/**
+		 * @return supplier of the upload's content, read from the queue directory
+		 */
+		public StaticResourceUploader.InputStreamSupplier getContent() {
+			return () -> {
+				final InputStream in = new FileInputStream(this.file);
+				long skipped = 0;
+				while (skipped < this.contentOffset) {
+					final long count = in.skip(this.contentOffset - skipped);
+					if (count <= 0) {
+						in.close();
+						throw new IOException("Queued content of '" + this.path + "' is truncated");
+					}
+					skipped += count;
+				}
+				return in;
+			};
+		}
+
+		long getDiskSize() {
+			return this.contentOffset + this.contentLength;
+		}
+
+		@Override
+		public int compareTo(final Entry other) {
+			final int byPriority = this.priority.compareTo(other.priority);
+			return byPriority != 0 ? byPriority : Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * Outcome of a flush.
+	 */
+	public static final class FlushResult {
+
+		private final int sent;
+
+		private final int rejected;
+
+		private final int expired;
+
+		private final int remaining;
+
+		FlushResult(final int sent, final int rejected, final int expired, final int remaining) {
+			this.sent = sent;
+			this.rejected = rejected;
+			this.expired = expired;
+			this.remaining = remaining;
+		}
+
+		public int getSent() {
+			return this.sent;
+		}
+
+		/**
+		 * @return number of entries dropped because they can't be delivered, e.g. the mirror rejected them or their content can't be read
+		 */
+		public int getRejected() {
+			return this.rejected;
+		}
+
+		/**
+		 * @return number of entries dropped because they expired
+		 */
+		public int getExpired() {
+			return this.expired;
+		}
+
+		/**
+		 * @return number of entries still queued, more than zero if the flush stopped because the mirror became unreachable again
+		 */
+		public int getRemaining() {
+			return this.remaining;
+		}
+	}
+
+	/** Version of the entry file format */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final String ENTRY_SUFFIX = ".entry";
+
+	private static final int KIND_UPLOAD = 0;
+
+	private static final int KIND_PATCH = 1;
+
+	private static final int FLAG_REMOVED = 1;
+
+	private static final int FLAG_COMPLETE = 0x40;
+
+	/** the path of the icon follows the text, its bytes aren't kept */
+	private static final int FLAG_ICON = 0x80;
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	private final LongSupplier clock;
+
+	private final TreeSet<Entry> entries = new TreeSet<>();
+
+	private long usedBytes;
+
+	private long nextSequence;
+
+	private long evicted;
+
+	private long expired;
+
+	/**
+	 * Opens the queue in a directory, recovering the entries queued before.
+	 *
+	 * @param directory directory only used by this queue, created if it doesn't exist
+	 * @param maxBytes disk budget of the queue in bytes
+	 * @throws IOException Thrown if the directory can't be created.
+	 */
+	public OfflineUploadQueue(final File directory, final long maxBytes)
+			throws IOException {
+		this(directory, maxBytes, System::currentTimeMillis);
+	}
+
+	OfflineUploadQueue(final File directory, final long maxBytes, final LongSupplier clock)
+			throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("'directory' mustn't be null!");
+		}
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("'maxBytes' must be positive!");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.clock = clock;
+		recover();
+	}
+
+	/**
+	 * Queues an upload. The content is copied into the queue directory.
+	 *
+	 * @param content content of the resource
+	 * @param path target path on the webserver relative to the app's base directory
+	 * @param viewId view of the resource's registration or {@code null}
+	 * @param mainPage {@code true} if the resource is the main page of the view
+	 * @param icon {@code true} if the resource is the icon of the view
+	 * @param ttlMillis time after which the upload is dropped if it wasn't delivered
+	 * @return {@code false} if the upload doesn't fit into the disk budget, even after evicting all entries of lower priority; queued uploads of the same
+	 *         path are dropped either way
+	 * @throws IOException Thrown if the content can't be read or written to the queue directory.
+	 */
+	public boolean enqueueUpload(final StaticResourceUploader.InputStreamSupplier content, final String path, final String viewId,
+			final boolean mainPage, final boolean icon, final long ttlMillis)
+			throws IOException {
+		if (content == null) {
+			throw new IllegalArgumentException("'content' mustn't be null!");
+		}
+		if (path == null) {
+			throw new IllegalArgumentException("'path' mustn't be null!");
+		}
+		final Priority priority = mainPage ? Priority.MAIN_PAGE : icon ? Priority.ICON : Priority.RESOURCE;
+		return enqueue(priority, ttlMillis, path, viewId, mainPage, icon, null, content);
+	}
+
+	/**
+	 * Queues a patch for a view. Of its icon only the path is kept, the patch refers to it if the icon reached the mirror before.
+	 *
+	 * @param viewId view the patch is meant for
+	 * @param event event of the patch
+	 * @param ttlMillis time after which the patch is dropped if it wasn't delivered
+	 * @return {@code false} if the patch doesn't fit into the disk budget
+	 * @throws IOException Thrown if the patch can't be written to the queue directory.
+	 * @see MirrorDataChannel
+	 */
+	public boolean enqueuePatch(final String viewId, final MirrorEvent event, final long ttlMillis)
+			throws IOException {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (event == null) {
+			throw new IllegalArgumentException("'event' mustn't be null!");
+		}
+		return enqueue(Priority.PATCH, ttlMillis, null, viewId, false, false, event, null);
+	}
+
+	private synchronized boolean enqueue(final Priority priority, final long ttlMillis, final String path, final String viewId, final boolean mainPage,
+			final boolean icon, final MirrorEvent event, final StaticResourceUploader.InputStreamSupplier content)
+			throws IOException {
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("'ttlMillis' must be positive!");
+		}
+		final long now = this.clock.getAsLong();
+		final long sequence = this.nextSequence++;
+		final File file = new File(this.directory, String.format(Locale.ROOT, "%d-%016x%s", priority.ordinal(), sequence, ENTRY_SUFFIX));
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(header)) {
+			out.writeByte(event == null ? KIND_UPLOAD : KIND_PATCH);
+			out.writeByte(priority.ordinal());
+			out.writeLong(now);
+			out.writeLong(now + ttlMillis);
+			writeNullable(out, path);
+			writeNullable(out, viewId);
+			out.writeBoolean(mainPage);
+			out.writeBoolean(icon);
+			if (event != null) {
+				writeEvent(out, event);
+			}
+		}
+		final long contentOffset = 4 + 4 + header.size();
+		long contentLength = 0;
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(header.size());
+			header.writeTo(out);
+			if (content != null) {
+				try (final InputStream in = content.get()) {
+					if (in == null) {
+						throw new IOException("No content for '" + path + "'");
+					}
+					final byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+						contentLength += read;
+					}
+				}
+			}
+		} catch (final IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		final Entry entry = new Entry(file, sequence, priority, now, now + ttlMillis, path, viewId, mainPage, icon, event, contentOffset,
+				contentLength);
+		if (path != null) {
+			// the older revisions are superseded
+			removeUploads(Collections.singleton(path));
+		}
+		if (!makeRoom(entry)) {
+			delete(file);
+			return false;
+		}
+		this.entries.add(entry);
+		this.usedBytes += entry.getDiskSize();
+		return true;
+	}
+
+	/**
+	 * Drops the queued uploads of paths, e.g. because their current revision is uploaded anyway.
+	 *
+	 * @param paths target paths on the webserver
+	 * @return number of uploads dropped
+	 * @throws IOException Thrown if an entry can't be removed from the queue directory.
+	 */
+	public synchronized int removeUploads(final Collection<String> paths)
+			throws IOException {
+		if (paths == null) {
+			throw new IllegalArgumentException("'paths' mustn't be null!");
+		}
+		final List<Entry> superseded = new ArrayList<>();
+		for (final Entry entry : this.entries) {
+			if (entry.path != null && paths.contains(entry.path)) {
+				superseded.add(entry);
+			}
+		}
+		for (final Entry entry : superseded) {
+			remove(entry);
+		}
+		return superseded.size();
+	}
+
+	/**
+	 * Evicts expired entries and, if still needed, entries of lower priority than the new one until it fits into the budget.
+	 */
+	private boolean makeRoom(final Entry entry)
+			throws IOException {
+		if (entry.getDiskSize() > this.maxBytes) {
+			return false;
+		}
+		dropExpired();
+		if (this.usedBytes + entry.getDiskSize() <= this.maxBytes) {
+			return true;
+		}
+		// lowest priority first, the oldest entry of a priority first
+		final List<Entry> victims = new ArrayList<>();
+		long freed = 0;
+		for (final Priority priority : reversed()) {
+			if (priority.compareTo(entry.priority) < 0) {
+				break;
+			}
+			for (final Entry candidate : this.entries) {
+				if (candidate.priority == priority && this.usedBytes - freed + entry.getDiskSize() > this.maxBytes) {
+					victims.add(candidate);
+					freed += candidate.getDiskSize();
+				}
+			}
+		}
+		if (this.usedBytes - freed + entry.getDiskSize() > this.maxBytes) {
+			return false;
+		}
+		for (final Entry victim : victims) {
+			remove(victim);
+			this.evicted++;
+		}
+		return true;
+	}
+
+	private static Priority[] reversed() {
+		final Priority[] priorities = Priority.values();
+		final Priority[] reversed = new Priority[priorities.length];
+		for (int i = 0; i < priorities.length; i++) {
+			reversed[i] = priorities[priorities.length - 1 - i];
+		}
+		return reversed;
+	}
+
+	private int dropExpired()
+			throws IOException {
+		final long now = this.clock.getAsLong();
+		int dropped = 0;
+		final Iterator<Entry> iterator = this.entries.iterator();
+		while (iterator.hasNext()) {
+			final Entry entry = iterator.next();
+			if (entry.expiresMillis <= now) {
+				iterator.remove();
+				this.usedBytes -= entry.getDiskSize();
+				delete(entry.file);
+				dropped++;
+			}
+		}
+		this.expired += dropped;
+		return dropped;
+	}
+
+	/**
+	 * Delivers the queued entries in priority order. Between two batches the flush pauses, so a mirror that just came back isn't flooded. The flush stops
+	 * at the first entry that can't be delivered because the mirror is unreachable again; that entry and all after it stay queued. Entries that fail for
+	 * any other reason are dropped, so a single broken entry doesn't block the queue until it expires.
+	 *
+	 * @param sender delivers the entries
+	 * @param batchSize number of entries delivered without pause
+	 * @param batchIntervalMillis pause between two batches
+	 * @return outcome of the flush
+	 * @throws InterruptedException Thrown if the thread is interrupted while pausing, the entries not delivered stay queued.
+	 * @throws IOException Thrown if delivered entries can't be removed from the queue directory.
+	 */
+	public FlushResult flush(final Sender sender, final int batchSize, final long batchIntervalMillis)
+			throws InterruptedException, IOException {
+		if (sender == null) {
+			throw new IllegalArgumentException("'sender' mustn't be null!");
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("'batchSize' must be positive!");
+		}
+		int sent = 0;
+		int rejected = 0;
+		int expiredNow = 0;
+		int inBatch = 0;
+		while (true) {
+			final Entry entry;
+			synchronized (this) {
+				expiredNow += dropExpired();
+				if (this.entries.isEmpty()) {
+					break;
+				}
+				entry = this.entries.first();
+			}
+			if (inBatch == batchSize) {
+				Thread.sleep(batchIntervalMillis);
+				inBatch = 0;
+			}
+			try {
+				sender.send(entry);
+				sent++;
+			} catch (final UploadException e) {
+				if (isTransient(e.getReason())) {
+					break;
+				}
+				rejected++;
+			} catch (final IOException e) {
+				break;
+			} catch (final RuntimeException e) {
+				// e.g. an entry whose file was damaged
+				rejected++;
+			}
+			inBatch++;
+			synchronized (this) {
+				remove(entry);
+			}
+		}
+		return new FlushResult(sent, rejected, expiredNow, size());
+	}
+
+	/**
+	 * @return {@code true} if an entry that failed for the reason may still be delivered later, {@code false} if trying again can't help
+	 */
+	static boolean isTransient(final UploadException.Reason reason) {
+		switch (reason) {
+		case UNREACHABLE:
+		case TIMED_OUT:
+		case INTERRUPTED:
+		case CANCELLED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a sender delivering uploads through an uploader and patches through a data channel. Entries sent this way aren't queued again if the mirror is
+	 * still unreachable, they stay in this queue instead.
+	 *
+	 * @param uploader uploader for queued uploads
+	 * @param channel channel for queued patches
+	 * @return sender for {@link #flush(Sender, int, long)}
+	 */
+	public static Sender sender(final StaticResourceUploader uploader, final MirrorDataChannel channel) {
+		if (uploader == null) {
+			throw new IllegalArgumentException("'uploader' mustn't be null!");
+		}
+		if (channel == null) {
+			throw new IllegalArgumentException("'channel' mustn't be null!");
+		}
+		return entry -> {
+			if (entry.isPatch()) {
+				channel.sendQueued(entry);
+			}
+			else {
+				uploader.uploadQueued(entry);
+			}
+		};
+	}
+
+	private void remove(final Entry entry)
+			throws IOException {
+		if (this.entries.remove(entry)) {
+			this.usedBytes -= entry.getDiskSize();
+			delete(entry.file);
+		}
+	}
+
+	private static void delete(final File file)
+			throws IOException {
+		if (!file.delete() && file.exists()) {
+			throw new IOException("Failed to delete queue entry " + file);
+		}
+	}
+
+	/**
+	 * @return number of queued entries
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return bytes used by the queued entries
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	/**
+	 * @return number of entries evicted to stay within the disk budget
+	 */
+	public synchronized long getEvictedCount() {
+		return this.evicted;
+	}
+
+	/**
+	 * @return number of entries dropped because they expired
+	 */
+	public synchronized long getExpiredCount() {
+		return this.expired;
+	}
+
+	private void recover()
+			throws IOException {
+		final File[] files = this.directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+		if (files == null) {
+			return;
+		}
+		final long now = this.clock.getAsLong();
+		for (final File file : files) {
+			final String name = file.getName();
+			final int dash = name.indexOf('-');
+			Entry entry = null;
+			if (dash > 0) {
+				try {
+					entry = read(file, Long.parseLong(name.substring(dash + 1, name.length() - ENTRY_SUFFIX.length()), 16));
+				} catch (final IOException | RuntimeException e) {
+					// unreadable or incompletely written entry
+				}
+			}
+			if (entry == null || entry.expiresMillis <= now) {
+				delete(file);
+				continue;
+			}
+			this.entries.add(entry);
+			this.usedBytes += entry.getDiskSize();
+			this.nextSequence = Math.max(this.nextSequence, entry.sequence + 1);
+		}
+	}
+
+	private static Entry read(final File file, final long sequence)
+			throws IOException {
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			final int headerLength = in.readInt();
+			final int kind = in.readByte();
+			final Priority priority = Priority.values()[in.readByte()];
+			final long created = in.readLong();
+			final long expires = in.readLong();
+			final String path = readNullable(in);
+			final String viewId = readNullable(in);
+			final boolean mainPage = in.readBoolean();
+			final boolean icon = in.readBoolean();
+			final MirrorEvent event = kind == KIND_PATCH ? readEvent(in) : null;
+			final long contentOffset = 4 + 4 + headerLength;
+			return new Entry(file, sequence, priority, created, expires, path, viewId, mainPage, icon, event, contentOffset,
+					file.length() - contentOffset);
+		}
+	}
+
+	private static void writeEvent(final DataOutputStream out, final MirrorEvent event)
+			throws IOException {
+		out.writeByte(event.getType().ordinal());
+		int flags = (event.isRemoved() ? FLAG_REMOVED : event.isComplete() ? FLAG_COMPLETE : 0) | (event.getIcon() == null ? 0 : FLAG_ICON);
+		for (final MirrorEvent.Field field : event.getChangedFields()) {
+			flags |= 2 << field.ordinal();
+		}
+		out.writeByte(flags);
+		out.writeLong(event.getTimestamp());
+		writeNullable(out, event.getKey());
+		writeNullable(out, event.getPackageName());
+		writeNullable(out, event.getTicker());
+		writeNullable(out, event.getTitle());
+		writeNullable(out, event.getText());
+		if (event.getIcon() != null) {
+			out.writeUTF(event.getIcon().getPath());
+		}
+	}
+
+	private static MirrorEvent readEvent(final DataInputStream in)
+			throws IOException {
+		final MirrorEvent.Type type = MirrorEvent.Type.values()[in.readByte()];
+		final int flags = in.readByte() & 0xFF;
+		final long timestamp = in.readLong();
+		final String key = readNullable(in);
+		final String packageName = readNullable(in);
+		final String ticker = readNullable(in);
+		final String title = readNullable(in);
+		final String text = readNullable(in);
+		final NotificationIconCache.Handle icon = (flags & FLAG_ICON) == 0 ? null : NotificationIconCache.Handle.detached(in.readUTF());
+		if ((flags & FLAG_REMOVED) != 0) {
+			return MirrorEvent.tombstone(type, key, packageName, timestamp);
+		}
+		final Set<MirrorEvent.Field> fields = EnumSet.noneOf(MirrorEvent.Field.class);
+		for (final MirrorEvent.Field field : MirrorEvent.Field.values()) {
+			if ((flags & 2 << field.ordinal()) != 0) {
+				fields.add(field);
+			}
+		}
+		if ((flags & FLAG_COMPLETE) != 0) {
+			return new MirrorEvent(type, key, packageName, ticker, title, text, icon, timestamp);
+		}
+		return MirrorEvent.changes(type, key, packageName, ticker, title, text, icon, timestamp, fields);
+	}
+
+	private static void writeNullable(final DataOutputStream out, final String value)
+			throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(final DataInputStream in)
+			throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
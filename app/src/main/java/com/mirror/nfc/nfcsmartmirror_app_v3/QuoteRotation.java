@@ -0,0 +1,241 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the quotes of a {@link QuoteStore} one after another on the quote view of the mirrors. The pages of the next quotes are rendered ahead, so a rotation
+ * only publishes bytes that are ready; the page for the quote after them is rendered once the current one is on its way.
+ *
+ * @since 17.07
+ */
+public final class QuoteRotation {
+
+	/**
+	 * Order the quotes are shown in.
+	 */
+	public enum Order {
+		/** in the order of the corpus, starting over at its end */
+		SEQUENTIAL,
+		/** randomly, never the same quote twice in a row */
+		RANDOM
+	}
+
+	/** View of the mirror showing the quotes */
+	public static final String VIEW_ID_QUOTES = "QuoteView";
+
+	/** Icon of the quote view */
+	public static final String ICON_RESOURCE = "de/iolite/insys/mirror/views/quote.png";
+
+	/** Number of pages rendered ahead by default */
+	public static final int DEFAULT_PREFETCH = 3;
+
+	/**
+	 * Page of a quote, rendered and waiting to be published.
+	 */
+	private static final class Page {
+
+		private final int index;
+
+		private final byte[] bytes;
+
+		Page(final int index, final byte[] bytes) {
+			this.index = index;
+			this.bytes = bytes;
+		}
+	}
+
+	private final QuoteStore store;
+
+	private final ViewRegistrator registrator;
+
+	private final String viewId;
+
+	private final Order order;
+
+	private final Random random;
+
+	private final int prefetch;
+
+	private final ArrayDeque<Page> ahead;
+
+	/** index of the last quote rendered ahead */
+	private int lastPicked = -1;
+
+	private int current = -1;
+
+	private ScheduledExecutorService timer;
+
+	private volatile RefreshScheduler scheduler;
+
+	private long failures;
+
+	private Exception lastFailure;
+
+	/**
+	 * Adds the quote view to the registrator.
+	 *
+	 * @param store quotes to show, mustn't be empty
+	 * @param registrator registrator publishing the view
+	 * @param viewId id of the quote view
+	 * @param order order of the quotes
+	 * @param random source of randomness for {@link Order#RANDOM}
+	 * @param prefetch number of pages rendered ahead, at least {@code 1}
+	 * @throws IOException Thrown if the template or the icon of the view can't be read.
+	 */
+	public QuoteRotation(final QuoteStore store, final ViewRegistrator registrator, final String viewId, final Order order, final Random random,
+			final int prefetch)
+			throws IOException {
+		if (store == null) {
+			throw new IllegalArgumentException("'store' mustn't be null!");
+		}
+		if (store.isEmpty()) {
+			throw new IllegalArgumentException("'store' mustn't be empty!");
+		}
+		if (registrator == null) {
+			throw new IllegalArgumentException("'registrator' mustn't be null!");
+		}
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (order == null) {
+			throw new IllegalArgumentException("'order' mustn't be null!");
+		}
+		if (random == null) {
+			throw new IllegalArgumentException("'random' mustn't be null!");
+		}
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("'prefetch' must be positive!");
+		}
+		this.store = store;
+		this.registrator = registrator;
+		this.viewId = viewId;
+		this.order = order;
+		this.random = random;
+		this.prefetch = prefetch;
+		this.ahead = new ArrayDeque<>(prefetch);
+		registrator.addView(viewId, ViewTemplates.QUOTE_TEMPLATE, ICON_RESOURCE);
+	}
+
+	/**
+	 * Shows the next quote now: publishes its page rendered ahead and renders the page of the quote that follows.
+	 *
+	 * @return index of the quote shown
+	 * @throws IOException Thrown if a page can't be rendered.
+	 */
+	public synchronized int showNext()
+			throws IOException {
+		fill();
+		final Page page = this.ahead.poll();
+		this.registrator.publishMainPage(this.viewId, page.bytes);
+		this.current = page.index;
+		fill();
+		return page.index;
+	}
+
+	/**
+	 * Lets a scheduler decide when the next quote is shown, so the rotation gives way to the refreshes of views with a higher priority. Without a scheduler
+	 * the quotes are shown right when they are due.
+	 *
+	 * @param scheduler scheduler or {@code null}
+	 */
+	public void setScheduler(final RefreshScheduler scheduler) {
+		if (scheduler != null) {
+			scheduler.register(this.viewId, RefreshScheduler.Priority.BACKGROUND, viewId -> showNext());
+		}
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Shows a quote now and every {@code intervalMillis} the next one, on a thread of the rotation.
+	 *
+	 * @param intervalMillis time each quote is shown
+	 */
+	public synchronized void start(final long intervalMillis) {
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("'intervalMillis' must be positive!");
+		}
+		if (this.timer != null) {
+			return;
+		}
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "mirror-quote-rotation");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.scheduleWithFixedDelay(this::rotate, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops showing further quotes, the current one stays on the mirrors.
+	 */
+	public synchronized void stop() {
+		if (this.timer != null) {
+			this.timer.shutdownNow();
+			this.timer = null;
+		}
+	}
+
+	/**
+	 * @return index of the quote shown, {@code -1} before the first one
+	 */
+	public synchronized int getCurrentIndex() {
+		return this.current;
+	}
+
+	/**
+	 * @return number of pages rendered ahead and waiting
+	 */
+	public synchronized int getPrefetchedCount() {
+		return this.ahead.size();
+	}
+
+	/**
+	 * @return number of timed rotations that failed, the next rotation tries again
+	 */
+	public synchronized long getFailureCount() {
+		return this.failures;
+	}
+
+	/**
+	 * @return exception of the last failed rotation, {@code null} if none failed
+	 */
+	public synchronized Exception getLastFailure() {
+		return this.lastFailure;
+	}
+
+	private void rotate() {
+		try {
+			final RefreshScheduler refreshScheduler = this.scheduler;
+			if (refreshScheduler != null) {
+				refreshScheduler.request(this.viewId);
+				return;
+			}
+			showNext();
+		} catch (final IOException | RuntimeException e) {
+			// the next rotation tries again, the thread mustn't die
+			synchronized (this) {
+				this.failures++;
+				this.lastFailure = e;
+			}
+		}
+	}
+
+	private void fill()
+			throws IOException {
+		while (this.ahead.size() < this.prefetch) {
+			final int index = this.order == Order.RANDOM ? this.store.randomIndex(this.random, this.lastPicked) : this.store.nextIndex(this.lastPicked);
+			final Map<String, String> values = new HashMap<>(4);
+			values.put("QUOTE", this.store.getText(index));
+			values.put("AUTHOR", this.store.getAuthor(index));
+			this.ahead.add(new Page(index, this.registrator.renderMainPage(this.viewId, values)));
+			this.lastPicked = index;
+		}
+	}
+}
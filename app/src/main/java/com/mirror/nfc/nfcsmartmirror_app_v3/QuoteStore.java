@@ -0,0 +1,240 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Read-only corpus of quotes packed into one UTF-8 byte arena. A corpus is a text file with one quote per line, written as {@code author;quote}; the author
+ * ends at the first semicolon, so the quote itself may contain semicolons. Lines without a semicolon are quotes without author, empty lines are skipped.
+ * <p>
+ * The corpus is streamed into the arena, the author and the quote of an entry are stored back to back without separator and an index holds two offsets per
+ * entry. A quote costs its UTF-8 bytes plus eight bytes of index instead of two String objects, Strings are decoded only for the quotes that are shown.
+ *
+ * @since 17.07
+ */
+public final class QuoteStore {
+
+	/** Corpus shipped with the app */
+	public static final String QUOTES_RESOURCE = "de/iolite/insys/mirror/quotes.csv";
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+
+	private static final int INITIAL_INDEX_SIZE = 256;
+
+	/** UTF-8 encoded authors and quotes of all entries */
+	private final byte[] arena;
+
+	/**
+	 * {@code offsets[2 * i]} is the start of the author of entry {@code i}, {@code offsets[2 * i + 1]} the start of its quote; the quote ends where the next
+	 * author starts, the last element is the end of the arena.
+	 */
+	private final int[] offsets;
+
+	private QuoteStore(final byte[] arena, final int[] offsets) {
+		this.arena = arena;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Loads the corpus shipped with the app.
+	 *
+	 * @param classLoader class loader providing {@link #QUOTES_RESOURCE}
+	 * @return loaded corpus
+	 * @throws IOException Thrown if the corpus doesn't exist or can't be read.
+	 */
+	public static QuoteStore loadResource(final ClassLoader classLoader)
+			throws IOException {
+		if (classLoader == null) {
+			throw new IllegalArgumentException("'classLoader' mustn't be null!");
+		}
+		final InputStream in = classLoader.getResourceAsStream(QUOTES_RESOURCE);
+		if (in == null) {
+			throw new IOException("Quote resource '" + QUOTES_RESOURCE + "' not found");
+		}
+		return load(in);
+	}
+
+	/**
+	 * Loads a corpus. The stream is read in chunks and copied into the arena once, no String is created.
+	 *
+	 * @param corpus UTF-8 encoded corpus, closed by this method
+	 * @return loaded corpus
+	 * @throws IOException Thrown if the corpus can't be read.
+	 */
+	public static QuoteStore load(final InputStream corpus)
+			throws IOException {
+		if (corpus == null) {
+			throw new IllegalArgumentException("'corpus' mustn't be null!");
+		}
+		final Loader loader = new Loader();
+		try (final InputStream in = corpus) {
+			final byte[] buffer = new byte[READ_BUFFER_SIZE];
+			boolean first = true;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				int start = 0;
+				if (first && read >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+					// byte order mark of editors on Windows
+					start = 3;
+				}
+				if (read > 0) {
+					first = false;
+				}
+				loader.append(buffer, start, read);
+			}
+		}
+		return loader.finish();
+	}
+
+	/**
+	 * Builds arena and index while the corpus is read, growing both by doubling.
+	 */
+	private static final class Loader {
+
+		private byte[] arena = new byte[INITIAL_ARENA_SIZE];
+
+		private int[] offsets = new int[INITIAL_INDEX_SIZE];
+
+		private int length;
+
+		private int entries;
+
+		private int lineStart;
+
+		/** arena position of the quote of the current line, {@code -1} until its separator was read */
+		private int separator = -1;
+
+		void append(final byte[] buffer, final int start, final int end) {
+			if (this.arena.length - this.length < end - start) {
+				this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, this.length + end - start));
+			}
+			for (int i = start; i < end; i++) {
+				final byte b = buffer[i];
+				if (b == '\n') {
+					endLine();
+				}
+				else if (b == ';' && this.separator < 0) {
+					this.separator = this.length;
+				}
+				else if (b != '\r') {
+					this.arena[this.length++] = b;
+				}
+			}
+		}
+
+		private void endLine() {
+			if (this.length > this.lineStart || this.separator >= 0) {
+				if (this.offsets.length < 2 * this.entries + 3) {
+					this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+				}
+				this.offsets[2 * this.entries] = this.lineStart;
+				this.offsets[2 * this.entries + 1] = this.separator >= 0 ? this.separator : this.lineStart;
+				this.entries++;
+			}
+			this.lineStart = this.length;
+			this.separator = -1;
+		}
+
+		QuoteStore finish() {
+			// the last line may lack its line break
+			endLine();
+			this.offsets[2 * this.entries] = this.length;
+			return new QuoteStore(Arrays.copyOf(this.arena, this.length), Arrays.copyOf(this.offsets, 2 * this.entries + 1));
+		}
+	}
+
+	/**
+	 * @return number of quotes
+	 */
+	public int size() {
+		return this.offsets.length / 2;
+	}
+
+	/**
+	 * @return {@code true} if the corpus contains no quote
+	 */
+	public boolean isEmpty() {
+		return this.offsets.length == 1;
+	}
+
+	/**
+	 * @return number of bytes of the arena, the index takes another {@code 8} bytes per quote
+	 */
+	public int getArenaSize() {
+		return this.arena.length;
+	}
+
+	/**
+	 * @param index index of the quote
+	 * @return text of the quote
+	 */
+	public String getText(final int index) {
+		checkIndex(index);
+		return decode(this.offsets[2 * index + 1], this.offsets[2 * index + 2]);
+	}
+
+	/**
+	 * @param index index of the quote
+	 * @return author of the quote, empty if it has none
+	 */
+	public String getAuthor(final int index) {
+		checkIndex(index);
+		return decode(this.offsets[2 * index], this.offsets[2 * index + 1]);
+	}
+
+	/**
+	 * @param index index of the quote
+	 * @return decoded quote
+	 */
+	public Quote getQuote(final int index) {
+		return new Quote(getText(index), getAuthor(index));
+	}
+
+	/**
+	 * @param random source of randomness
+	 * @param previous index of the quote shown before, {@code -1} if none; it isn't picked again unless it is the only quote
+	 * @return index of a random quote
+	 */
+	public int randomIndex(final Random random, final int previous) {
+		if (random == null) {
+			throw new IllegalArgumentException("'random' mustn't be null!");
+		}
+		final int size = size();
+		if (size == 0) {
+			throw new IllegalStateException("No quotes");
+		}
+		if (size == 1 || previous < 0 || previous >= size) {
+			return random.nextInt(size);
+		}
+		// pick among the other quotes, the previous one is replaced by the last index
+		final int index = random.nextInt(size - 1);
+		return index == previous ? size - 1 : index;
+	}
+
+	/**
+	 * @param previous index of the quote shown before, {@code -1} to start with the first one
+	 * @return index of the quote following {@code previous}, wrapping around at the end
+	 */
+	public int nextIndex(final int previous) {
+		final int size = size();
+		if (size == 0) {
+			throw new IllegalStateException("No quotes");
+		}
+		return previous < 0 || previous >= size - 1 ? 0 : previous + 1;
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Quote " + index + " of " + size());
+		}
+	}
+
+	private String decode(final int start, final int end) {
+		return new String(this.arena, start, end - start, StandardCharsets.UTF_8);
+	}
+}
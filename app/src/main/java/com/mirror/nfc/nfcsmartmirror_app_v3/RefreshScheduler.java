@@ -0,0 +1,366 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when the views are refreshed on the mirrors, between the event sources and the uploads. The sources only {@link #request(String) request} a
+ * refresh of a view; requests for the same view are debounced: the view is refreshed once no further request came in for the debounce time, but never later
+ * than the maximum latency after the first request. A token bucket limits the refreshes of all views together, so a burst of messages doesn't produce more
+ * full page uploads than a mirror's webserver can take. When refreshes have to wait for tokens, views of a higher {@link Priority} are refreshed first.
+ * <p>
+ * Time is read from a clock in milliseconds. The scheduler runs the due refreshes on a thread of its own; created without a thread it is driven by
+ * {@link #runDue()} and a virtual clock, which makes its decisions deterministic.
+ *
+ * @since 17.07
+ */
+public final class RefreshScheduler {
+
+	/**
+	 * Refreshes a view, called on the scheduler's thread.
+	 */
+	public interface Refresher {
+
+		/**
+		 * @param viewId id of the view to refresh
+		 * @throws IOException Thrown if the view can't be refreshed, it is refreshed again with its next request.
+		 */
+		void refresh(String viewId)
+				throws IOException;
+	}
+
+	/**
+	 * Priority of a view, views of a higher priority take the available tokens first.
+	 */
+	public enum Priority {
+		/** views that are worthless when late, e.g. an incoming call */
+		URGENT,
+		/** views of messages and notifications */
+		NORMAL,
+		/** views that change on their own, e.g. the quote rotation */
+		BACKGROUND
+	}
+
+	/** Default time without further requests before a view is refreshed */
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+
+	/** Default maximum time between the first request and the refresh of a view */
+	public static final long DEFAULT_MAX_LATENCY_MILLIS = 1000;
+
+	/** Default number of refreshes that may run at once after a quiet period */
+	public static final int DEFAULT_BURST = 4;
+
+	/** Default time it takes to earn another refresh */
+	public static final long DEFAULT_REFILL_MILLIS = 500;
+
+	private static RefreshScheduler instance;
+
+	/**
+	 * View registered with the scheduler.
+	 */
+	private static final class View {
+
+		private final String id;
+
+		private final Priority priority;
+
+		private final Refresher refresher;
+
+		/** {@code true} while a refresh is requested */
+		private boolean pending;
+
+		/** time of the first request since the last refresh */
+		private long firstRequest;
+
+		private long lastRequest;
+
+		View(final String id, final Priority priority, final Refresher refresher) {
+			this.id = id;
+			this.priority = priority;
+			this.refresher = refresher;
+		}
+
+		long due(final long debounceMillis, final long maxLatencyMillis) {
+			return Math.min(this.lastRequest + debounceMillis, this.firstRequest + maxLatencyMillis);
+		}
+	}
+
+	private final long debounceMillis;
+
+	private final long maxLatencyMillis;
+
+	private final int burst;
+
+	private final long refillMillis;
+
+	private final LongSupplier clock;
+
+	/** {@code null} if the scheduler is driven by {@link #runDue()} */
+	private final ScheduledExecutorService timer;
+
+	/** views in the order they were registered, which decides between views of the same priority and due time */
+	private final Map<String, View> views = new LinkedHashMap<>();
+
+	private int tokens;
+
+	/** time the tokens were last refilled, later tokens are earned from here */
+	private long refilled;
+
+	private ScheduledFuture<?> wakeup;
+
+	private long wakeupTime = Long.MAX_VALUE;
+
+	private long refreshes;
+
+	private long failures;
+
+	private Exception lastFailure;
+
+	/**
+	 * @param debounceMillis time without further requests before a view is refreshed
+	 * @param maxLatencyMillis maximum time between the first request and the refresh of a view, as long as the rate limit allows
+	 * @param burst number of refreshes that may run at once after a quiet period
+	 * @param refillMillis time it takes to earn another refresh
+	 */
+	public RefreshScheduler(final long debounceMillis, final long maxLatencyMillis, final int burst, final long refillMillis) {
+		this(debounceMillis, maxLatencyMillis, burst, refillMillis, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()), Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					final Thread thread = new Thread(runnable, "mirror-refresh");
+					thread.setDaemon(true);
+					return thread;
+				}));
+	}
+
+	/**
+	 * @param clock time in milliseconds
+	 * @param timer thread running the due refreshes, {@code null} to drive the scheduler by {@link #runDue()}
+	 */
+	RefreshScheduler(final long debounceMillis, final long maxLatencyMillis, final int burst, final long refillMillis, final LongSupplier clock,
+			final ScheduledExecutorService timer) {
+		if (debounceMillis < 0) {
+			throw new IllegalArgumentException("'debounceMillis' mustn't be negative!");
+		}
+		if (maxLatencyMillis < debounceMillis) {
+			throw new IllegalArgumentException("'maxLatencyMillis' mustn't be less than 'debounceMillis'!");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("'burst' must be positive!");
+		}
+		if (refillMillis <= 0) {
+			throw new IllegalArgumentException("'refillMillis' must be positive!");
+		}
+		if (clock == null) {
+			throw new IllegalArgumentException("'clock' mustn't be null!");
+		}
+		this.debounceMillis = debounceMillis;
+		this.maxLatencyMillis = maxLatencyMillis;
+		this.burst = burst;
+		this.refillMillis = refillMillis;
+		this.clock = clock;
+		this.timer = timer;
+		this.tokens = burst;
+		this.refilled = clock.getAsLong();
+	}
+
+	/**
+	 * @return scheduler shared by the app's views, with the default timing
+	 */
+	public static synchronized RefreshScheduler getInstance() {
+		if (instance == null) {
+			instance = new RefreshScheduler(DEFAULT_DEBOUNCE_MILLIS, DEFAULT_MAX_LATENCY_MILLIS, DEFAULT_BURST, DEFAULT_REFILL_MILLIS);
+		}
+		return instance;
+	}
+
+	/**
+	 * Registers a view, replacing an earlier registration of the same id.
+	 *
+	 * @param viewId id of the view
+	 * @param priority priority of the view's refreshes
+	 * @param refresher refreshes the view
+	 */
+	public synchronized void register(final String viewId, final Priority priority, final Refresher refresher) {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (priority == null) {
+			throw new IllegalArgumentException("'priority' mustn't be null!");
+		}
+		if (refresher == null) {
+			throw new IllegalArgumentException("'refresher' mustn't be null!");
+		}
+		this.views.put(viewId, new View(viewId, priority, refresher));
+	}
+
+	/**
+	 * Requests a refresh of a view. Only records the time, so it can be called for every event.
+	 *
+	 * @param viewId id of a registered view
+	 */
+	public synchronized void request(final String viewId) {
+		final View view = this.views.get(viewId);
+		if (view == null) {
+			throw new IllegalArgumentException("Unknown view '" + viewId + "'!");
+		}
+		final long now = this.clock.getAsLong();
+		if (!view.pending) {
+			view.pending = true;
+			view.firstRequest = now;
+		}
+		view.lastRequest = now;
+		scheduleWakeup();
+	}
+
+	/**
+	 * Refreshes the views that are due, as many as the rate limit allows, in the order of their priority and then of their due time. The refreshes run on
+	 * the calling thread.
+	 *
+	 * @return number of views refreshed
+	 */
+	public int runDue() {
+		final List<View> due = new ArrayList<>();
+		synchronized (this) {
+			final long now = this.clock.getAsLong();
+			refill(now);
+			for (final View view : this.views.values()) {
+				if (view.pending && view.due(this.debounceMillis, this.maxLatencyMillis) <= now) {
+					due.add(view);
+				}
+			}
+			due.sort((first, second) -> first.priority != second.priority ? first.priority.compareTo(second.priority)
+					: Long.compare(first.due(this.debounceMillis, this.maxLatencyMillis), second.due(this.debounceMillis, this.maxLatencyMillis)));
+			if (due.size() > this.tokens) {
+				// the others stay pending and are refreshed with the next tokens
+				due.subList(this.tokens, due.size()).clear();
+			}
+			for (final View view : due) {
+				// requests during the refresh start a new debounce period
+				view.pending = false;
+			}
+			this.tokens -= due.size();
+			this.refreshes += due.size();
+		}
+		for (final View view : due) {
+			try {
+				view.refresher.refresh(view.id);
+			} catch (final IOException | RuntimeException e) {
+				// a failing view mustn't stop the refresh of the others
+				synchronized (this) {
+					this.failures++;
+					this.lastFailure = e;
+				}
+			}
+		}
+		synchronized (this) {
+			this.wakeupTime = Long.MAX_VALUE;
+			scheduleWakeup();
+		}
+		return due.size();
+	}
+
+	/**
+	 * @return time the next refresh is due, as far as the rate limit allows, {@link Long#MAX_VALUE} if no refresh is pending
+	 */
+	public synchronized long getNextRunTime() {
+		long next = Long.MAX_VALUE;
+		for (final View view : this.views.values()) {
+			if (view.pending) {
+				next = Math.min(next, view.due(this.debounceMillis, this.maxLatencyMillis));
+			}
+		}
+		if (next == Long.MAX_VALUE) {
+			return next;
+		}
+		refill(this.clock.getAsLong());
+		return this.tokens > 0 ? next : Math.max(next, this.refilled + this.refillMillis);
+	}
+
+	/**
+	 * @return number of views waiting for their refresh
+	 */
+	public synchronized int getPendingCount() {
+		int pending = 0;
+		for (final View view : this.views.values()) {
+			if (view.pending) {
+				pending++;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * @return number of refreshes run so far
+	 */
+	public synchronized long getRefreshCount() {
+		return this.refreshes;
+	}
+
+	/**
+	 * @return number of refreshes that failed, the views stay requestable
+	 */
+	public synchronized long getFailureCount() {
+		return this.failures;
+	}
+
+	/**
+	 * @return exception of the last failed refresh, {@code null} if none failed
+	 */
+	public synchronized Exception getLastFailure() {
+		return this.lastFailure;
+	}
+
+	/**
+	 * Stops the scheduler's thread, pending refreshes are dropped.
+	 */
+	public synchronized void close() {
+		if (this.timer != null) {
+			this.timer.shutdownNow();
+		}
+	}
+
+	private void refill(final long now) {
+		if (this.tokens >= this.burst) {
+			// a full bucket earns nothing, the next token is earned a refill period after it was first used
+			this.refilled = now;
+			return;
+		}
+		final long earned = (now - this.refilled) / this.refillMillis;
+		if (earned <= 0) {
+			return;
+		}
+		if (this.tokens + earned >= this.burst) {
+			this.tokens = this.burst;
+			this.refilled = now;
+		}
+		else {
+			this.tokens += (int) earned;
+			this.refilled += earned * this.refillMillis;
+		}
+	}
+
+	/**
+	 * Makes the thread wake up when the next refresh is due, unless it wakes up earlier anyway.
+	 */
+	private void scheduleWakeup() {
+		if (this.timer == null || this.timer.isShutdown()) {
+			return;
+		}
+		final long next = getNextRunTime();
+		if (next >= this.wakeupTime) {
+			return;
+		}
+		if (this.wakeup != null) {
+			this.wakeup.cancel(false);
+		}
+		this.wakeupTime = next;
+		this.wakeup = this.timer.schedule(this::runDue, Math.max(0, next - this.clock.getAsLong()), TimeUnit.MILLISECONDS);
+	}
+}
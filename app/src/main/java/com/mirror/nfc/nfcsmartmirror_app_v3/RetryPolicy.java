@@ -0,0 +1,91 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed upload is retried. Delays grow exponentially from the initial delay up to the maximum delay, each delay is picked
+ * randomly between zero and the current bound ("full jitter"), so mirrors recovering from an outage aren't hit by all clients at once. Retrying stops when
+ * either the maximum number of attempts or the time budget is used up.
+ *
+ * @since 17.07
+ */
+public final class RetryPolicy {
+
+	/** Three attempts within 30 seconds, starting with a delay of up to 250 ms */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(3, 250, 5000, 30000);
+
+	/** Policy for a single attempt without any retry */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+	/** Lower bound of the timeouts of an attempt, so a policy with a small budget still gives a busy mirror time to answer */
+	public static final int MIN_ATTEMPT_TIMEOUT_MILLIS = 1000;
+
+	private final int maxAttempts;
+
+	private final long initialDelayMillis;
+
+	private final long maxDelayMillis;
+
+	private final long budgetMillis;
+
+	private final Random random = new Random();
+
+	/**
+	 * @param maxAttempts maximum number of attempts including the first one
+	 * @param initialDelayMillis upper bound of the delay before the first retry
+	 * @param maxDelayMillis upper bound of any delay
+	 * @param budgetMillis time after the first attempt started after which no further attempt is started
+	 * @throws IllegalArgumentException Thrown if maxAttempts is not positive or any duration is negative.
+	 */
+	public RetryPolicy(final int maxAttempts, final long initialDelayMillis, final long maxDelayMillis, final long budgetMillis) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("'maxAttempts' must be positive!");
+		}
+		if (initialDelayMillis < 0 || maxDelayMillis < 0 || budgetMillis < 0) {
+			throw new IllegalArgumentException("Durations mustn't be negative!");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.budgetMillis = budgetMillis;
+	}
+
+	/**
+	 * Decides whether another attempt is made after an attempt failed.
+	 *
+	 * @param attempts number of attempts made so far
+	 * @param elapsedMillis time since the first attempt started
+	 * @param delayMillis delay that would precede the next attempt
+	 * @return {@code true} if the next attempt is within the budget
+	 */
+	public boolean shouldRetry(final int attempts, final long elapsedMillis, final long delayMillis) {
+		return attempts < this.maxAttempts && elapsedMillis + delayMillis <= this.budgetMillis;
+	}
+
+	/**
+	 * Connect and read timeout of a single attempt: the budget shared by the attempts, but at least {@value #MIN_ATTEMPT_TIMEOUT_MILLIS} ms. Without a
+	 * timeout a mirror that stops answering blocks the attempt forever, and neither the attempt limit nor the budget ever apply.
+	 *
+	 * @return timeout in milliseconds
+	 */
+	public int getAttemptTimeoutMillis() {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_ATTEMPT_TIMEOUT_MILLIS, this.budgetMillis / this.maxAttempts));
+	}
+
+	/**
+	 * Picks the delay before the next attempt.
+	 *
+	 * @param attempts number of attempts made so far, at least 1
+	 * @return delay in milliseconds
+	 */
+	public long nextDelayMillis(final int attempts) {
+		final int doublings = Math.min(attempts - 1, 30);
+		final long bound = Math.min(this.maxDelayMillis, this.initialDelayMillis << doublings);
+		if (bound <= 0) {
+			return 0;
+		}
+		synchronized (this.random) {
+			return (long) (this.random.nextDouble() * bound);
+		}
+	}
+}
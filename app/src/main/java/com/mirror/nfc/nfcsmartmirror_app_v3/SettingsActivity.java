@@ -209,6 +209,11 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
             // updated to reflect the new value, per the Android Design
             // guidelines.
             bindPreferenceSummaryToValue(findPreference("notifications_new_message_ringtone"));
+            bindPreferenceSummaryToValue(findPreference(NotificationFilter.PREF_ALLOWED_PACKAGES));
+            bindPreferenceSummaryToValue(findPreference(NotificationFilter.PREF_DENIED_PACKAGES));
+            bindPreferenceSummaryToValue(findPreference(NotificationFilter.PREF_KEYWORDS));
+            bindPreferenceSummaryToValue(findPreference(NotificationFilter.PREF_QUIET_FROM));
+            bindPreferenceSummaryToValue(findPreference(NotificationFilter.PREF_QUIET_UNTIL));
         }
 
         @Override
@@ -0,0 +1,293 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles long SMS that arrive split into several PDUs. Parts are grouped by the originating address and the concatenation reference from the PDU's user
+ * data header; a message is emitted once all parts arrived, or with the parts received so far if the remaining parts don't arrive within the timeout. Parts
+ * usually arrive in one broadcast, but the network may deliver the rest of a message with later broadcasts, so one instance is shared by the process.
+ *
+ * @since 17.07
+ */
+public final class SmsReassembler {
+
+	/**
+	 * Receives messages completed by the timeout, called on the reassembler's timer thread.
+	 */
+	public interface Listener {
+
+		void onMessage(Message message);
+	}
+
+	/**
+	 * Logical message, made of one or more parts.
+	 */
+	public static final class Message {
+
+		private final String address;
+
+		private final String body;
+
+		private final long timestamp;
+
+		private final int parts;
+
+		private final boolean complete;
+
+		Message(final String address, final String body, final long timestamp, final int parts, final boolean complete) {
+			this.address = address;
+			this.body = body;
+			this.timestamp = timestamp;
+			this.parts = parts;
+			this.complete = complete;
+		}
+
+		/**
+		 * @return originating address
+		 */
+		public String getAddress() {
+			return this.address;
+		}
+
+		/**
+		 * @return text of all parts received, in the order of the parts
+		 */
+		public String getBody() {
+			return this.body;
+		}
+
+		/**
+		 * @return service center timestamp of the first part received
+		 */
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		/**
+		 * @return number of parts the message consists of
+		 */
+		public int getParts() {
+			return this.parts;
+		}
+
+		/**
+		 * @return {@code false} if parts were missing when the message timed out
+		 */
+		public boolean isComplete() {
+			return this.complete;
+		}
+	}
+
+	/**
+	 * Concatenation information of a PDU's user data header.
+	 */
+	static final class Concatenation {
+
+		final int reference;
+
+		final int total;
+
+		final int sequence;
+
+		Concatenation(final int reference, final int total, final int sequence) {
+			this.reference = reference;
+			this.total = total;
+			this.sequence = sequence;
+		}
+	}
+
+	private final class Pending {
+
+		private final String key;
+
+		private final String address;
+
+		private final String[] parts;
+
+		private final long timestamp;
+
+		private int received;
+
+		private ScheduledFuture<?> timeout;
+
+		Pending(final String key, final String address, final int total, final long timestamp) {
+			this.key = key;
+			this.address = address;
+			this.parts = new String[total];
+			this.timestamp = timestamp;
+		}
+
+		Message toMessage() {
+			final StringBuilder body = new StringBuilder();
+			for (final String part : this.parts) {
+				if (part != null) {
+					body.append(part);
+				}
+			}
+			return new Message(this.address, body.toString(), this.timestamp, this.parts.length, this.received == this.parts.length);
+		}
+	}
+
+	/** Default time to wait for the missing parts of a message */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	/** Information element of a concatenated message with 8 bit reference */
+	private static final int IEI_CONCATENATED_8_BIT = 0x00;
+
+	/** Information element of a concatenated message with 16 bit reference */
+	private static final int IEI_CONCATENATED_16_BIT = 0x08;
+
+	private static final int TP_MTI_MASK = 0x03;
+
+	private static final int TP_UDHI = 0x40;
+
+	private static SmsReassembler instance;
+
+	private final long timeoutMillis;
+
+	private final ScheduledExecutorService timer;
+
+	private final Map<String, Pending> pending = new HashMap<>();
+
+	private volatile Listener listener;
+
+	/**
+	 * @param timeoutMillis time to wait for the missing parts of a message after its first part arrived
+	 */
+	public SmsReassembler(final long timeoutMillis) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("'timeoutMillis' must be positive!");
+		}
+		this.timeoutMillis = timeoutMillis;
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "sms-reassembler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @return reassembler shared by all SMS broadcasts of the process
+	 */
+	public static synchronized SmsReassembler getInstance() {
+		if (instance == null) {
+			instance = new SmsReassembler(DEFAULT_TIMEOUT_MILLIS);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param listener receives the messages completed by the timeout, {@code null} to drop them
+	 */
+	public void setListener(final Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a received PDU.
+	 *
+	 * @param address originating address
+	 * @param body decoded text of the PDU
+	 * @param timestamp service center timestamp of the PDU
+	 * @param pdu raw PDU as delivered in the broadcast, {@code null} if unknown
+	 * @return the message if it is complete with this part, {@code null} while parts are missing
+	 */
+	public Message offer(final String address, final String body, final long timestamp, final byte[] pdu) {
+		if (address == null) {
+			throw new IllegalArgumentException("'address' mustn't be null!");
+		}
+		final Concatenation concatenation = pdu == null ? null : parseConcatenation(pdu);
+		if (concatenation == null || concatenation.total <= 1) {
+			return new Message(address, body == null ? "" : body, timestamp, 1, true);
+		}
+		if (concatenation.sequence < 1 || concatenation.sequence > concatenation.total) {
+			// malformed header, deliver the part on its own rather than losing it
+			return new Message(address, body == null ? "" : body, timestamp, 1, false);
+		}
+		final String key = address + '#' + concatenation.reference + '/' + concatenation.total;
+		synchronized (this.pending) {
+			Pending message = this.pending.get(key);
+			if (message == null) {
+				message = new Pending(key, address, concatenation.total, timestamp);
+				this.pending.put(key, message);
+				final Pending timedOut = message;
+				message.timeout = this.timer.schedule(() -> timeout(timedOut), this.timeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			final int index = concatenation.sequence - 1;
+			if (message.parts[index] == null) {
+				message.parts[index] = body == null ? "" : body;
+				message.received++;
+			}
+			if (message.received < message.parts.length) {
+				return null;
+			}
+			this.pending.remove(key);
+			message.timeout.cancel(false);
+			return message.toMessage();
+		}
+	}
+
+	private void timeout(final Pending message) {
+		synchronized (this.pending) {
+			if (this.pending.get(message.key) != message) {
+				return;
+			}
+			this.pending.remove(message.key);
+		}
+		final Listener current = this.listener;
+		if (current != null) {
+			current.onMessage(message.toMessage());
+		}
+	}
+
+	/**
+	 * @return number of messages waiting for parts
+	 */
+	public int getPendingCount() {
+		synchronized (this.pending) {
+			return this.pending.size();
+		}
+	}
+
+	/**
+	 * Reads the concatenation information element from the user data header of an SMS-DELIVER PDU, as delivered by the {@code pdus} extra (starting with
+	 * the service center address).
+	 *
+	 * @return concatenation information or {@code null} if the PDU is not part of a concatenated message or can't be parsed
+	 */
+	static Concatenation parseConcatenation(final byte[] pdu) {
+		try {
+			int position = 1 + (pdu[0] & 0xFF);
+			final int firstOctet = pdu[position++] & 0xFF;
+			if ((firstOctet & TP_MTI_MASK) != 0 || (firstOctet & TP_UDHI) == 0) {
+				// not an SMS-DELIVER or no user data header
+				return null;
+			}
+			final int addressDigits = pdu[position++] & 0xFF;
+			// type of address, address digits, protocol identifier, data coding scheme, service center timestamp, user data length
+			position += 1 + (addressDigits + 1) / 2 + 1 + 1 + 7 + 1;
+			final int headerLength = pdu[position++] & 0xFF;
+			final int headerEnd = position + headerLength;
+			while (position + 1 < headerEnd) {
+				final int identifier = pdu[position] & 0xFF;
+				final int length = pdu[position + 1] & 0xFF;
+				final int data = position + 2;
+				if (identifier == IEI_CONCATENATED_8_BIT && length == 3) {
+					return new Concatenation(pdu[data] & 0xFF, pdu[data + 1] & 0xFF, pdu[data + 2] & 0xFF);
+				}
+				if (identifier == IEI_CONCATENATED_16_BIT && length == 4) {
+					return new Concatenation((pdu[data] & 0xFF) << 8 | pdu[data + 1] & 0xFF, pdu[data + 2] & 0xFF, pdu[data + 3] & 0xFF);
+				}
+				position = data + length;
+			}
+			return null;
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+}
@@ -1,15 +1,46 @@
-
 package com.mirror.nfc.nfcsmartmirror_app_v3;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 //import java.nio.file.Path;
 //import java.nio.file.Paths;
@@ -79,6 +110,164 @@ public class StaticResourceUploader {
 		}
 	}
 
+	/**
+	 * Describes a single resource of a batch upload.
+	 *
+	 * @see StaticResourceUploader#uploadAll(Collection)
+	 */
+	public static final class UploadJob {
+
+		private final InputStreamSupplier inputStreamSupplier;
+
+		private final long contentLength;
+
+		private final String urlBasePath;
+
+		private final ResourceRegistrationConfig registrationConfig;
+
+		/**
+		 * Creates a job for a resource that is neither main page nor icon of a view.
+		 *
+		 * @param inputStreamSupplier Provides the input stream to upload.
+		 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+		 * @throws IllegalArgumentException Thrown if any parameter is {@code null}.
+		 */
+		public UploadJob(final InputStreamSupplier inputStreamSupplier, final String urlBasePath) {
+			this(inputStreamSupplier, urlBasePath, null);
+		}
+
+		/**
+		 * Creates a job for a resource.
+		 *
+		 * @param inputStreamSupplier Provides the input stream to upload.
+		 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+		 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view, may be {@code null}.
+		 * @throws IllegalArgumentException Thrown if inputStreamSupplier or urlBasePath is {@code null}.
+		 */
+		public UploadJob(final InputStreamSupplier inputStreamSupplier, final String urlBasePath,
+				final ResourceRegistrationConfig registrationConfig) {
+			this(inputStreamSupplier, UNKNOWN_CONTENT_LENGTH, urlBasePath, registrationConfig);
+		}
+
+		/**
+		 * Creates a job for a resource of known size, which is streamed with a fixed content length.
+		 *
+		 * @param inputStreamSupplier Provides the input stream to upload.
+		 * @param contentLength Number of bytes the stream provides or {@value StaticResourceUploader#UNKNOWN_CONTENT_LENGTH} if unknown.
+		 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+		 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view, may be {@code null}.
+		 * @throws IllegalArgumentException Thrown if inputStreamSupplier or urlBasePath is {@code null}.
+		 */
+		public UploadJob(final InputStreamSupplier inputStreamSupplier, final long contentLength, final String urlBasePath,
+				final ResourceRegistrationConfig registrationConfig) {
+			if (inputStreamSupplier == null) {
+				throw new IllegalArgumentException("'inputStreamSupplier' mustn't be null!");
+			}
+			if (urlBasePath == null) {
+				throw new IllegalArgumentException("'urlBasePath' mustn't be null!");
+			}
+			this.inputStreamSupplier = inputStreamSupplier;
+			this.contentLength = contentLength;
+			this.urlBasePath = urlBasePath;
+			this.registrationConfig = registrationConfig;
+		}
+
+		public InputStreamSupplier getInputStreamSupplier() {
+			return this.inputStreamSupplier;
+		}
+
+		public long getContentLength() {
+			return this.contentLength;
+		}
+
+		public String getUrlBasePath() {
+			return this.urlBasePath;
+		}
+
+		public ResourceRegistrationConfig getRegistrationConfig() {
+			return this.registrationConfig;
+		}
+	}
+
+	/**
+	 * Outcome of a single {@link UploadJob}. Either the path on the mirror's webserver or the error that made the upload fail is set.
+	 */
+	public static final class UploadResult {
+
+		private final UploadJob job;
+
+		private final String path;
+
+		private final UploadException error;
+
+		private UploadResult(final UploadJob job, final String path, final UploadException error) {
+			this.job = job;
+			this.path = path;
+			this.error = error;
+		}
+
+		public UploadJob getJob() {
+			return this.job;
+		}
+
+		/**
+		 * @return Path on the mirror's webserver under which the resource is available or {@code null} if the upload failed.
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * @return Error that made the upload fail or {@code null} if the upload succeeded.
+		 */
+		public UploadException getError() {
+			return this.error;
+		}
+
+		/**
+		 * @return Why the upload failed or {@code null} if the upload succeeded.
+		 */
+		public UploadException.Reason getFailureReason() {
+			return this.error != null ? this.error.getReason() : null;
+		}
+
+		public boolean isSuccess() {
+			return this.error == null;
+		}
+	}
+
+	/**
+	 * Measures the bytes written to the connection and the time spent writing them.
+	 */
+	private static final class MeteredOutputStream extends FilterOutputStream {
+
+		private long bytes;
+
+		private long nanos;
+
+		private MeteredOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b)
+				throws IOException {
+			final long start = System.nanoTime();
+			this.out.write(b);
+			this.nanos += System.nanoTime() - start;
+			this.bytes++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			final long start = System.nanoTime();
+			this.out.write(b, off, len);
+			this.nanos += System.nanoTime() - start;
+			this.bytes += len;
+		}
+	}
+
 	private interface MainPageUploader {
 
 		void upload()
@@ -100,10 +289,76 @@ public class StaticResourceUploader {
 	private static final String SCHEME_FILE_PREFIX = SCHEME_FILE + ":";
 
 
+	/** Content length passed if the size of a resource is unknown, the resource is uploaded in chunks */
+	public static final long UNKNOWN_CONTENT_LENGTH = -1;
+
+	/** Size of the buffers used to copy resources into the connection, also used as chunk size */
+	private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+	/** Files from this size on are read memory mapped, mapping smaller ones costs more than it saves */
+	private static final long MIN_MAPPED_SIZE = 1024 * 1024;
+
+	/** Part of a file mapped at once, bounds the address space a large file takes */
+	private static final long MAP_WINDOW_SIZE = 16 * 1024 * 1024;
+
+	/** Number of characters of an error response searched for the reason of a 400 */
+	private static final int MAX_ERROR_CHARS = 1024;
+
+	/**
+	 * Name of the last entry of a bundle. It lists the bundled files in order, one line per file with the url encoded file path, view id, main page flag
+	 * and icon flag separated by tabs. The mirror answers with one line per listed file containing its path on the webserver, or an empty line if the file
+	 * was rejected.
+	 */
+	public static final String BUNDLE_MANIFEST_ENTRY = "META-INF/bundle-manifest.tsv";
+
+	/** Maximum number of uploads of a batch that run at the same time */
+	private static final int MAX_PARALLEL_UPLOADS = 4;
+
+	/** Default number of idle connections kept per mirror: one per parallel upload and one for the data channel */
+	public static final int DEFAULT_MAX_CONNECTIONS = MAX_PARALLEL_UPLOADS + 1;
+
+	/**
+	 * Default time an idle connection is kept in the pool. Mirrors close idle keep-alive connections after five seconds, the pool has to close them first.
+	 */
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 4000;
+
+	/** Time after which idle upload threads are released */
+	private static final long UPLOAD_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+	private static final AtomicInteger UPLOAD_THREAD_COUNT = new AtomicInteger();
+
+	/** Completes asynchronous uploads that exceed their timeout, shared by all uploaders */
+	private static final ScheduledThreadPoolExecutor TIMEOUTS = createTimeoutExecutor();
+
+	private static final BufferPool COPY_BUFFERS = new BufferPool(COPY_BUFFER_SIZE, 2 * MAX_PARALLEL_UPLOADS);
+
+
 	private final ClassLoader classLoader;
 
+	private final String mirrorApiUrl;
+
+	private final String appId;
 
-	private final URLConnectionFactory.Builder builder = new URLConnectionFactory.Builder();
+	private final String userId;
+
+	private final URLConnectionFactory.UploadTarget target;
+
+	private final ExecutorService uploadExecutor;
+
+	private volatile UploadManifest uploadManifest;
+
+	private volatile CompressionPolicy compressionPolicy;
+
+	/** {@code true} once the mirror rejected a gzip compressed body, later uploads aren't compressed */
+	private volatile boolean compressionRejected;
+
+	private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+	private volatile boolean persistentConnections = true;
+
+	private volatile OfflineUploadQueue offlineQueue;
+
+	private volatile long offlineTtlMillis;
 
 	/**
 	 * Creates an instance to upload static resources related to a specified mirror.
@@ -144,10 +399,19 @@ public class StaticResourceUploader {
 		if (classLoader == null) {
 			throw new IllegalArgumentException("'classLoader' mustn't be null!");
 		}
-		this.builder.setAppId(appId);
-		this.builder.setMirrorApiUrl(mirrorApiUrl);
-		this.builder.setUserId(userId);
+		this.target = new URLConnectionFactory.UploadTarget(mirrorApiUrl, appId, userId);
+		this.mirrorApiUrl = mirrorApiUrl;
+		this.appId = appId;
+		this.userId = userId;
 		this.classLoader = classLoader;
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_UPLOADS, MAX_PARALLEL_UPLOADS, UPLOAD_THREAD_KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+					final Thread thread = new Thread(runnable, "mirror-upload-" + UPLOAD_THREAD_COUNT.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		this.uploadExecutor = executor;
 	}
 
 	/**
@@ -161,32 +425,234 @@ public class StaticResourceUploader {
 	 */
 	public static String upload( final InputStreamSupplier inputStreamSupplier,  final UploadConnectionFactory connectionFactory)
 			throws IOException {
+		return upload(inputStreamSupplier, UNKNOWN_CONTENT_LENGTH, connectionFactory);
+	}
+
+	/**
+	 * Uploads the provided binary stream to the mirror. The stream is sent as it is read, so the memory used doesn't depend on the size of the resource.
+	 *
+	 * @param inputStreamSupplier Supplies the stream of binary data to upload.
+	 * @param contentLength Number of bytes the stream provides or {@value #UNKNOWN_CONTENT_LENGTH} to upload the stream in chunks.
+	 * @param connectionFactory Provides the configured connection to upload the file.
+	 * @return Path on the mirror's webserver under which the resource is available.
+	 * @throws IOException Thrown if connecting or transferring data from/to mirror fails, or the mirror doesn't answer within the attempt timeout of
+	 *             {@link RetryPolicy#DEFAULT}.
+	 * @throws IllegalArgumentException Thrown if inputStreamSupplier or connectionFactory is {@code null}.
+	 */
+	public static String upload( final InputStreamSupplier inputStreamSupplier, final long contentLength,
+			final UploadConnectionFactory connectionFactory)
+			throws IOException {
 		if (inputStreamSupplier == null) {
 			throw new IllegalArgumentException("'inputStreamSupplier' mustn't be null!");
 		}
 		if (connectionFactory == null) {
 			throw new IllegalArgumentException("'connectionFactory' mustn't be null!");
 		}
-		int read = 0;
-		final byte[] bytes = new byte[1024];
+		return upload(inputStreamSupplier, contentLength, connectionFactory, null, false, RetryPolicy.DEFAULT.getAttemptTimeoutMillis());
+	}
 
+	/**
+	 * Uploads the provided binary stream to the mirror, gzip compressed if a compression policy is passed.
+	 *
+	 * @param compressionPolicy policy that gets the measurements of the compression or {@code null} to send the stream as it is
+	 * @param keepAlive {@code true} to hand the connection back to the keep-alive pool after a successful upload instead of closing it
+	 * @param timeoutMillis connect and read timeout
+	 */
+	private static String upload(final InputStreamSupplier inputStreamSupplier, final long contentLength,
+			final UploadConnectionFactory connectionFactory, final CompressionPolicy compressionPolicy, final boolean keepAlive, final int timeoutMillis)
+			throws IOException {
 		final HttpURLConnection connection = connectionFactory.create();
-		try (final InputStream inputStream = inputStreamSupplier.get()) {
+		setTimeouts(connection, timeoutMillis);
+		if (!keepAlive) {
+			connection.setRequestProperty("Connection", "close");
+		}
+		if (compressionPolicy != null) {
+			connection.setRequestProperty("Content-Encoding", "gzip");
+			connection.setChunkedStreamingMode(COPY_BUFFER_SIZE);
+		}
+		else if (contentLength >= 0) {
+			connection.setFixedLengthStreamingMode(contentLength);
+		}
+		else {
+			connection.setChunkedStreamingMode(COPY_BUFFER_SIZE);
+		}
+		final byte[] buffer = COPY_BUFFERS.acquire();
+		boolean reusable = false;
+		try (final InputStream inputStream = open(inputStreamSupplier)) {
 			try (final OutputStream os = connection.getOutputStream()) {
-				while ((read = inputStream.read(bytes)) != -1) {
-					os.write(bytes, 0, read);
+				if (compressionPolicy != null) {
+					compress(inputStream, os, buffer, compressionPolicy);
+				}
+				else if (inputStream instanceof FileInputStream && contentLength >= MIN_MAPPED_SIZE) {
+					copyMapped(((FileInputStream) inputStream).getChannel(), os, buffer);
+				}
+				else {
+					copy(inputStream, os, buffer);
 				}
 			}
-			try (final InputStream responseStream = connection.getInputStream()) {
-				final BufferedReader in = new BufferedReader(new InputStreamReader(responseStream));
-				return in.readLine();
+			if (compressionPolicy != null) {
+				checkContentEncodingAccepted(connection);
+			}
+			checkResponseCode(connection);
+			try (final BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+				final String path = in.readLine();
+				drain(in);
+				reusable = true;
+				return path;
 			}
 		}
 		finally {
-			connection.disconnect();
+			COPY_BUFFERS.release(buffer);
+			if (!keepAlive || !reusable) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Sets the timeouts of a connection, so a mirror that stops answering or leaves the connection half open fails the attempt with a
+	 * {@link java.net.SocketTimeoutException} instead of blocking the thread forever.
+	 */
+	private static void setTimeouts(final HttpURLConnection connection, final int timeoutMillis) {
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+	}
+
+	/**
+	 * Reads the rest of a response. Only connections whose response was read completely are reused by the keep-alive pool.
+	 */
+	private static void drain(final Reader in)
+			throws IOException {
+		while (in.skip(Long.MAX_VALUE) > 0) {
+			// skip until the end of the response
+		}
+	}
+
+	private static InputStream open(final InputStreamSupplier inputStreamSupplier)
+			throws UploadException {
+		final InputStream inputStream;
+		try {
+			inputStream = inputStreamSupplier.get();
+		} catch (final IOException e) {
+			throw new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "Failed to open resource", 1, 0, e);
+		}
+		if (inputStream == null) {
+			throw new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "Resource not found", 1, 0, null);
+		}
+		return inputStream;
+	}
+
+	/**
+	 * Client errors are final, server errors are reported as plain {@link IOException} so they are retried like transfer errors.
+	 */
+	private static void checkResponseCode(final HttpURLConnection connection)
+			throws IOException {
+		final int responseCode = connection.getResponseCode();
+		if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+			throw new IOException("Mirror answered with status " + responseCode);
+		}
+		if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			throw new UploadException(UploadException.Reason.REJECTED, "Mirror rejected upload with status " + responseCode, 1, 0, null);
 		}
 	}
 
+	/**
+	 * Mirrors that don't support compressed bodies answer with 415, older ones fail to parse the body and answer with a 400 naming the content encoding.
+	 * Any other 400 is a rejection of the upload itself and left to {@link #checkResponseCode(HttpURLConnection)}.
+	 */
+	private static void checkContentEncodingAccepted(final HttpURLConnection connection)
+			throws IOException {
+		final int responseCode = connection.getResponseCode();
+		if (responseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+			throw new CompressionRejectedException(responseCode);
+		}
+		if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST) {
+			final String message = (connection.getResponseMessage() + "\n" + readError(connection)).toLowerCase(Locale.ROOT);
+			if (message.contains("encoding") || message.contains("gzip")) {
+				throw new CompressionRejectedException(responseCode);
+			}
+		}
+	}
+
+	/**
+	 * @return the start of the error response, empty if there is none
+	 */
+	private static String readError(final HttpURLConnection connection)
+			throws IOException {
+		final InputStream errorStream = connection.getErrorStream();
+		if (errorStream == null) {
+			return "";
+		}
+		try (final Reader in = new InputStreamReader(errorStream, StandardCharsets.UTF_8)) {
+			final char[] buffer = new char[MAX_ERROR_CHARS];
+			int length = 0;
+			int read;
+			while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += read;
+			}
+			return new String(buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Thrown if the mirror rejected a gzip compressed body.
+	 */
+	private static final class CompressionRejectedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CompressionRejectedException(final int responseCode) {
+			super("Mirror rejected compressed upload with status " + responseCode);
+		}
+	}
+
+	private static long copy(final InputStream inputStream, final OutputStream os, final byte[] buffer)
+			throws IOException {
+		long total = 0;
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			os.write(buffer, 0, read);
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Copies the rest of a file from its current position, e.g. after the confirmed offset of a resumed upload, through memory mapped windows. The
+	 * connection only accepts a stream, so a {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} into it would copy through a
+	 * heap buffer of the channel adapter; reading the mapped file into the copy buffer skips the read calls and their intermediate copy instead.
+	 */
+	private static void copyMapped(final FileChannel source, final OutputStream os, final byte[] buffer)
+			throws IOException {
+		final long size = source.size();
+		long position = source.position();
+		while (position < size) {
+			final MappedByteBuffer window = source.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_SIZE, size - position));
+			while (window.hasRemaining()) {
+				final int count = Math.min(buffer.length, window.remaining());
+				window.get(buffer, 0, count);
+				os.write(buffer, 0, count);
+			}
+			position += window.capacity();
+		}
+	}
+
+	/**
+	 * Writes the gzip compressed stream and reports to the policy how long compressing took compared to sending.
+	 */
+	private static void compress(final InputStream inputStream, final OutputStream os, final byte[] buffer, final CompressionPolicy compressionPolicy)
+			throws IOException {
+		final long start = System.nanoTime();
+		final MeteredOutputStream metered = new MeteredOutputStream(os);
+		final long rawBytes;
+		try (final GZIPOutputStream gzip = new GZIPOutputStream(metered, buffer.length)) {
+			rawBytes = copy(inputStream, gzip, buffer);
+			gzip.finish();
+		}
+		final long compressionNanos = System.nanoTime() - start - metered.nanos;
+		compressionPolicy.record(rawBytes, metered.bytes, compressionNanos, metered.nanos);
+	}
+
 	/**
 	 * Uploads the provided binary data as file to the mirror.
 	 *
@@ -205,7 +671,7 @@ public class StaticResourceUploader {
 		if (urlBasePath == null) {
 			throw new IllegalArgumentException("'urlBasePath' mustn't be null!");
 		}
-		return uploadResource(() -> new ByteArrayInputStream(bytes), urlBasePath);
+		return uploadResource(() -> new ByteArrayInputStream(bytes), bytes.length, urlBasePath, null);
 	}
 
 	/**
@@ -216,7 +682,6 @@ public class StaticResourceUploader {
 	 * @return Path on the mirror's webserver under which the resource is available.
 	 * @throws IOException Thrown if connecting or transferring data from/to mirror fails.
 	 * @throws IllegalArgumentException Thrown if any parameter is {@code null}.
-	 * @throws MalformedURLException Thrown if file path can't be transformed into an url.
 	 */
 
 	public String uploadResource( final File file,  final String urlBasePath)
@@ -227,7 +692,7 @@ public class StaticResourceUploader {
 		if (urlBasePath == null) {
 			throw new IllegalArgumentException("'urlBasePath' mustn't be null!");
 		}
-		return uploadResource(() -> file.toURI().toURL().openStream(), urlBasePath);
+		return uploadResource(() -> new FileInputStream(file), file.length(), urlBasePath, null);
 	}
 
 	/**
@@ -258,11 +723,11 @@ public class StaticResourceUploader {
 	 * @param urlBasePath Target path on the webserver relative to the app's base directory.
 	 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view.
 	 * @return Path on the mirror's webserver under which the resource is available.
-	 * @throws IOException Thrown if connecting or transferring data from/to mirror fails.
+	 * @throws UploadException Thrown if the resource can't be read, the mirror rejects it or it couldn't be transferred within the retry budget.
 	 * @throws IllegalArgumentException Thrown if inputStreamSupplier or urlBasePath is {@code null}.
 	 */
 
-	public synchronized String uploadResource( final InputStreamSupplier inputStreamSupplier, final String urlBasePath,
+	public String uploadResource( final InputStreamSupplier inputStreamSupplier, final String urlBasePath,
 			 final ResourceRegistrationConfig registrationConfig)
 			throws IOException {
 		if (inputStreamSupplier == null) {
@@ -271,25 +736,662 @@ public class StaticResourceUploader {
 		if (urlBasePath == null) {
 			throw new IllegalArgumentException("'urlBasePath' mustn't be null!");
 		}
-		if (registrationConfig != null) {
-			this.builder.setAppViewId(registrationConfig.getViewId());
-			this.builder.setIcon(registrationConfig.isIcon());
-			this.builder.setMainPage(registrationConfig.isMainPage());
+		return uploadResource(inputStreamSupplier, UNKNOWN_CONTENT_LENGTH, urlBasePath, registrationConfig);
+	}
+
+	private String uploadResource(final InputStreamSupplier inputStreamSupplier, final long contentLength, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig)
+			throws UploadException {
+		try {
+			return uploadDirectly(inputStreamSupplier, contentLength, urlBasePath, registrationConfig);
+		} catch (final UploadException e) {
+			final OfflineUploadQueue queue = this.offlineQueue;
+			if (queue != null && (e.getReason() == UploadException.Reason.UNREACHABLE || e.getReason() == UploadException.Reason.TIMED_OUT)) {
+				try {
+					queue.enqueueUpload(inputStreamSupplier, urlBasePath, registrationConfig == null ? null : registrationConfig.getViewId(),
+							registrationConfig != null && registrationConfig.isMainPage(), registrationConfig != null && registrationConfig.isIcon(),
+							this.offlineTtlMillis);
+				} catch (final IOException | RuntimeException queueFailure) {
+					e.addSuppressed(queueFailure);
+				}
+			}
+			throw e;
 		}
-		else {
-			this.builder.setAppViewId(null);
-			this.builder.setIcon(false);
-			this.builder.setMainPage(false);
+	}
+
+	private String uploadDirectly(final InputStreamSupplier inputStreamSupplier, final long contentLength, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig)
+			throws UploadException {
+		try {
+			return uploadIfChanged(inputStreamSupplier, contentLength, urlBasePath, registrationConfig);
+		} catch (final UploadException e) {
+			throw e;
+		} catch (final IOException | RuntimeException e) {
+			throw new UploadException(UploadException.Reason.INTERNAL_ERROR, "Failed to upload '" + urlBasePath + "'", 1, 0, e);
+		}
+	}
+
+	/**
+	 * Uploads an entry of the offline queue, without queueing it again if the mirror is still unreachable.
+	 */
+	String uploadQueued(final OfflineUploadQueue.Entry entry)
+			throws UploadException {
+		final ResourceRegistrationConfig registrationConfig = entry.getViewId() == null ? null
+				: new ResourceRegistrationConfig(entry.getViewId(), entry.isMainPage(), entry.isIcon());
+		return uploadDirectly(entry.getContent(), entry.getContentLength(), entry.getPath(), registrationConfig);
+	}
+
+	/**
+	 * Uploads all provided resources to the mirror. Up to {@value #MAX_PARALLEL_UPLOADS} uploads run in parallel, the method returns after all uploads
+	 * finished.
+	 *
+	 * @param jobs Resources to upload.
+	 * @return One result per job in the iteration order of {@code jobs}, failed uploads are reported by {@link UploadResult#getError()}.
+	 * @throws InterruptedException Thrown if the calling thread is interrupted while waiting for the uploads, pending uploads are cancelled.
+	 * @throws IllegalArgumentException Thrown if jobs is {@code null} or contains {@code null}.
+	 */
+	public List<UploadResult> uploadAll(final Collection<UploadJob> jobs)
+			throws InterruptedException {
+		if (jobs == null) {
+			throw new IllegalArgumentException("'jobs' mustn't be null!");
+		}
+		if (jobs.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<Future<String>> futures = new ArrayList<>(jobs.size());
+		for (final UploadJob job : jobs) {
+			if (job == null) {
+				throw new IllegalArgumentException("'jobs' mustn't contain null!");
+			}
+		}
+		try {
+			for (final UploadJob job : jobs) {
+				futures.add(this.uploadExecutor.submit(
+						() -> uploadResource(job.getInputStreamSupplier(), job.getContentLength(), job.getUrlBasePath(), job.getRegistrationConfig())));
+			}
+			final List<UploadResult> results = new ArrayList<>(jobs.size());
+			int index = 0;
+			for (final UploadJob job : jobs) {
+				try {
+					results.add(new UploadResult(job, futures.get(index++).get(), null));
+				} catch (final ExecutionException e) {
+					results.add(new UploadResult(job, null, e.getCause() instanceof UploadException ? (UploadException) e.getCause()
+							: new UploadException(UploadException.Reason.INTERNAL_ERROR, "Failed to upload '" + job.getUrlBasePath() + "'", 1, 0, e.getCause())));
+				}
+			}
+			return results;
+		} catch (final InterruptedException e) {
+			for (final Future<String> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Uploads the provided binary data as file to the mirror without blocking the calling thread. The upload runs on this uploader's I/O threads, which
+	 * are shared with {@link #uploadAll(Collection)}.
+	 *
+	 * @param inputStreamSupplier Provides the input stream to upload.
+	 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+	 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view, may be {@code null}.
+	 * @return Future completed with the path on the mirror's webserver or with an {@link UploadException}. Cancelling the future interrupts a running
+	 *         upload between attempts.
+	 * @throws IllegalArgumentException Thrown if inputStreamSupplier or urlBasePath is {@code null}.
+	 */
+	public CompletableFuture<String> uploadResourceAsync(final InputStreamSupplier inputStreamSupplier, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig) {
+		return uploadResourceAsync(new UploadJob(inputStreamSupplier, urlBasePath, registrationConfig), 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Uploads the provided binary data as file to the mirror without blocking the calling thread and gives up after a timeout.
+	 *
+	 * @param inputStreamSupplier Provides the input stream to upload.
+	 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+	 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view, may be {@code null}.
+	 * @param timeout time after which the future fails with {@link UploadException.Reason#TIMED_OUT}, {@code 0} to wait without limit
+	 * @param unit unit of the timeout
+	 * @return Future completed with the path on the mirror's webserver or with an {@link UploadException}.
+	 * @throws IllegalArgumentException Thrown if inputStreamSupplier, urlBasePath or unit is {@code null}.
+	 */
+	public CompletableFuture<String> uploadResourceAsync(final InputStreamSupplier inputStreamSupplier, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig, final long timeout, final TimeUnit unit) {
+		return uploadResourceAsync(new UploadJob(inputStreamSupplier, urlBasePath, registrationConfig), timeout, unit);
+	}
+
+	/**
+	 * Uploads all provided resources without blocking the calling thread, e.g. to register a view once all of its resources are available.
+	 *
+	 * @param jobs Resources to upload.
+	 * @return Future completed with one result per job in the iteration order of {@code jobs} once all uploads finished, it never completes exceptionally
+	 *         because failed uploads are reported by {@link UploadResult#getError()}.
+	 * @throws IllegalArgumentException Thrown if jobs is {@code null} or contains {@code null}.
+	 */
+	public CompletableFuture<List<UploadResult>> uploadAllAsync(final Collection<UploadJob> jobs) {
+		if (jobs == null) {
+			throw new IllegalArgumentException("'jobs' mustn't be null!");
+		}
+		final List<CompletableFuture<UploadResult>> futures = new ArrayList<>(jobs.size());
+		for (final UploadJob job : jobs) {
+			if (job == null) {
+				throw new IllegalArgumentException("'jobs' mustn't contain null!");
+			}
+			futures.add(uploadResourceAsync(job, 0, TimeUnit.MILLISECONDS)
+					.handle((path, error) -> new UploadResult(job, error == null ? path : null, error == null ? null : toUploadException(job, error))));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(done -> {
+			final List<UploadResult> results = new ArrayList<>(futures.size());
+			for (final CompletableFuture<UploadResult> future : futures) {
+				results.add(future.join());
+			}
+			return results;
+		});
+	}
+
+	private CompletableFuture<String> uploadResourceAsync(final UploadJob job, final long timeout, final TimeUnit unit) {
+		if (unit == null) {
+			throw new IllegalArgumentException("'unit' mustn't be null!");
+		}
+		return submit(() -> uploadResource(job.getInputStreamSupplier(), job.getContentLength(), job.getUrlBasePath(), job.getRegistrationConfig()),
+				job.getUrlBasePath(), unit.toMillis(timeout));
+	}
+
+	/**
+	 * Runs an upload on the I/O threads. Cancellation and timeouts of the returned future are forwarded to the running task.
+	 */
+	private CompletableFuture<String> submit(final Callable<String> upload, final String urlBasePath, final long timeoutMillis) {
+		final CompletableFuture<String> result = new CompletableFuture<>();
+		final Future<?> task = this.uploadExecutor.submit(() -> {
+			try {
+				result.complete(upload.call());
+			} catch (final Throwable throwable) {
+				result.completeExceptionally(throwable);
+			}
+		});
+		result.whenComplete((path, error) -> {
+			if (error instanceof CancellationException
+					|| error instanceof UploadException && ((UploadException) error).getReason() == UploadException.Reason.TIMED_OUT) {
+				task.cancel(true);
+			}
+		});
+		if (timeoutMillis > 0) {
+			final ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> result.completeExceptionally(new UploadException(UploadException.Reason.TIMED_OUT,
+					"Upload of '" + urlBasePath + "' didn't finish within " + timeoutMillis + " ms", 0, 0, null)), timeoutMillis, TimeUnit.MILLISECONDS);
+			result.whenComplete((path, error) -> timeout.cancel(false));
+		}
+		return result;
+	}
+
+	private static UploadException toUploadException(final UploadJob job, final Throwable error) {
+		final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		if (cause instanceof UploadException) {
+			return (UploadException) cause;
+		}
+		if (cause instanceof CancellationException) {
+			return new UploadException(UploadException.Reason.CANCELLED, "Upload of '" + job.getUrlBasePath() + "' was cancelled", 0, 0, cause);
+		}
+		return new UploadException(UploadException.Reason.INTERNAL_ERROR, "Failed to upload '" + job.getUrlBasePath() + "'", 0, 0, cause);
+	}
+
+	private static ScheduledThreadPoolExecutor createTimeoutExecutor() {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			final Thread thread = new Thread(runnable, "mirror-upload-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	/**
+	 * Uploads all provided resources as a single zip archive in one request. The archive is streamed while it is written, resources are read one after
+	 * another and never held in memory as a whole. Resources already known to the {@link #setUploadManifest(UploadManifest) upload manifest} are not part of
+	 * the bundle.
+	 *
+	 * @param jobs Resources to upload.
+	 * @return One result per job in the iteration order of {@code jobs}, resources that couldn't be read or were rejected by the mirror are reported by
+	 *         {@link UploadResult#getError()}.
+	 * @throws IOException Thrown if connecting or transferring the bundle from/to mirror fails.
+	 * @throws IllegalArgumentException Thrown if jobs is {@code null} or contains {@code null}.
+	 */
+	public List<UploadResult> uploadBundle(final Collection<UploadJob> jobs)
+			throws IOException {
+		if (jobs == null) {
+			throw new IllegalArgumentException("'jobs' mustn't be null!");
+		}
+		final List<UploadJob> jobList = new ArrayList<>(jobs);
+		if (jobList.contains(null)) {
+			throw new IllegalArgumentException("'jobs' mustn't contain null!");
+		}
+		final int count = jobList.size();
+		final String[] paths = new String[count];
+		final UploadException[] errors = new UploadException[count];
+		final String[] hashes = new String[count];
+		final UploadManifest manifest = this.uploadManifest;
+		final List<Integer> pending = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final UploadJob job = jobList.get(i);
+			if (manifest != null) {
+				try {
+					hashes[i] = UploadManifest.hash(job.getInputStreamSupplier());
+				} catch (final IOException e) {
+					errors[i] = new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "Failed to read '" + job.getUrlBasePath() + "'", 1, 0, e);
+					continue;
+				}
+				paths[i] = manifest.getUploadedPath(this.mirrorApiUrl, this.appId, this.userId, job.getUrlBasePath(), hashes[i]);
+			}
+			if (paths[i] == null) {
+				pending.add(i);
+			}
+		}
+		List<Integer> bundled = Collections.emptyList();
+		while (!pending.isEmpty()) {
+			try {
+				bundled = writeBundle(jobList, pending, errors, paths);
+				break;
+			} catch (final BrokenEntryException e) {
+				// the request was dropped with the half written entry, the others are sent again without it
+				errors[e.index] = e.error;
+				pending.remove(Integer.valueOf(e.index));
+			}
+		}
+		for (final int index : bundled) {
+			if (paths[index] == null) {
+				errors[index] = new UploadException(UploadException.Reason.REJECTED, "Mirror rejected '" + jobList.get(index).getUrlBasePath() + "'", 1, 0,
+						null);
+			}
+			else if (manifest != null) {
+				manifest.putUploadedPath(this.mirrorApiUrl, this.appId, this.userId, jobList.get(index).getUrlBasePath(), hashes[index], paths[index]);
+			}
+		}
+		final List<UploadResult> results = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			results.add(new UploadResult(jobList.get(i), errors[i] == null ? paths[i] : null, errors[i]));
+		}
+		return results;
+	}
+
+	/**
+	 * Streams the pending jobs as zip archive to the mirror and stores the returned paths in the jobs' slot of {@code paths}. A resource that can't be opened
+	 * gets an error and is left out before its entry is started. If reading a resource fails within its entry, the entry can't be taken back: the
+	 * connection is dropped without finishing the request, so the mirror discards the whole bundle.
+	 *
+	 * @return indices of the jobs that were part of the bundle, jobs whose resource couldn't be opened got an error instead
+	 * @throws BrokenEntryException Thrown if reading a resource failed within its entry, the bundle wasn't sent.
+	 */
+	private List<Integer> writeBundle(final List<UploadJob> jobs, final List<Integer> pending, final UploadException[] errors, final String[] paths)
+			throws IOException {
+		final List<Integer> bundled = new ArrayList<>(pending.size());
+		final HttpURLConnection connection = this.target.forBundle().create();
+		setTimeouts(connection, this.retryPolicy.getAttemptTimeoutMillis());
+		if (!this.persistentConnections) {
+			connection.setRequestProperty("Connection", "close");
+		}
+		connection.setChunkedStreamingMode(COPY_BUFFER_SIZE);
+		final byte[] buffer = COPY_BUFFERS.acquire();
+		boolean reusable = false;
+		try {
+			// not closed on failure, closing would complete the request
+			final ZipOutputStream zip = new ZipOutputStream(connection.getOutputStream());
+			final StringBuilder bundleManifest = new StringBuilder();
+			for (final int index : pending) {
+				final UploadJob job = jobs.get(index);
+				final InputStream inputStream;
+				try {
+					inputStream = open(job.getInputStreamSupplier());
+				} catch (final UploadException e) {
+					errors[index] = new UploadException(e.getReason(), e.getMessage() + " '" + job.getUrlBasePath() + "'", 1, 0, e.getCause());
+					continue;
+				}
+				try {
+					zip.setLevel(CompressionPolicy.isCompressible(job.getUrlBasePath()) ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+					zip.putNextEntry(new ZipEntry(job.getUrlBasePath()));
+					copyEntry(index, job, inputStream, zip, buffer);
+					zip.closeEntry();
+				}
+				finally {
+					closeQuietly(inputStream);
+				}
+				final ResourceRegistrationConfig config = job.getRegistrationConfig();
+				bundleManifest.append(encode(job.getUrlBasePath())).append('\t')
+						.append(config != null ? encode(config.getViewId()) : "").append('\t')
+						.append(config != null && config.isMainPage()).append('\t')
+						.append(config != null && config.isIcon()).append('\n');
+				bundled.add(index);
+			}
+			zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+			zip.putNextEntry(new ZipEntry(BUNDLE_MANIFEST_ENTRY));
+			final Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+			writer.write(bundleManifest.toString());
+			writer.flush();
+			zip.closeEntry();
+			zip.close();
+			checkResponseCode(connection);
+			try (final InputStream responseStream = connection.getInputStream()) {
+				final BufferedReader in = new BufferedReader(new InputStreamReader(responseStream, StandardCharsets.UTF_8));
+				for (final int index : bundled) {
+					final String line = in.readLine();
+					paths[index] = line == null || line.isEmpty() ? null : line;
+				}
+				drain(in);
+				reusable = true;
+			}
+			return bundled;
+		}
+		finally {
+			COPY_BUFFERS.release(buffer);
+			if (!this.persistentConnections || !reusable) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Copies a resource into its bundle entry. Failures reading the resource are told apart from failures writing to the mirror.
+	 */
+	private static void copyEntry(final int index, final UploadJob job, final InputStream inputStream, final OutputStream zip, final byte[] buffer)
+			throws IOException {
+		while (true) {
+			final int read;
+			try {
+				read = inputStream.read(buffer);
+			} catch (final IOException e) {
+				throw new BrokenEntryException(index, new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "Failed to read '" + job.getUrlBasePath()
+						+ "'", 1, 0, e));
+			}
+			if (read == -1) {
+				return;
+			}
+			zip.write(buffer, 0, read);
+		}
+	}
+
+	private static void closeQuietly(final InputStream inputStream) {
+		try {
+			inputStream.close();
+		} catch (final IOException e) {
+			// the resource was read, the upload doesn't depend on closing it
+		}
+	}
+
+	/**
+	 * Thrown if reading a resource failed after its bundle entry was started.
+	 */
+	private static final class BrokenEntryException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int index;
+
+		private final UploadException error;
+
+		BrokenEntryException(final int index, final UploadException error) {
+			super(error.getMessage(), error);
+			this.index = index;
+			this.error = error;
+		}
+	}
+
+	private static String encode(final String value)
+			throws IOException {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * Sets the manifest used to skip uploads of resources that are already available on the mirror with the same content.
+	 *
+	 * @param manifest manifest to use or {@code null} to always upload resources
+	 */
+	public void setUploadManifest(final UploadManifest manifest) {
+		this.uploadManifest = manifest;
+	}
+
+	/**
+	 * Sets the policy deciding which resources are sent gzip compressed. Uploads aren't compressed by default, a policy should only be set for mirrors that
+	 * announced to accept bodies with {@code Content-Encoding: gzip}. If the mirror still answers a compressed upload with status 415 or 400, the upload is
+	 * sent again as it is and compression stays off until a policy is set again.
+	 *
+	 * @param policy policy to use or {@code null} to never compress uploads
+	 */
+	public void setCompressionPolicy(final CompressionPolicy policy) {
+		this.compressionPolicy = policy;
+		this.compressionRejected = false;
+	}
+
+	/**
+	 * Sets the policy deciding how often and when failed uploads are retried.
+	 *
+	 * @param policy policy to use, {@link RetryPolicy#NONE} to never retry
+	 * @throws IllegalArgumentException Thrown if policy is {@code null}.
+	 */
+	public void setRetryPolicy(final RetryPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("'policy' mustn't be null!");
+		}
+		this.retryPolicy = policy;
+	}
+
+	/**
+	 * Enables or disables persistent connections, enabled by default. With persistent connections responses are read completely and the connection is
+	 * handed back to the keep-alive pool of {@link HttpURLConnection}, so subsequent uploads to the same mirror skip the TCP setup. The pool holds up to
+	 * {@code http.maxConnections} idle connections per mirror, see {@link #configureConnectionPool(int, long)}. Without persistent connections every
+	 * connection is closed after its upload.
+	 *
+	 * @param persistentConnections {@code true} to reuse connections
+	 */
+	public void setPersistentConnections(final boolean persistentConnections) {
+		this.persistentConnections = persistentConnections;
+	}
+
+	/**
+	 * Configures the keep-alive pool of {@link HttpURLConnection} shared by all uploaders. The pool reads its configuration once, so this has to be called
+	 * before the first connection is opened. Idle connections are closed by the pool after {@code keepAliveMillis}, which has to be shorter than the time
+	 * after which the mirrors close them; an upload on a connection the mirror closed in the meantime fails and is retried according to the retry policy.
+	 *
+	 * @param maxConnections maximum number of idle connections kept per mirror
+	 * @param keepAliveMillis time an idle connection is kept
+	 */
+	public static void configureConnectionPool(final int maxConnections, final long keepAliveMillis) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("'maxConnections' must be positive!");
+		}
+		if (keepAliveMillis <= 0) {
+			throw new IllegalArgumentException("'keepAliveMillis' must be positive!");
+		}
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+		System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveMillis));
+	}
+
+	/**
+	 * Sets the queue that keeps uploads which failed because the mirror was unreachable or didn't answer in time. The upload still fails with an
+	 * {@link UploadException}, the queued copy is delivered by {@link OfflineUploadQueue#flush(OfflineUploadQueue.Sender, int, long)} once the mirror is
+	 * reachable again.
+	 *
+	 * @param queue queue to use or {@code null} to not queue failed uploads
+	 * @param ttlMillis time after which a queued upload is dropped
+	 */
+	public void setOfflineQueue(final OfflineUploadQueue queue, final long ttlMillis) {
+		if (queue != null && ttlMillis <= 0) {
+			throw new IllegalArgumentException("'ttlMillis' must be positive!");
 		}
-		this.builder.setRelativeUrlFilePath(urlBasePath);
+		this.offlineTtlMillis = ttlMillis;
+		this.offlineQueue = queue;
+	}
+
+	/**
+	 * Forgets which resources have been uploaded to the mirror, so all of them are uploaded again. Has to be called when the mirror reports that its
+	 * resources have been wiped.
+	 *
+	 * @throws IOException Thrown if the upload manifest can't be written.
+	 */
+	public void invalidateUploadedResources()
+			throws IOException {
+		final UploadManifest manifest = this.uploadManifest;
+		if (manifest != null) {
+			manifest.invalidate(this.mirrorApiUrl);
+		}
+	}
+
+	/**
+	 * Uploads a resource unless the upload manifest knows that the mirror already has the same content under that path.
+	 */
+	private String uploadIfChanged(final InputStreamSupplier inputStreamSupplier, final long contentLength, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig)
+			throws IOException {
+		final UploadManifest manifest = this.uploadManifest;
+		if (manifest == null) {
+			return upload(inputStreamSupplier, contentLength, urlBasePath, registrationConfig);
+		}
+		final String hash;
+		try {
+			hash = UploadManifest.hash(inputStreamSupplier);
+		} catch (final IOException e) {
+			throw new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "Failed to read '" + urlBasePath + "'", 0, 0, e);
+		}
+		final String uploadedPath = manifest.getUploadedPath(this.mirrorApiUrl, this.appId, this.userId, urlBasePath, hash);
+		if (uploadedPath != null) {
+			return uploadedPath;
+		}
+		final String path = upload(inputStreamSupplier, contentLength, urlBasePath, registrationConfig);
+		if (path != null) {
+			manifest.putUploadedPath(this.mirrorApiUrl, this.appId, this.userId, urlBasePath, hash, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Uploads a resource, retrying failed attempts according to the retry policy. A retry asks the mirror how many bytes it already received and only sends
+	 * the rest. The mirror counts the bytes of the body it received, which for a gzipped body are compressed bytes that don't map to an offset in the
+	 * resource; compressed uploads therefore start over as a new upload.
+	 */
+	private String upload(final InputStreamSupplier inputStreamSupplier, final long contentLength, final String urlBasePath,
+			final ResourceRegistrationConfig registrationConfig)
+			throws UploadException {
+		final CompressionPolicy policy = this.compressionPolicy;
+		boolean compress = policy != null && !this.compressionRejected && policy.shouldCompress(urlBasePath, contentLength);
+		final RetryPolicy retry = this.retryPolicy;
+		final boolean keepAlive = this.persistentConnections;
+		String uploadId = UUID.randomUUID().toString();
+		final long start = System.currentTimeMillis();
+		long offset = 0;
+		int attempts = 0;
+		while (true) {
+			attempts++;
+			final long resumeOffset = offset;
+			try {
+				final InputStreamSupplier remainder = resumeOffset == 0 ? inputStreamSupplier : () -> skip(inputStreamSupplier.get(), resumeOffset);
+				final long remainingLength = contentLength >= 0 ? contentLength - resumeOffset : UNKNOWN_CONTENT_LENGTH;
+				return upload(remainder, remainingLength, createConnectionFactory(urlBasePath, registrationConfig, uploadId, resumeOffset),
+						compress ? policy : null, keepAlive, retry.getAttemptTimeoutMillis());
+			} catch (final CompressionRejectedException e) {
+				// the mirror doesn't accept compressed bodies, send the resource as it is right away
+				this.compressionRejected = true;
+				compress = false;
+				uploadId = UUID.randomUUID().toString();
+			} catch (final UploadException e) {
+				throw new UploadException(e.getReason(), e.getMessage() + " '" + urlBasePath + "'", attempts, offset, e.getCause());
+			} catch (final IOException e) {
+				// includes timeouts, the mirror may just be busy
+				final long delay = retry.nextDelayMillis(attempts);
+				if (!retry.shouldRetry(attempts, System.currentTimeMillis() - start, delay)) {
+					throw new UploadException(UploadException.Reason.UNREACHABLE, "Failed to upload '" + urlBasePath + "'", attempts, offset, e);
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (final InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new UploadException(UploadException.Reason.INTERRUPTED, "Interrupted uploading '" + urlBasePath + "'", attempts, offset, e);
+				}
+				if (compress) {
+					uploadId = UUID.randomUUID().toString();
+				}
+				else {
+					offset = queryConfirmedOffset(uploadId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Asks the mirror how many bytes of an interrupted upload it has stored.
+	 *
+	 * @return confirmed number of bytes, {@code 0} if the mirror doesn't know the upload or doesn't support resuming
+	 */
+	private long queryConfirmedOffset(final String uploadId) {
 		try {
-			return upload(inputStreamSupplier, this.builder.build());
-		} catch (Throwable throwable) {
-			throwable.printStackTrace();
-			return null;
+			final String line = requestStatus(uploadId);
+			return line != null ? Math.max(0, Long.parseLong(line.trim())) : 0;
+		} catch (final IOException | NumberFormatException e) {
+			return 0;
 		}
 	}
 
+	/**
+	 * Requests the status of an upload from the mirror.
+	 *
+	 * @return first line of the response or {@code null} if the mirror didn't answer with status 200
+	 */
+	private String requestStatus(final String uploadId)
+			throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) this.target.statusUrl(uploadId).openConnection();
+		setTimeouts(connection, this.retryPolicy.getAttemptTimeoutMillis());
+		if (!this.persistentConnections) {
+			connection.setRequestProperty("Connection", "close");
+		}
+		boolean reusable = false;
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				return null;
+			}
+			try (final BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+				final String line = in.readLine();
+				drain(in);
+				reusable = true;
+				return line;
+			}
+		}
+		finally {
+			if (!this.persistentConnections || !reusable) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private static InputStream skip(final InputStream inputStream, final long count)
+			throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			final long skipped = inputStream.skip(remaining);
+			if (skipped <= 0) {
+				if (inputStream.read() == -1) {
+					inputStream.close();
+					throw new IOException("Resource is shorter than the confirmed offset");
+				}
+				remaining--;
+			}
+			else {
+				remaining -= skipped;
+			}
+		}
+		return inputStream;
+	}
+
+	/**
+	 * Creates a connection factory for a single upload. Each upload gets its own factory, so uploads don't share any mutable state.
+	 */
+	private UploadConnectionFactory createConnectionFactory(final String urlBasePath, final ResourceRegistrationConfig registrationConfig,
+			final String uploadId, final long offset)
+			throws IOException {
+		if (registrationConfig != null) {
+			return this.target.forFile(urlBasePath, registrationConfig.getViewId(), registrationConfig.isMainPage(), registrationConfig.isIcon(), uploadId,
+					offset);
+		}
+		return this.target.forFile(urlBasePath, null, false, false, uploadId, offset);
+	}
+
+
 	/**
 	 * Uploads the provided resource file to the mirror.
 	 *
@@ -12,6 +12,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 
@@ -23,6 +25,144 @@ import java.util.Optional;
  */
 public final class URLConnectionFactory implements UploadConnectionFactory {
 
+	/**
+	 * Immutable upload destination of an app and user on a mirror. The mirror, app and user part of the upload urls is encoded once, file paths and view
+	 * ids are encoded through a bounded cache, so creating connection factories for many files doesn't repeat the encoding work. Instances are thread-safe
+	 * and can be shared by concurrent uploads, unlike {@link Builder}.
+	 *
+	 * @since 17.07
+	 */
+	public static final class UploadTarget {
+
+		/** Maximum number of encoded file paths and view ids kept */
+		private static final int ENCODING_CACHE_SIZE = 256;
+
+		private final String uploadPrefix;
+
+		private final String statusPrefix;
+
+		private final URL bundleUrl;
+
+		private final String dataPrefix;
+
+		private final Map<String, String> encodingCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+				return size() > ENCODING_CACHE_SIZE;
+			}
+		};
+
+		/**
+		 * @param mirrorApiUrl api url of the mirror
+		 * @param appId identifier of the app
+		 * @param userId identifier of the user
+		 * @throws MalformedURLException Thrown if mirrorApiUrl is malformed.
+		 * @throws IllegalArgumentException Thrown if any parameter is {@code null}.
+		 */
+		public UploadTarget( final String mirrorApiUrl, final String appId, final String userId)
+				throws MalformedURLException {
+			if (mirrorApiUrl == null) {
+				throw new IllegalArgumentException("'mirrorApiUrl' must not be null");
+			}
+			if (appId == null) {
+				throw new IllegalArgumentException("'appId' must not be null");
+			}
+			if (userId == null) {
+				throw new IllegalArgumentException("'userId' must not be null");
+			}
+			new URL(mirrorApiUrl);
+			final String parameters = "?appId=" + encode(appId) + "&userId=" + encode(userId);
+			this.uploadPrefix = mirrorApiUrl + "/staticResourceUpload" + parameters + "&filePath=";
+			this.statusPrefix = mirrorApiUrl + "/staticResourceUploadStatus" + parameters + "&uploadId=";
+			this.bundleUrl = new URL(mirrorApiUrl + "/staticResourceBundleUpload" + parameters);
+			this.dataPrefix = mirrorApiUrl + "/viewData" + parameters + "&appViewId=";
+		}
+
+		/**
+		 * Creates the connection factory for the upload of a single file.
+		 *
+		 * @param relativeUrlFilePath target path on the webserver relative to the app's base directory
+		 * @param appViewId id of the view if the file is its main page or icon, may be {@code null}
+		 * @param isMainPage {@code true} if the file is the main page of the view
+		 * @param isIcon {@code true} if the file is the icon of the view
+		 * @param uploadId url-safe identifier of a resumable upload or {@code null}
+		 * @param offset position in the resource at which the body of a resumable upload starts
+		 * @return connection factory for the upload
+		 * @throws MalformedURLException Thrown if the resulting upload url is malformed.
+		 * @throws IllegalArgumentException Thrown if relativeUrlFilePath is {@code null}.
+		 */
+		public UploadConnectionFactory forFile( final String relativeUrlFilePath, final String appViewId, final boolean isMainPage,
+				final boolean isIcon, final String uploadId, final long offset)
+				throws MalformedURLException {
+			if (relativeUrlFilePath == null) {
+				throw new IllegalArgumentException("'relativeUrlFilePath' must not be null");
+			}
+			final String encodedPath = encodeCached(relativeUrlFilePath);
+			final String encodedViewId = appViewId == null ? "" : encodeCached(appViewId);
+			final StringBuilder url = new StringBuilder(this.uploadPrefix.length() + encodedPath.length() + encodedViewId.length() + 96);
+			url.append(this.uploadPrefix).append(encodedPath).append("&appViewId=").append(encodedViewId).append("&mainPage=").append(isMainPage)
+					.append("&icon=").append(isIcon);
+			if (uploadId != null) {
+				url.append("&uploadId=").append(uploadId).append("&offset=").append(offset);
+			}
+			return new URLConnectionFactory(new URL(url.toString()));
+		}
+
+		/**
+		 * @return connection factory for bundle uploads, see {@link Builder#setBundle(boolean)}
+		 */
+		public UploadConnectionFactory forBundle() {
+			return new URLConnectionFactory(this.bundleUrl);
+		}
+
+		/**
+		 * @param uploadId url-safe identifier of a resumable upload
+		 * @return url to request the number of bytes the mirror stored for the upload
+		 * @throws MalformedURLException Thrown if the resulting url is malformed.
+		 */
+		public URL statusUrl(final String uploadId)
+				throws MalformedURLException {
+			return new URL(this.statusPrefix + uploadId);
+		}
+
+		/**
+		 * @param appViewId id of the view the data is meant for
+		 * @return url of the data channel of the view, see {@link MirrorDataChannel}
+		 * @throws MalformedURLException Thrown if the resulting url is malformed.
+		 * @throws IllegalArgumentException Thrown if appViewId is {@code null}.
+		 */
+		public URL dataUrl(final String appViewId)
+				throws MalformedURLException {
+			if (appViewId == null) {
+				throw new IllegalArgumentException("'appViewId' must not be null");
+			}
+			return new URL(this.dataPrefix + encodeCached(appViewId));
+		}
+
+		private String encodeCached(final String value) {
+			synchronized (this.encodingCache) {
+				String encoded = this.encodingCache.get(value);
+				if (encoded == null) {
+					encoded = encode(value);
+					this.encodingCache.put(value, encoded);
+				}
+				return encoded;
+			}
+		}
+
+		private static String encode(final String value) {
+			try {
+				return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 encoding not supported, failed to encode URL parameter value",
+						e);
+			}
+		}
+	}
+
 	public static class Builder {
 
 
@@ -42,6 +182,12 @@ public final class URLConnectionFactory implements UploadConnectionFactory {
 
 		private Optional<String> appViewId = Optional.empty();
 
+		private boolean isBundle = false;
+
+		private Optional<String> uploadId = Optional.empty();
+
+		private long offset = 0;
+
 
 		public UploadConnectionFactory build() throws Throwable {
 			return new URLConnectionFactory(this);
@@ -87,6 +233,37 @@ public final class URLConnectionFactory implements UploadConnectionFactory {
 			this.isIcon = isIcon;
 		}
 
+		/**
+		 * Switches to a bundle upload, which transfers a zip archive of several resources in one request. File path, view id and the main page and icon
+		 * flags are taken from the bundle's manifest instead.
+		 */
+		public final void setBundle(final boolean isBundle) {
+			this.isBundle = isBundle;
+		}
+
+		/**
+		 * Makes the upload resumable. The mirror stores the received bytes under the upload id, so after a failure the upload can continue at the offset
+		 * the mirror confirmed.
+		 *
+		 * @param newUploadId identifier of the upload, the same for all attempts
+		 * @param newOffset position in the resource at which the body of this request starts
+		 */
+		public final void setResumable( final String newUploadId, final long newOffset) {
+			if (newUploadId == null) {
+				throw new IllegalArgumentException("'newUploadId' must not be null");
+			}
+			if (newOffset < 0) {
+				throw new IllegalArgumentException("'newOffset' mustn't be negative");
+			}
+			try {
+				this.uploadId = Optional.of(URLEncoder.encode(newUploadId, StandardCharsets.UTF_8.name()));
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 encoding not supported, failed to encode URL parameter value",
+						e);
+			}
+			this.offset = newOffset;
+		}
+
 		public final void setRelativeUrlFilePath( final String newFilePath) {
 			if (newFilePath == null) {
 				throw new IllegalArgumentException("'newFilePath' must not be null");
@@ -116,18 +293,30 @@ public final class URLConnectionFactory implements UploadConnectionFactory {
 
 	private final URL url;
 
+	private URLConnectionFactory( final URL url) {
+		this.url = url;
+	}
+
 	private URLConnectionFactory( final Builder builder) throws Throwable {
 		final String mirrorApiUrl = builder.mirrorApiUrl
 				.orElseThrow(() -> new IllegalStateException("mirror API URL not set"));
 		final String appId = builder.appId.orElseThrow(() -> new IllegalStateException("App ID not set"));
-		final String appViewId = builder.appViewId.orElse("");
 		final String userId = builder.userId.orElseThrow(() -> new IllegalStateException("User Id not set"));
-		final String relativeUrlFilePath = builder.relativeUrlFilePath
-				.orElseThrow(() -> new IllegalStateException("File path not set"));
 
-		final String urlString = String.format(
-				"%s/staticResourceUpload?appId=%s&appViewId=%s&userId=%s&filePath=%s&mainPage=%b&icon=%b", mirrorApiUrl,
-				appId, appViewId, userId, relativeUrlFilePath, builder.isMainPage, builder.isIcon);
+		final String urlString;
+		if (builder.isBundle) {
+			urlString = String.format("%s/staticResourceBundleUpload?appId=%s&userId=%s", mirrorApiUrl, appId, userId);
+		}
+		else {
+			final String appViewId = builder.appViewId.orElse("");
+			final String relativeUrlFilePath = builder.relativeUrlFilePath
+					.orElseThrow(() -> new IllegalStateException("File path not set"));
+			final String resumeParameters = builder.uploadId
+					.map(uploadId -> String.format("&uploadId=%s&offset=%d", uploadId, builder.offset)).orElse("");
+			urlString = String.format(
+					"%s/staticResourceUpload?appId=%s&appViewId=%s&userId=%s&filePath=%s&mainPage=%b&icon=%b%s", mirrorApiUrl,
+					appId, appViewId, userId, relativeUrlFilePath, builder.isMainPage, builder.isIcon, resumeParameters);
+		}
 
 		try {
 			this.url = new URL(urlString);
@@ -0,0 +1,69 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a resource couldn't be uploaded to a mirror, tells why and how far the upload got.
+ *
+ * @since 17.07
+ */
+public class UploadException extends IOException {
+
+	public enum Reason {
+
+		/** The resource couldn't be read, retrying doesn't help. */
+		SOURCE_UNAVAILABLE,
+
+		/** The mirror refused the upload with a client error status. */
+		REJECTED,
+
+		/** The mirror couldn't be reached or kept failing until the retry budget was used up. */
+		UNREACHABLE,
+
+		/** The uploading thread was interrupted while waiting for the next attempt. */
+		INTERRUPTED,
+
+		/** The upload didn't finish within the timeout of an asynchronous upload. */
+		TIMED_OUT,
+
+		/** The asynchronous upload was cancelled by the caller. */
+		CANCELLED,
+
+		/** The upload failed for an unexpected reason. */
+		INTERNAL_ERROR
+	}
+
+	private static final long serialVersionUID = 1L;
+
+	private final Reason reason;
+
+	private final int attempts;
+
+	private final long confirmedBytes;
+
+	/**
+	 * @param reason why the upload failed
+	 * @param message detail message
+	 * @param attempts number of attempts made
+	 * @param confirmedBytes number of bytes the mirror confirmed to have received before the upload was given up
+	 * @param cause error of the last attempt, may be {@code null}
+	 */
+	public UploadException(final Reason reason, final String message, final int attempts, final long confirmedBytes, final Throwable cause) {
+		super(message, cause);
+		this.reason = reason;
+		this.attempts = attempts;
+		this.confirmedBytes = confirmedBytes;
+	}
+
+	public Reason getReason() {
+		return this.reason;
+	}
+
+	public int getAttempts() {
+		return this.attempts;
+	}
+
+	public long getConfirmedBytes() {
+		return this.confirmedBytes;
+	}
+}
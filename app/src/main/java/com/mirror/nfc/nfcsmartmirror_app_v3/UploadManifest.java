@@ -0,0 +1,231 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the resources that have already been uploaded to mirrors. For every uploaded file the content hash and the path returned by the mirror
+ * are stored, so unchanged resources don't have to be transferred again. The least recently used entries are evicted once the configured capacity is
+ * exceeded.
+ *
+ * @since 17.07
+ */
+public final class UploadManifest {
+
+	private static final class UploadedResource {
+
+		private final String hash;
+
+		private final String path;
+
+		private UploadedResource(final String hash, final String path) {
+			this.hash = hash;
+			this.path = path;
+		}
+	}
+
+	/** Version of the file format, written as first value of the manifest file */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final char KEY_SEPARATOR = '\n';
+
+	private final File file;
+
+	private final LinkedHashMap<String, UploadedResource> entries;
+
+	/**
+	 * Creates a manifest that is persisted in the given file. Existing entries are loaded from the file.
+	 *
+	 * @param file file the manifest is stored in, created on the first change
+	 * @param maxEntries maximum number of entries kept, the least recently used entries are evicted first
+	 * @throws IOException Thrown if the existing manifest file can't be read.
+	 * @throws IllegalArgumentException Thrown if file is {@code null} or maxEntries is not positive.
+	 */
+	public UploadManifest(final File file, final int maxEntries)
+			throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("'file' mustn't be null!");
+		}
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("'maxEntries' must be positive!");
+		}
+		this.file = file;
+		this.entries = new LinkedHashMap<String, UploadedResource>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, UploadedResource> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		load();
+	}
+
+	/**
+	 * Returns the path of a previously uploaded resource if its content didn't change since then.
+	 *
+	 * @param mirrorApiUrl api url of the mirror
+	 * @param appId identifier of the app
+	 * @param userId identifier of the user
+	 * @param filePath path of the resource relative to the app's base directory
+	 * @param hash content hash of the resource as computed by {@link #hash(StaticResourceUploader.InputStreamSupplier)}
+	 * @return Path on the mirror's webserver or {@code null} if the resource has to be uploaded.
+	 */
+	public synchronized String getUploadedPath(final String mirrorApiUrl, final String appId, final String userId, final String filePath,
+			final String hash) {
+		final UploadedResource entry = this.entries.get(key(mirrorApiUrl, appId, userId, filePath));
+		return entry != null && entry.hash.equals(hash) ? entry.path : null;
+	}
+
+	/**
+	 * Records a successful upload.
+	 *
+	 * @param mirrorApiUrl api url of the mirror
+	 * @param appId identifier of the app
+	 * @param userId identifier of the user
+	 * @param filePath path of the resource relative to the app's base directory
+	 * @param hash content hash of the uploaded resource
+	 * @param path path on the mirror's webserver returned by the upload
+	 * @throws IOException Thrown if the manifest can't be written.
+	 */
+	public synchronized void putUploadedPath(final String mirrorApiUrl, final String appId, final String userId, final String filePath,
+			final String hash, final String path)
+			throws IOException {
+		this.entries.put(key(mirrorApiUrl, appId, userId, filePath), new UploadedResource(hash, path));
+		save();
+	}
+
+	/**
+	 * Forgets all uploads to a mirror. Has to be called when the mirror lost its uploaded resources, e.g. because it was reset.
+	 *
+	 * @param mirrorApiUrl api url of the mirror
+	 * @throws IOException Thrown if the manifest can't be written.
+	 */
+	public synchronized void invalidate(final String mirrorApiUrl)
+			throws IOException {
+		final String prefix = mirrorApiUrl + KEY_SEPARATOR;
+		boolean changed = false;
+		for (final Iterator<String> keys = this.entries.keySet().iterator(); keys.hasNext();) {
+			if (keys.next().startsWith(prefix)) {
+				keys.remove();
+				changed = true;
+			}
+		}
+		if (changed) {
+			save();
+		}
+	}
+
+	/**
+	 * Forgets all uploads to all mirrors.
+	 *
+	 * @throws IOException Thrown if the manifest can't be written.
+	 */
+	public synchronized void clear()
+			throws IOException {
+		this.entries.clear();
+		save();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Computes the content hash of a resource.
+	 *
+	 * @param inputStreamSupplier supplies the content, the stream is read completely and closed
+	 * @return hex encoded hash of the content
+	 * @throws IOException Thrown if the content can't be read.
+	 */
+	public static String hash(final StaticResourceUploader.InputStreamSupplier inputStreamSupplier)
+			throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(HASH_ALGORITHM + " not supported, failed to hash resource", e);
+		}
+		final byte[] buffer = new byte[8192];
+		try (final InputStream inputStream = inputStreamSupplier.get()) {
+			if (inputStream == null) {
+				throw new FileNotFoundException("Resource not found");
+			}
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		final byte[] hash = digest.digest();
+		final char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	private static String key(final String mirrorApiUrl, final String appId, final String userId, final String filePath) {
+		return mirrorApiUrl + KEY_SEPARATOR + appId + KEY_SEPARATOR + userId + KEY_SEPARATOR + filePath;
+	}
+
+	private void load()
+			throws IOException {
+		if (!this.file.isFile()) {
+			return;
+		}
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+			if (in.readInt() != FORMAT_VERSION) {
+				// written by an incompatible version, start over
+				return;
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String key = in.readUTF();
+				this.entries.put(key, new UploadedResource(in.readUTF(), in.readUTF()));
+			}
+		} catch (final EOFException e) {
+			// truncated file, keep what could be read
+		}
+	}
+
+	private void save()
+			throws IOException {
+		final File parent = this.file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory " + parent);
+		}
+		final File tempFile = new File(this.file.getPath() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(this.entries.size());
+			for (final Map.Entry<String, UploadedResource> entry : this.entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().hash);
+				out.writeUTF(entry.getValue().path);
+			}
+		}
+		if (!tempFile.renameTo(this.file)) {
+			throw new IOException("Failed to replace manifest file " + this.file);
+		}
+	}
+}
@@ -4,18 +4,1094 @@
 
 package com.mirror.nfc.nfcsmartmirror_app_v3;
 
-//import de.iolite.insys.mirror.api.IOLITEMirrorConstants;
-//import de.iolite.insys.mirror.api.StaticResourceUploader.InputStreamSupplier;
-//import de.iolite.insys.mirror.api.StaticResourceUploader.ResourceRegistrationConfig;
-
-//import javax.annotation.Nonnull;
-//import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Instances of this class can be added as observer to the device api. This way it will automatically detect connected mirrors and publish content on each of
  * them as soon as a mirror is available. The content to be added can be defined by the provided methods. The content always needs to be accessible, dynamic
  * content can be added by using static resources as templates and defining a set of replacements used to fill the templates.
+ * <p>
+ * Mirrors are reported by {@link #mirrorAvailable(String, String)} and {@link #mirrorLost(String)}, usually by the {@code MirrorDiscovery} of the app. Every
+ * mirror has its own uploader, data channel and upload manifest, and its patches are sent by a thread of its own: published content goes to all mirrors
+ * concurrently, a slow or failing mirror neither delays nor fails the publication on the others. Resources published before a mirror appeared are uploaded
+ * to it when it becomes available.
+ * <p>
+ * Views are added with {@link #addView(String, String, String)}. Their main pages are compiled templates (see {@link ViewTemplates}), the replacement values
+ * are set per slot and only compared when set; {@link #publishDirty()} renders and publishes the views whose values changed since their last publication.
  *
  * @author Hendrik Motza
  * @since 17.01
  */
+public class ViewRegistrator {
+
+	/** Identifier of the app on the mirrors */
+	public static final String APP_ID = "nfcsmartmirror";
+
+	/** Identifier of the user on the mirrors, the app is used by one user per phone */
+	public static final String USER_ID = "owner";
+
+	/** View showing the notifications, messages and calls of the {@link MirrorEventBus} as cards updated by patches */
+	public static final String VIEW_ID_FEED = "FeedView";
+
+	/** Maximum number of patch batches waiting for a mirror, further batches are dropped until the mirror caught up */
+	public static final int MAX_PENDING_PATCHES = 64;
+
+	/** Maximum number of journaled events sent to a mirror in one request while it catches up */
+	public static final int REPLAY_BATCH_SIZE = 64;
+
+	private static final int MANIFEST_ENTRIES = 256;
+
+	private static final AtomicInteger PATCH_THREAD_COUNT = new AtomicInteger();
+
+	private static final AtomicInteger FLUSH_THREAD_COUNT = new AtomicInteger();
+
+	private static ViewRegistrator instance;
+
+	/**
+	 * State of the publication on a single mirror.
+	 */
+	public static final class MirrorStatus {
+
+		private final String mirrorId;
+
+		private final String apiUrl;
+
+		private final long uploads;
+
+		private final long patches;
+
+		private final long failures;
+
+		private final long droppedPatches;
+
+		private final Throwable lastFailure;
+
+		MirrorStatus(final String mirrorId, final String apiUrl, final long uploads, final long patches, final long failures, final long droppedPatches,
+				final Throwable lastFailure) {
+			this.mirrorId = mirrorId;
+			this.apiUrl = apiUrl;
+			this.uploads = uploads;
+			this.patches = patches;
+			this.failures = failures;
+			this.droppedPatches = droppedPatches;
+			this.lastFailure = lastFailure;
+		}
+
+		public String getMirrorId() {
+			return this.mirrorId;
+		}
+
+		public String getApiUrl() {
+			return this.apiUrl;
+		}
+
+		/**
+		 * @return number of resources published to the mirror, including those skipped because the mirror already had them
+		 */
+		public long getUploadCount() {
+			return this.uploads;
+		}
+
+		/**
+		 * @return number of patch batches the mirror accepted
+		 */
+		public long getPatchCount() {
+			return this.patches;
+		}
+
+		/**
+		 * @return number of failed uploads and patch batches
+		 */
+		public long getFailureCount() {
+			return this.failures;
+		}
+
+		/**
+		 * @return number of patch batches dropped because the mirror didn't keep up
+		 */
+		public long getDroppedPatchCount() {
+			return this.droppedPatches;
+		}
+
+		/**
+		 * @return last failure or {@code null}
+		 */
+		public Throwable getLastFailure() {
+			return this.lastFailure;
+		}
+	}
+
+	/**
+	 * Resource published to all mirrors.
+	 */
+	private static final class Resource {
+
+		private final StaticResourceUploader.InputStreamSupplier supplier;
+
+		private final String path;
+
+		private final StaticResourceUploader.ResourceRegistrationConfig config;
+
+		Resource(final StaticResourceUploader.InputStreamSupplier supplier, final String path, final StaticResourceUploader.ResourceRegistrationConfig config) {
+			this.supplier = supplier;
+			this.path = path;
+			this.config = config;
+		}
+	}
+
+	/**
+	 * Connection to a single mirror.
+	 */
+	private final class Mirror {
+
+		private final String id;
+
+		private final String apiUrl;
+
+		private final StaticResourceUploader uploader;
+
+		private final MirrorDataChannel channel;
+
+		private final ThreadPoolExecutor patchExecutor;
+
+		/** {@code null} if failed uploads and patches aren't queued */
+		private final OfflineUploadQueue offlineQueue;
+
+		/** thread of the offline queue's flush, which pauses between batches and mustn't hold up the live patches; {@code null} without queue */
+		private final ThreadPoolExecutor flushExecutor;
+
+		private final AtomicLong uploads = new AtomicLong();
+
+		private final AtomicLong patches = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private final AtomicLong droppedPatches = new AtomicLong();
+
+		private volatile Throwable lastFailure;
+
+		/** last upload of each path still running, later uploads of the path wait for it */
+		private final Map<String, CompletableFuture<String>> lastUploads = new HashMap<>();
+
+		Mirror(final String id, final String apiUrl, final boolean acceptsGzip)
+				throws IOException {
+			this.id = id;
+			this.apiUrl = apiUrl;
+			this.uploader = new StaticResourceUploader(apiUrl, ViewRegistrator.this.appId, ViewRegistrator.this.userId);
+			if (acceptsGzip) {
+				this.uploader.setCompressionPolicy(new CompressionPolicy());
+			}
+			final File directory = ViewRegistrator.this.manifestDirectory;
+			if (directory != null) {
+				// one manifest per mirror, so a mirror that was reset only loses its own entries
+				this.uploader.setUploadManifest(new UploadManifest(new File(directory, fileName(id) + ".manifest"), MANIFEST_ENTRIES));
+			}
+			this.channel = new MirrorDataChannel(apiUrl, ViewRegistrator.this.appId, ViewRegistrator.this.userId);
+			// icons go through the uploader, so its manifest and offline queue cover them like any other resource
+			this.channel.setIconUploader(this.uploader);
+			// the page on the mirror skips patches whose version isn't newer than the last one it applied
+			final MirrorDataChannel previous = ViewRegistrator.this.channels.put(id, this.channel);
+			if (previous != null) {
+				this.channel.continueVersions(previous);
+			}
+			if (directory != null) {
+				this.channel.setVersionFile(new File(directory, fileName(id) + ".versions"));
+			}
+			final File queueDirectory = ViewRegistrator.this.offlineQueueDirectory;
+			if (queueDirectory != null) {
+				// one queue per mirror, its entries are only meant for this mirror
+				this.offlineQueue = new OfflineUploadQueue(new File(queueDirectory, fileName(id)), ViewRegistrator.this.offlineQueueBytes);
+				this.uploader.setOfflineQueue(this.offlineQueue, ViewRegistrator.this.offlineTtlMillis);
+				this.channel.setOfflineQueue(this.offlineQueue, ViewRegistrator.this.offlineTtlMillis);
+				this.flushExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+					final Thread thread = new Thread(runnable, "mirror-flush-" + FLUSH_THREAD_COUNT.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+				this.flushExecutor.allowCoreThreadTimeOut(true);
+			}
+			else {
+				this.offlineQueue = null;
+				this.flushExecutor = null;
+			}
+			// a single thread keeps the patches of a mirror in order
+			this.patchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_PENDING_PATCHES), runnable -> {
+				final Thread thread = new Thread(runnable, "mirror-patches-" + PATCH_THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.patchExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		/**
+		 * Uploads a resource once the previous upload of its path finished, so an older revision never overwrites a newer one on the mirror.
+		 */
+		CompletableFuture<String> upload(final Resource resource) {
+			if (this.offlineQueue != null) {
+				try {
+					// the current revision supersedes what was queued for the path
+					this.offlineQueue.removeUploads(Collections.singleton(resource.path));
+				} catch (final IOException e) {
+					failed(e);
+				}
+			}
+			final CompletableFuture<String> result = new CompletableFuture<>();
+			final CompletableFuture<String> previous;
+			synchronized (this.lastUploads) {
+				previous = this.lastUploads.put(resource.path, result);
+			}
+			final CompletableFuture<?> turn = previous == null ? CompletableFuture.completedFuture(null) : previous.handle((path, error) -> null);
+			turn.thenCompose(ignored -> this.uploader.uploadResourceAsync(resource.supplier, resource.path, resource.config)).whenComplete((path,
+					error) -> {
+				synchronized (this.lastUploads) {
+					this.lastUploads.remove(resource.path, result);
+				}
+				if (error == null) {
+					this.uploads.incrementAndGet();
+					result.complete(path);
+				}
+				else {
+					final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+					failed(cause);
+					result.completeExceptionally(cause);
+				}
+			});
+			return result;
+		}
+
+		CompletableFuture<Long> send(final PatchTask task) {
+			final CompletableFuture<Long> result = new CompletableFuture<>();
+			try {
+				this.patchExecutor.execute(() -> {
+					try {
+						final long version = task.send(this);
+						this.patches.incrementAndGet();
+						result.complete(version);
+					} catch (final IOException | RuntimeException e) {
+						failed(e);
+						result.completeExceptionally(e);
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				this.droppedPatches.incrementAndGet();
+				result.completeExceptionally(e);
+			}
+			return result;
+		}
+
+		/**
+		 * Delivers what was queued while the mirror was unreachable, in batches of the refresh rate limit. Runs on the mirror's flush thread, live patches
+		 * are sent in between.
+		 *
+		 * @param superseded paths whose queued uploads are dropped first, because their current revision is uploaded anyway
+		 * @return future completed once the flush ended, never completes exceptionally
+		 */
+		CompletableFuture<Void> flushOfflineQueue(final Collection<String> superseded) {
+			try {
+				return CompletableFuture.runAsync(() -> {
+					try {
+						this.offlineQueue.removeUploads(superseded);
+						this.offlineQueue.flush(OfflineUploadQueue.sender(this.uploader, this.channel), RefreshScheduler.DEFAULT_BURST,
+								RefreshScheduler.DEFAULT_REFILL_MILLIS);
+					} catch (final InterruptedException e) {
+						// the mirror was lost again, the entries not delivered stay queued
+						Thread.currentThread().interrupt();
+					} catch (final IOException | RuntimeException e) {
+						failed(e);
+					}
+				}, this.flushExecutor);
+			} catch (final RejectedExecutionException e) {
+				failed(e);
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+
+		/**
+		 * Sends the journaled events the mirror hasn't acknowledged yet, up to the given sequence number, and acknowledges each batch the mirror accepted.
+		 * Journaled snapshots are sent as snapshots, a new mirror starts with the latest one. Runs on the mirror's patch thread, so live patches queued
+		 * behind it don't overtake the replay.
+		 *
+		 * @return last version the mirror accepted for the view
+		 */
+		long replay(final EventJournal journal, final String viewId, final long last)
+				throws IOException {
+			while (true) {
+				final List<EventJournal.Entry> entries = journal.read(this.id, REPLAY_BATCH_SIZE);
+				int end = 0;
+				while (end < entries.size() && entries.get(end).getSequence() <= last) {
+					end++;
+				}
+				if (end == 0) {
+					break;
+				}
+				for (int start = 0; start < end;) {
+					final boolean snapshot = entries.get(start).isSnapshotStart();
+					int next = start + 1;
+					while (next < end && !entries.get(next).isSnapshotStart() && entries.get(next).isSnapshot() == snapshot) {
+						next++;
+					}
+					final List<MirrorEvent> events = new ArrayList<>(next - start);
+					for (final EventJournal.Entry entry : entries.subList(start, next)) {
+						events.add(entry.getEvent());
+					}
+					if (snapshot) {
+						this.channel.sendSnapshot(viewId, events);
+					}
+					else {
+						// the journal keeps what isn't acknowledged, so the patches aren't queued offline as well
+						this.channel.sendUnqueued(viewId, events);
+					}
+					journal.acknowledge(this.id, entries.get(next - 1).getSequence());
+					start = next;
+				}
+			}
+			return this.channel.getVersion(viewId);
+		}
+
+		/**
+		 * Sends a batch of journaled events. While the mirror is caught up, the batch is sent as published, which keeps the icons whose bytes the journal
+		 * doesn't store; otherwise the events it missed are sent from the journal first.
+		 *
+		 * @param first sequence number of the batch's first event
+		 * @param last sequence number of the batch's last event
+		 * @param live sends the batch as published
+		 * @return last version the mirror accepted for the view
+		 */
+		long sendJournaled(final EventJournal journal, final String viewId, final long first, final long last, final PatchTask live)
+				throws IOException {
+			if (journal.getCursor(this.id) != first) {
+				return replay(journal, viewId, last);
+			}
+			final long version = live.send(this);
+			journal.acknowledge(this.id, last);
+			return version;
+		}
+
+		private void failed(final Throwable error) {
+			this.failures.incrementAndGet();
+			this.lastFailure = error;
+		}
+
+		MirrorStatus status() {
+			return new MirrorStatus(this.id, this.apiUrl, this.uploads.get(), this.patches.get(), this.failures.get(), this.droppedPatches.get(),
+					this.lastFailure);
+		}
+
+		void close() {
+			this.patchExecutor.shutdownNow();
+			if (this.flushExecutor != null) {
+				this.flushExecutor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * View made of a main page rendered from a template and an icon. The replacement values are kept with a revision that increases with every change, the
+	 * main page is rendered again only if the revision is newer than the published one. A revision counts as published once all mirrors stored it.
+	 */
+	private static final class View {
+
+		private final String id;
+
+		private final ViewTemplate template;
+
+		private final String mainPagePath;
+
+		private final Map<String, String> values = new HashMap<>();
+
+		private long revision = 1;
+
+		private long publishedRevision;
+
+		/** revision whose uploads are running, {@code publishedRevision} if none */
+		private long publishingRevision;
+
+		/** page prepared by {@link ViewRegistrator#publishMainPage(String, byte[])}, used instead of the values until one of them changes */
+		private byte[] page;
+
+		View(final String id, final ViewTemplate template, final String mainPagePath) {
+			this.id = id;
+			this.template = template;
+			this.mainPagePath = mainPagePath;
+		}
+
+		/**
+		 * @return {@code true} if the value changed and is used by the template
+		 */
+		boolean put(final String slot, final String value) {
+			if (this.template == null || !this.template.getSlots().contains(slot) || Objects.equals(this.values.get(slot), value)) {
+				return false;
+			}
+			this.values.put(slot, value);
+			this.page = null;
+			this.revision++;
+			return true;
+		}
+
+		boolean isDirty() {
+			return this.template != null && this.revision > Math.max(this.publishedRevision, this.publishingRevision);
+		}
+	}
+
+	private interface PatchTask {
+
+		long send(Mirror mirror)
+				throws IOException;
+	}
+
+	private final String appId;
+
+	private final String userId;
+
+	private final Map<String, Mirror> mirrors = new ConcurrentHashMap<>();
+
+	/** latest data channel to each mirror ever available, also after the mirror was lost, so a new channel continues its versions */
+	private final Map<String, MirrorDataChannel> channels = new ConcurrentHashMap<>();
+
+	/** resources by path, in the order they were first published */
+	private final Map<String, Resource> resources = new LinkedHashMap<>();
+
+	private volatile File manifestDirectory;
+
+	/** journal of the events published to {@link #journalViewId}, {@code null} if events aren't journaled */
+	private volatile EventJournal journal;
+
+	private volatile String journalViewId;
+
+	private final AtomicLong journalFailures = new AtomicLong();
+
+	private volatile Throwable lastJournalFailure;
+
+	/** directory of the mirrors' offline queues, {@code null} if failed uploads and patches aren't queued */
+	private volatile File offlineQueueDirectory;
+
+	private volatile long offlineQueueBytes;
+
+	private volatile long offlineTtlMillis;
+
+	private final ViewTemplates templates;
+
+	private final Map<String, View> views = new ConcurrentHashMap<>();
+
+	/**
+	 * @param appId identifier of the app
+	 * @param userId identifier of the user
+	 */
+	public ViewRegistrator(final String appId, final String userId) {
+		this(appId, userId, ViewTemplates.getInstance());
+	}
+
+	/**
+	 * @param appId identifier of the app
+	 * @param userId identifier of the user
+	 * @param templates templates of the views' main pages
+	 */
+	public ViewRegistrator(final String appId, final String userId, final ViewTemplates templates) {
+		if (templates == null) {
+			throw new IllegalArgumentException("'templates' mustn't be null!");
+		}
+		if (appId == null) {
+			throw new IllegalArgumentException("'appId' mustn't be null!");
+		}
+		if (userId == null) {
+			throw new IllegalArgumentException("'userId' mustn't be null!");
+		}
+		this.appId = appId;
+		this.userId = userId;
+		this.templates = templates;
+	}
+
+	/**
+	 * @return registrator shared by the app's components, publishing as {@link #APP_ID} for {@link #USER_ID}
+	 */
+	public static synchronized ViewRegistrator getInstance() {
+		if (instance == null) {
+			instance = new ViewRegistrator(APP_ID, USER_ID);
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets the directory the upload manifests and patch versions of the mirrors are kept in, used for mirrors that become available afterwards. Without a
+	 * directory every resource is uploaded each time it is published, and the patch versions start over when the app restarts.
+	 *
+	 * @param directory directory or {@code null}
+	 */
+	public void setManifestDirectory(final File directory) {
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Directory " + directory + " can't be created!");
+		}
+		this.manifestDirectory = directory;
+	}
+
+	/**
+	 * Sets the directory the offline queues of the mirrors are kept in, used for mirrors that become available afterwards. Uploads and patches that fail
+	 * because a mirror is unreachable are queued and delivered once the mirror becomes available again, see {@link OfflineUploadQueue}.
+	 *
+	 * @param directory directory or {@code null} to not queue failed uploads and patches
+	 * @param maxBytes disk budget of each mirror's queue in bytes
+	 * @param ttlMillis time after which a queued upload or patch is dropped
+	 */
+	public void setOfflineQueueDirectory(final File directory, final long maxBytes, final long ttlMillis) {
+		if (directory != null) {
+			if (maxBytes <= 0) {
+				throw new IllegalArgumentException("'maxBytes' must be positive!");
+			}
+			if (ttlMillis <= 0) {
+				throw new IllegalArgumentException("'ttlMillis' must be positive!");
+			}
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IllegalArgumentException("Directory " + directory + " can't be created!");
+			}
+		}
+		this.offlineQueueBytes = maxBytes;
+		this.offlineTtlMillis = ttlMillis;
+		this.offlineQueueDirectory = directory;
+	}
+
+	/**
+	 * Journals the events the {@link #consumer(String) consumer} of a view publishes. Each mirror acknowledges the events it received under its id; a mirror
+	 * that becomes available replays the events it hasn't acknowledged, so it catches up with what it missed while it was unreachable. Set before the first
+	 * mirror becomes available.
+	 *
+	 * @param journal journal or {@code null} to stop journaling
+	 * @param viewId id of the view whose events are journaled
+	 */
+	public void setEventJournal(final EventJournal journal, final String viewId) {
+		if (journal != null && viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		this.journalViewId = viewId;
+		this.journal = journal;
+	}
+
+	/**
+	 * Adds a mirror and uploads all resources published so far to it. Reporting a known mirror again has no effect unless its api url changed.
+	 *
+	 * @param mirrorId identifier of the mirror, e.g. its service name
+	 * @param mirrorApiUrl api url of the mirror
+	 * @return future completed once the resources published so far were uploaded to the mirror, never completes exceptionally
+	 * @throws IOException Thrown if the api url is malformed, or the mirror's upload manifest or offline queue can't be read.
+	 */
+	public CompletableFuture<Void> mirrorAvailable(final String mirrorId, final String mirrorApiUrl)
+			throws IOException {
+		return mirrorAvailable(mirrorId, mirrorApiUrl, false);
+	}
+
+	/**
+	 * Adds a mirror and uploads all resources published so far to it. What was queued while the mirror was unreachable is delivered, and if events are
+	 * journaled, the mirror is sent the events it hasn't acknowledged yet. Reporting a known mirror again has no effect unless its api url changed.
+	 *
+	 * @param mirrorId identifier of the mirror, e.g. its service name
+	 * @param mirrorApiUrl api url of the mirror
+	 * @param acceptsGzip {@code true} if the mirror announced to accept gzip compressed uploads, text resources are compressed for it then
+	 * @return future completed once the resources published so far were uploaded to the mirror, never completes exceptionally
+	 * @throws IOException Thrown if the api url is malformed, or the mirror's upload manifest or offline queue can't be read.
+	 */
+	public CompletableFuture<Void> mirrorAvailable(final String mirrorId, final String mirrorApiUrl, final boolean acceptsGzip)
+			throws IOException {
+		if (mirrorId == null) {
+			throw new IllegalArgumentException("'mirrorId' mustn't be null!");
+		}
+		if (mirrorApiUrl == null) {
+			throw new IllegalArgumentException("'mirrorApiUrl' mustn't be null!");
+		}
+		final Mirror mirror;
+		final List<Resource> published;
+		synchronized (this.resources) {
+			final Mirror known = this.mirrors.get(mirrorId);
+			if (known != null && known.apiUrl.equals(mirrorApiUrl)) {
+				return CompletableFuture.completedFuture(null);
+			}
+			mirror = new Mirror(mirrorId, mirrorApiUrl, acceptsGzip);
+			final Mirror replaced = this.mirrors.put(mirrorId, mirror);
+			if (replaced != null) {
+				replaced.close();
+			}
+			published = new ArrayList<>(this.resources.values());
+		}
+		final EventJournal eventJournal = this.journal;
+		if (eventJournal != null) {
+			final String viewId = this.journalViewId;
+			mirror.send(target -> target.replay(eventJournal, viewId, Long.MAX_VALUE));
+		}
+		if (mirror.offlineQueue == null) {
+			return upload(mirror, published);
+		}
+		// queued revisions of the published resources are outdated, the rest of the queue goes out before the resources are uploaded again
+		final List<String> paths = new ArrayList<>(published.size());
+		for (final Resource resource : published) {
+			paths.add(resource.path);
+		}
+		return mirror.flushOfflineQueue(paths).thenCompose(flushed -> upload(mirror, published));
+	}
+
+	private static CompletableFuture<Void> upload(final Mirror mirror, final List<Resource> resources) {
+		final List<CompletableFuture<String>> uploads = new ArrayList<>(resources.size());
+		for (final Resource resource : resources) {
+			uploads.add(mirror.upload(resource));
+		}
+		return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[uploads.size()])).handle((done, error) -> null);
+	}
+
+	/**
+	 * Removes a mirror, patches still waiting for it are dropped.
+	 *
+	 * @param mirrorId identifier of the mirror
+	 */
+	public void mirrorLost(final String mirrorId) {
+		final Mirror mirror;
+		synchronized (this.resources) {
+			mirror = this.mirrors.remove(mirrorId);
+		}
+		if (mirror != null) {
+			mirror.close();
+		}
+	}
+
+	/**
+	 * Publishes a resource on all mirrors and remembers it for mirrors that become available later. The uploads run concurrently, each on the I/O threads
+	 * of its mirror's uploader.
+	 *
+	 * @param inputStreamSupplier Provides the input stream to upload, may be called once per mirror.
+	 * @param urlBasePath Target path on the webserver relative to the app's base directory.
+	 * @param registrationConfig configuration in case that this resource is the mainpage or the icon of a view, may be {@code null}.
+	 * @return one future per mirror, by mirror id, completed with the path on that mirror or with an {@link UploadException}
+	 */
+	public Map<String, CompletableFuture<String>> publishResource(final StaticResourceUploader.InputStreamSupplier inputStreamSupplier,
+			final String urlBasePath, final StaticResourceUploader.ResourceRegistrationConfig registrationConfig) {
+		if (inputStreamSupplier == null) {
+			throw new IllegalArgumentException("'inputStreamSupplier' mustn't be null!");
+		}
+		if (urlBasePath == null) {
+			throw new IllegalArgumentException("'urlBasePath' mustn't be null!");
+		}
+		final Resource resource = new Resource(inputStreamSupplier, urlBasePath, registrationConfig);
+		final List<Mirror> targets;
+		synchronized (this.resources) {
+			this.resources.put(urlBasePath, resource);
+			targets = new ArrayList<>(this.mirrors.values());
+		}
+		final Map<String, CompletableFuture<String>> results = new LinkedHashMap<>();
+		for (final Mirror mirror : targets) {
+			results.put(mirror.id, mirror.upload(resource));
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Sends events as patches to a view on all mirrors. Each mirror receives the patches in the order they were published, independent of the others.
+	 *
+	 * @param viewId id of the view
+	 * @param events events to send
+	 * @return one future per mirror, by mirror id, completed with the version of the last patch on that mirror
+	 * @see MirrorDataChannel#send(String, java.util.Collection)
+	 */
+	public Map<String, CompletableFuture<Long>> publishEvents(final String viewId, final List<MirrorEvent> events) {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		return fanOut(mirror -> mirror.channel.send(viewId, events));
+	}
+
+	/**
+	 * Sends a snapshot to a view on all mirrors.
+	 *
+	 * @param viewId id of the view
+	 * @param events complete events of everything the view should show
+	 * @return one future per mirror, by mirror id, completed with the version of the snapshot on that mirror
+	 * @see MirrorDataChannel#sendSnapshot(String, java.util.Collection)
+	 */
+	public Map<String, CompletableFuture<Long>> publishSnapshot(final String viewId, final List<MirrorEvent> events) {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		if (events == null) {
+			throw new IllegalArgumentException("'events' mustn't be null!");
+		}
+		return fanOut(mirror -> mirror.channel.sendSnapshot(viewId, events));
+	}
+
+	/**
+	 * Creates a bus consumer publishing the events of the bus to a view on all mirrors, batches as patches and snapshots as snapshots. The consumer only
+	 * hands the events to the mirrors' patch threads, it never blocks the bus. Events of the view set by {@link #setEventJournal(EventJournal, String)} are
+	 * journaled first.
+	 *
+	 * @param viewId id of the view
+	 * @return consumer for {@link MirrorEventBus#subscribe(MirrorEventBus.Consumer)}
+	 */
+	public MirrorEventBus.Consumer consumer(final String viewId) {
+		if (viewId == null) {
+			throw new IllegalArgumentException("'viewId' mustn't be null!");
+		}
+		return new MirrorEventBus.Consumer() {
+
+			@Override
+			public void onEvents(final List<MirrorEvent> events) {
+				if (!publishJournaled(viewId, events, false, mirror -> mirror.channel.sendUnqueued(viewId, events))) {
+					publishEvents(viewId, events);
+				}
+			}
+
+			@Override
+			public void onSnapshot(final List<MirrorEvent> events) {
+				if (!publishJournaled(viewId, events, true, mirror -> mirror.channel.sendSnapshot(viewId, events))) {
+					publishSnapshot(viewId, events);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Journals events and sends them to all mirrors, each mirror acknowledges them once it accepted them.
+	 *
+	 * @param snapshot {@code true} if the events are a snapshot, journaled as such even if empty
+	 * @return {@code false} if the view's events aren't journaled or the journal failed, the caller publishes them without journal then
+	 */
+	private boolean publishJournaled(final String viewId, final List<MirrorEvent> events, final boolean snapshot, final PatchTask live) {
+		final EventJournal eventJournal = this.journal;
+		if (eventJournal == null || events.isEmpty() && !snapshot || !viewId.equals(this.journalViewId)) {
+			return false;
+		}
+		final long first = eventJournal.getNextSequence();
+		final long last;
+		try {
+			if (snapshot) {
+				last = eventJournal.appendSnapshot(events);
+			}
+			else {
+				long sequence = first;
+				for (final MirrorEvent event : events) {
+					sequence = eventJournal.append(event);
+				}
+				last = sequence;
+			}
+		} catch (final IOException | RuntimeException e) {
+			// the mirrors still get the events, only the replay misses them
+			this.journalFailures.incrementAndGet();
+			this.lastJournalFailure = e;
+			return false;
+		}
+		fanOut(mirror -> mirror.sendJournaled(eventJournal, viewId, first, last, live));
+		return true;
+	}
+
+	private Map<String, CompletableFuture<Long>> fanOut(final PatchTask task) {
+		final Map<String, CompletableFuture<Long>> results = new LinkedHashMap<>();
+		for (final Mirror mirror : this.mirrors.values()) {
+			results.put(mirror.id, mirror.send(task));
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * @return state of the publication on each mirror, by mirror id
+	 */
+	public Map<String, MirrorStatus> getMirrorStatus() {
+		final Map<String, MirrorStatus> status = new LinkedHashMap<>();
+		for (final Mirror mirror : this.mirrors.values()) {
+			status.put(mirror.id, mirror.status());
+		}
+		return Collections.unmodifiableMap(status);
+	}
+
+	/**
+	 * @return number of event batches that couldn't be journaled, they were published without replay
+	 */
+	public long getJournalFailureCount() {
+		return this.journalFailures.get();
+	}
+
+	/**
+	 * @return exception of the last journal failure, {@code null} if none failed
+	 */
+	public Throwable getLastJournalFailure() {
+		return this.lastJournalFailure;
+	}
+
+	/**
+	 * Adds a view. Its icon is published right away, its main page with the next {@link #publishDirty()}.
+	 *
+	 * @param viewId id of the view
+	 * @param mainPageResource class path of the main page's template, {@code null} if the view has no main page
+	 * @param iconResource class path of the view's icon, {@code null} if the view has no icon
+	 * @throws IOException Thrown if the template or the icon doesn't exist or can't be read.
+	 */
+	public void addView(final String viewId, final String mainPageResource, final String iconResource)
+			throws IOException {
+		if (viewId == null) {
+			throw new IllegalArgumentException("Parameter 'viewId' mustn't be null!");
+		}
+		final ViewTemplate template = mainPageResource == null ? null : this.templates.get(mainPageResource);
+		final View view = new View(viewId, template, mainPageResource == null ? null : viewId + "/" + webName(mainPageResource));
+		if (iconResource != null) {
+			final ClassLoader classLoader = ViewRegistrator.class.getClassLoader();
+			if (classLoader.getResource(iconResource) == null) {
+				throw new IOException("Icon resource '" + iconResource + "' not found");
+			}
+			publishResource(() -> classLoader.getResourceAsStream(iconResource), viewId + "/" + webName(iconResource),
+					new StaticResourceUploader.ResourceRegistrationConfig(viewId, false, true));
+		}
+		this.views.put(viewId, view);
+	}
+
+	/**
+	 * Adds a view made of cards that are created and updated by the patches of {@link #publishEvents(String, List)} and
+	 * {@link #publishSnapshot(String, List)}, see {@link ViewTemplates#FEED_TEMPLATE}. Its main page is published right away; it is the same on all mirrors
+	 * and polls the data channel of the mirror it is shown on.
+	 *
+	 * @param viewId id of the view
+	 * @param iconResource class path of the view's icon, {@code null} if the view has no icon
+	 * @param apiPath path of the api on the mirrors' webservers, e.g. {@code /api}
+	 * @throws IOException Thrown if the template or the icon doesn't exist or can't be read.
+	 */
+	public void addFeedView(final String viewId, final String iconResource, final String apiPath)
+			throws IOException {
+		if (apiPath == null) {
+			throw new IllegalArgumentException("'apiPath' mustn't be null!");
+		}
+		addView(viewId, ViewTemplates.FEED_TEMPLATE, iconResource);
+		// only the path and the query of the data url are used, the host differs between the mirrors
+		final URL dataUrl = new URLConnectionFactory.UploadTarget("http://localhost" + apiPath, this.appId, this.userId).dataUrl(viewId);
+		setReplacement(viewId, "PATCH_URL", dataUrl.getFile());
+		publishDirty(viewId);
+	}
+
+	/**
+	 * Sets a replacement value of a view's main page. Only compares and stores the value, so it can be called for every event; the page is rendered by
+	 * {@link #publishDirty()}.
+	 *
+	 * @param viewId id of the view
+	 * @param slot name of the template's slot
+	 * @param value new value, {@code null} for an empty value
+	 * @return {@code true} if the value changed and the view has to be published again
+	 */
+	public boolean setReplacement(final String viewId, final String slot, final CharSequence value) {
+		final View view = view(viewId);
+		synchronized (view) {
+			return view.put(slot, value == null ? null : value.toString());
+		}
+	}
+
+	/**
+	 * Sets several replacement values of a view's main page at once.
+	 *
+	 * @param viewId id of the view
+	 * @param values new values by slot name
+	 * @return {@code true} if any value changed and the view has to be published again
+	 * @see #setReplacement(String, String, CharSequence)
+	 */
+	public boolean setReplacements(final String viewId, final Map<String, ? extends CharSequence> values) {
+		if (values == null) {
+			throw new IllegalArgumentException("'values' mustn't be null!");
+		}
+		final View view = view(viewId);
+		boolean changed = false;
+		synchronized (view) {
+			for (final Map.Entry<String, ? extends CharSequence> value : values.entrySet()) {
+				changed |= view.put(value.getKey(), value.getValue() == null ? null : value.getValue().toString());
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return {@code true} if the view's main page changed since it was published, or its publication failed on a mirror
+	 */
+	public boolean isDirty(final String viewId) {
+		final View view = view(viewId);
+		synchronized (view) {
+			return view.isDirty();
+		}
+	}
+
+	/**
+	 * Renders the main pages whose replacement values changed since they were published and publishes them on all mirrors. Each page is rendered once,
+	 * the mirrors receive the same bytes. Views that didn't change are skipped.
+	 *
+	 * @return number of views published
+	 * @throws IOException Thrown if a page can't be rendered.
+	 */
+	public int publishDirty()
+			throws IOException {
+		int published = 0;
+		for (final View view : this.views.values()) {
+			if (publishDirty(view)) {
+				published++;
+			}
+		}
+		return published;
+	}
+
+	/**
+	 * Renders and publishes a view's main page if its replacement values changed since it was published. Usually called by a {@link RefreshScheduler}.
+	 *
+	 * @param viewId id of the view
+	 * @return {@code true} if the page was published
+	 * @throws IOException Thrown if the page can't be rendered.
+	 * @see #publishDirty()
+	 */
+	public boolean publishDirty(final String viewId)
+			throws IOException {
+		return publishDirty(view(viewId));
+	}
+
+	private boolean publishDirty(final View view)
+			throws IOException {
+		return publish(view) != null;
+	}
+
+	/**
+	 * Publishes a view's main page if it is dirty. The revision counts as published once the uploads to all mirrors succeeded; if one fails, the view stays
+	 * dirty and is published again with the next {@link #publishDirty()}.
+	 *
+	 * @return one future per mirror or {@code null} if the view isn't dirty
+	 */
+	private Map<String, CompletableFuture<String>> publish(final View view)
+			throws IOException {
+		final Map<String, String> values;
+		final byte[] prepared;
+		final long revision;
+		synchronized (view) {
+			if (!view.isDirty()) {
+				return null;
+			}
+			prepared = view.page;
+			values = prepared == null ? new HashMap<>(view.values) : null;
+			revision = view.revision;
+			view.publishingRevision = revision;
+		}
+		final byte[] bytes;
+		if (prepared != null) {
+			bytes = prepared;
+		}
+		else {
+			final ByteArrayOutputStream page = new ByteArrayOutputStream();
+			try {
+				view.template.render(page, values);
+			} catch (final IOException | RuntimeException e) {
+				published(view, revision, false);
+				throw e;
+			}
+			bytes = page.toByteArray();
+		}
+		return upload(view, revision, bytes);
+	}
+
+	private Map<String, CompletableFuture<String>> upload(final View view, final long revision, final byte[] page) {
+		final Map<String, CompletableFuture<String>> results = publishResource(() -> new ByteArrayInputStream(page), view.mainPagePath,
+				new StaticResourceUploader.ResourceRegistrationConfig(view.id, true, false));
+		CompletableFuture.allOf(results.values().toArray(new CompletableFuture<?>[results.size()])).whenComplete((done, error) -> published(view, revision,
+				error == null));
+		return results;
+	}
+
+	private static void published(final View view, final long revision, final boolean success) {
+		synchronized (view) {
+			if (success) {
+				// values that changed in the meantime keep the view dirty
+				view.publishedRevision = Math.max(view.publishedRevision, revision);
+			}
+			if (view.publishingRevision == revision) {
+				view.publishingRevision = view.publishedRevision;
+			}
+		}
+	}
+
+	/**
+	 * Renders a view's main page with the given values, without changing the values of the view. Used to prepare pages ahead of their publication.
+	 *
+	 * @param viewId id of the view
+	 * @param values slot values by slot name
+	 * @return rendered page
+	 * @throws IOException Thrown if the page can't be rendered.
+	 * @see #publishMainPage(String, byte[])
+	 */
+	public byte[] renderMainPage(final String viewId, final Map<String, ? extends CharSequence> values)
+			throws IOException {
+		if (values == null) {
+			throw new IllegalArgumentException("'values' mustn't be null!");
+		}
+		final View view = view(viewId);
+		if (view.template == null) {
+			throw new IllegalArgumentException("View '" + viewId + "' has no main page!");
+		}
+		final ByteArrayOutputStream page = new ByteArrayOutputStream();
+		view.template.render(page, values);
+		return page.toByteArray();
+	}
+
+	/**
+	 * Publishes a main page rendered before by {@link #renderMainPage(String, Map)} on all mirrors. It replaces the page rendered from the view's values until
+	 * a value changes; if the publication fails, {@link #publishDirty()} publishes this page again.
+	 *
+	 * @param viewId id of the view
+	 * @param page rendered page, mustn't be changed afterwards
+	 * @return one future per mirror, by mirror id, completed with the path on that mirror or with an {@link UploadException}
+	 */
+	public Map<String, CompletableFuture<String>> publishMainPage(final String viewId, final byte[] page) {
+		if (page == null) {
+			throw new IllegalArgumentException("'page' mustn't be null!");
+		}
+		final View view = view(viewId);
+		if (view.template == null) {
+			throw new IllegalArgumentException("View '" + viewId + "' has no main page!");
+		}
+		final long revision;
+		synchronized (view) {
+			view.page = page;
+			revision = ++view.revision;
+			view.publishingRevision = revision;
+		}
+		return upload(view, revision, page);
+	}
+
+	private View view(final String viewId) {
+		final View view = this.views.get(viewId);
+		if (view == null) {
+			throw new IllegalArgumentException("Unknown view '" + viewId + "'!");
+		}
+		return view;
+	}
+
+	/**
+	 * @return file name of a resource on the mirror, templates are uploaded as html pages
+	 */
+	private static String webName(final String resource) {
+		final String name = resource.substring(resource.lastIndexOf('/') + 1);
+		return name.endsWith(".template") ? name.substring(0, name.length() - ".template".length()) + ".html" : name;
+	}
+
+	private static String fileName(final String mirrorId) {
+		final StringBuilder name = new StringBuilder(mirrorId.length());
+		for (int i = 0; i < mirrorId.length(); i++) {
+			final char c = mirrorId.charAt(i);
+			name.append(Character.isLetterOrDigit(c) || c == '-' || c == '.' ? c : '_');
+		}
+		return name.toString();
+	}
+}
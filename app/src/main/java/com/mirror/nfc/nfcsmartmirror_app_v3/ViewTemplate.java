@@ -0,0 +1,311 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * View template compiled into static UTF-8 segments and slots. A slot is written as {@code {NAME}} in the template, where the name consists of upper case
+ * letters, digits and underscores; all other braces (CSS, JavaScript) are static content. Templates are parsed once, rendering writes the static segments as
+ * they are and HTML escapes the slot values while encoding them, without building the page as a String.
+ *
+ * @since 17.07
+ */
+public final class ViewTemplate {
+
+	/** Bytes encoded at once while rendering a value, large enough for the longest escape sequence */
+	private static final int ENCODE_BUFFER_SIZE = 512;
+
+	/** Longest encoding of a single character: {@code &quot;} */
+	private static final int MAX_ENCODED_CHAR_LENGTH = 6;
+
+	/** {@code segments[i]} is written before {@code slots[i]}, the last segment follows the last slot */
+	private final byte[][] segments;
+
+	private final String[] slots;
+
+	private ViewTemplate(final byte[][] segments, final String[] slots) {
+		this.segments = segments;
+		this.slots = slots;
+	}
+
+	/**
+	 * Compiles a template.
+	 *
+	 * @param template UTF-8 encoded template, closed by this method
+	 * @return compiled template
+	 * @throws IOException Thrown if the template can't be read.
+	 */
+	public static ViewTemplate compile(final InputStream template)
+			throws IOException {
+		if (template == null) {
+			throw new IllegalArgumentException("'template' mustn't be null!");
+		}
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (final InputStream in = template) {
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				content.write(buffer, 0, read);
+			}
+		}
+		return compile(content.toByteArray());
+	}
+
+	/**
+	 * Compiles a template.
+	 *
+	 * @param template UTF-8 encoded template
+	 * @return compiled template
+	 */
+	public static ViewTemplate compile(final byte[] template) {
+		final List<byte[]> segments = new ArrayList<>();
+		final List<String> slots = new ArrayList<>();
+		int segmentStart = 0;
+		for (int i = 0; i < template.length; i++) {
+			if (template[i] != '{') {
+				continue;
+			}
+			final int end = slotEnd(template, i + 1);
+			if (end < 0) {
+				continue;
+			}
+			segments.add(Arrays.copyOfRange(template, segmentStart, i));
+			slots.add(new String(template, i + 1, end - i - 1, StandardCharsets.US_ASCII));
+			segmentStart = end + 1;
+			i = end;
+		}
+		segments.add(Arrays.copyOfRange(template, segmentStart, template.length));
+		return new ViewTemplate(segments.toArray(new byte[segments.size()][]), slots.toArray(new String[slots.size()]));
+	}
+
+	/**
+	 * @return index of the closing brace of the slot name starting at {@code start} or {@code -1} if there is no slot
+	 */
+	private static int slotEnd(final byte[] template, final int start) {
+		if (start >= template.length || template[start] < 'A' || template[start] > 'Z') {
+			return -1;
+		}
+		for (int i = start + 1; i < template.length; i++) {
+			final byte b = template[i];
+			if (b == '}') {
+				return i;
+			}
+			if (!(b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_')) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return names of the slots in the order they appear, a name appears once for each occurrence
+	 */
+	public List<String> getSlots() {
+		return Collections.unmodifiableList(Arrays.asList(this.slots));
+	}
+
+	/**
+	 * Renders the template. Slots without a value are rendered empty.
+	 *
+	 * @param out stream the page is written to, e.g. the upload connection
+	 * @param values slot values by slot name, HTML escaped while rendering
+	 * @throws IOException Thrown if writing to the stream fails.
+	 */
+	public void render(final OutputStream out, final Map<String, ? extends CharSequence> values)
+			throws IOException {
+		if (out == null) {
+			throw new IllegalArgumentException("'out' mustn't be null!");
+		}
+		if (values == null) {
+			throw new IllegalArgumentException("'values' mustn't be null!");
+		}
+		final byte[] buffer = new byte[ENCODE_BUFFER_SIZE];
+		for (int i = 0; i < this.slots.length; i++) {
+			out.write(this.segments[i]);
+			final EscapingEncoder encoder = new EscapingEncoder(values.get(this.slots[i]));
+			int length;
+			while ((length = encoder.encode(buffer)) > 0) {
+				out.write(buffer, 0, length);
+			}
+		}
+		out.write(this.segments[this.slots.length]);
+	}
+
+	/**
+	 * Opens the rendered page as a stream, so it can be passed to {@link StaticResourceUploader} as
+	 * {@link StaticResourceUploader.InputStreamSupplier InputStreamSupplier} and is rendered while being uploaded. Each call starts a new rendering.
+	 *
+	 * @param values slot values by slot name, HTML escaped while rendering; must not change while the stream is read
+	 * @return stream of the rendered page
+	 * @see #render(OutputStream, Map)
+	 */
+	public InputStream open(final Map<String, ? extends CharSequence> values) {
+		if (values == null) {
+			throw new IllegalArgumentException("'values' mustn't be null!");
+		}
+		return new RenderingInputStream(values);
+	}
+
+	/**
+	 * Encodes a value as UTF-8 while escaping the characters with a meaning in HTML.
+	 */
+	private static final class EscapingEncoder {
+
+		private final CharSequence value;
+
+		private int position;
+
+		EscapingEncoder(final CharSequence value) {
+			this.value = value == null ? "" : value;
+		}
+
+		/**
+		 * @return number of bytes written to the buffer, {@code 0} when the whole value is encoded
+		 */
+		int encode(final byte[] buffer) {
+			int length = 0;
+			final int limit = buffer.length - MAX_ENCODED_CHAR_LENGTH;
+			while (this.position < this.value.length() && length <= limit) {
+				final char c = this.value.charAt(this.position++);
+				switch (c) {
+				case '&':
+					length = put(buffer, length, "&amp;");
+					break;
+				case '<':
+					length = put(buffer, length, "&lt;");
+					break;
+				case '>':
+					length = put(buffer, length, "&gt;");
+					break;
+				case '"':
+					length = put(buffer, length, "&quot;");
+					break;
+				case '\'':
+					length = put(buffer, length, "&#39;");
+					break;
+				default:
+					length = putUtf8(buffer, length, c);
+				}
+			}
+			return length;
+		}
+
+		private static int put(final byte[] buffer, final int offset, final String ascii) {
+			for (int i = 0; i < ascii.length(); i++) {
+				buffer[offset + i] = (byte) ascii.charAt(i);
+			}
+			return offset + ascii.length();
+		}
+
+		private int putUtf8(final byte[] buffer, int offset, final char c) {
+			if (c < 0x80) {
+				buffer[offset++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				buffer[offset++] = (byte) (0xC0 | c >> 6);
+				buffer[offset++] = (byte) (0x80 | c & 0x3F);
+			}
+			else if (Character.isHighSurrogate(c) && this.position < this.value.length() && Character.isLowSurrogate(this.value.charAt(this.position))) {
+				final int codePoint = Character.toCodePoint(c, this.value.charAt(this.position++));
+				buffer[offset++] = (byte) (0xF0 | codePoint >> 18);
+				buffer[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				buffer[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				buffer[offset++] = (byte) (0x80 | codePoint & 0x3F);
+			}
+			else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, not encodable
+				buffer[offset++] = '?';
+			}
+			else {
+				buffer[offset++] = (byte) (0xE0 | c >> 12);
+				buffer[offset++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buffer[offset++] = (byte) (0x80 | c & 0x3F);
+			}
+			return offset;
+		}
+	}
+
+	private final class RenderingInputStream extends InputStream {
+
+		private final Map<String, ? extends CharSequence> values;
+
+		private final byte[] buffer = new byte[ENCODE_BUFFER_SIZE];
+
+		/** index of the next part, even parts are segments, odd parts are slots */
+		private int part;
+
+		private byte[] current = new byte[0];
+
+		private int currentLength;
+
+		private int currentPosition;
+
+		private EscapingEncoder encoder;
+
+		RenderingInputStream(final Map<String, ? extends CharSequence> values) {
+			this.values = values;
+		}
+
+		/**
+		 * @return {@code false} at the end of the page
+		 */
+		private boolean fill() {
+			while (this.currentPosition == this.currentLength) {
+				if (this.encoder != null) {
+					final int length = this.encoder.encode(this.buffer);
+					if (length > 0) {
+						this.current = this.buffer;
+						this.currentLength = length;
+						this.currentPosition = 0;
+						return true;
+					}
+					this.encoder = null;
+				}
+				if (this.part > 2 * ViewTemplate.this.slots.length) {
+					return false;
+				}
+				if (this.part % 2 == 0) {
+					this.current = ViewTemplate.this.segments[this.part / 2];
+					this.currentLength = this.current.length;
+					this.currentPosition = 0;
+				}
+				else {
+					this.encoder = new EscapingEncoder(this.values.get(ViewTemplate.this.slots[this.part / 2]));
+				}
+				this.part++;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() {
+			if (!fill()) {
+				return -1;
+			}
+			return this.current[this.currentPosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+			int total = 0;
+			while (total < length && fill()) {
+				final int count = Math.min(length - total, this.currentLength - this.currentPosition);
+				System.arraycopy(this.current, this.currentPosition, bytes, offset + total, count);
+				this.currentPosition += count;
+				total += count;
+			}
+			return total == 0 ? -1 : total;
+		}
+	}
+}
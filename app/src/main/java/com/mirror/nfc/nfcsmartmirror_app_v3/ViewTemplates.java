@@ -0,0 +1,75 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Set of view templates loaded from class path resources. Each template is compiled on first use and shared by all views rendering it afterwards.
+ *
+ * @since 17.07
+ */
+public final class ViewTemplates {
+
+	/** Generic view showing a text and its origin, used for SMS, calls and notifications. Slots: {@code TEXT}, {@code TITLE} */
+	public static final String MESSAGE_TEMPLATE = "de/iolite/insys/mirror/views/message.template";
+
+	/** View showing cards that are created and updated by the patches of a {@link MirrorDataChannel}. Slot: {@code PATCH_URL} */
+	public static final String FEED_TEMPLATE = "de/iolite/insys/mirror/views/feed.template";
+
+	/** Quote view. Slots: {@code QUOTE}, {@code AUTHOR} */
+	public static final String QUOTE_TEMPLATE = "de/iolite/insys/mirror/views/quote.template";
+
+	/** Welcome view. Slot: {@code USERNAME} */
+	public static final String WELCOME_TEMPLATE = "de/iolite/insys/mirror/views/welcome.template";
+
+	private static ViewTemplates instance;
+
+	private final ClassLoader classLoader;
+
+	private final ConcurrentMap<String, ViewTemplate> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * @param classLoader class loader providing the template resources
+	 */
+	public ViewTemplates(final ClassLoader classLoader) {
+		if (classLoader == null) {
+			throw new IllegalArgumentException("'classLoader' mustn't be null!");
+		}
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * @return template set of the app's own resources
+	 */
+	public static synchronized ViewTemplates getInstance() {
+		if (instance == null) {
+			instance = new ViewTemplates(ViewTemplates.class.getClassLoader());
+		}
+		return instance;
+	}
+
+	/**
+	 * @param resource class path of the template
+	 * @return compiled template
+	 * @throws IOException Thrown if the template resource doesn't exist or can't be read.
+	 */
+	public ViewTemplate get(final String resource)
+			throws IOException {
+		if (resource == null) {
+			throw new IllegalArgumentException("'resource' mustn't be null!");
+		}
+		final ViewTemplate cached = this.templates.get(resource);
+		if (cached != null) {
+			return cached;
+		}
+		final InputStream in = this.classLoader.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException("Template resource '" + resource + "' not found");
+		}
+		final ViewTemplate template = ViewTemplate.compile(in);
+		final ViewTemplate raced = this.templates.putIfAbsent(resource, template);
+		return raced != null ? raced : template;
+	}
+}
@@ -0,0 +1,102 @@
+// Applies the JSON patches sent by the app's data channel (MirrorDataChannel) to the cards of a view,
+// so new messages, calls and notifications don't require a new page.
+// The page polls the mirror's viewData endpoint for the patches newer than the last version it applied.
+// Versions are gapless per view: a snapshot replaces all cards, a patch that skips a version is not applied,
+// the next poll asks for the missing ones again.
+// Icons are uploaded by the app before the first patch referencing them, a patch carries the icon's path on the mirror.
+
+var POLL_INTERVAL_MILLIS = 500;
+var FIELDS = ['title', 'text', 'ticker'];
+
+var patchVersion = 0;
+
+
+function applySnapshot(container, snapshot) {
+  container.empty();
+  patchVersion = snapshot.v;
+  // the patches of a snapshot carry the snapshot's version
+  $.each(snapshot.patches, function(index, patch) {
+    applyFields(container, patch);
+  });
+}
+
+
+function applyPatch(container, patch) {
+  if (patch.op === 'snapshot') {
+    // a snapshot with a lower version comes from a restarted app, whose versions start over
+    if (patch.v !== patchVersion) {
+      applySnapshot(container, patch);
+    }
+    return true;
+  }
+  if (patch.v <= patchVersion) {
+    return true;
+  }
+  if (patch.v > patchVersion + 1) {
+    // gap, wait for the missing versions
+    return false;
+  }
+  patchVersion = patch.v;
+  applyFields(container, patch);
+  return true;
+}
+
+
+function applyFields(container, patch) {
+  // a patch without key never updates a card, it always gets a new one
+  var card = patch.key === null ? $() : container.children().filter(function() {
+    return $(this).data('key') === patch.key;
+  });
+  if (patch.op === 'remove') {
+    card.remove();
+    return;
+  }
+  if (card.length === 0) {
+    card = $('<div class="quote"><blockquote class="quote-size"><img class="card-icon" data-field="icon" alt="">'
+      + '<p data-field="text"></p><footer><cite data-field="title"></cite></footer></blockquote></div>');
+    card.find('[data-field="icon"]').hide().on('error', function() {
+      $(this).hide();
+    });
+    card.data('key', patch.key);
+    card.addClass(patch.type.toLowerCase());
+    container.prepend(card);
+  }
+  $.each(FIELDS, function(index, field) {
+    if (patch.fields.hasOwnProperty(field)) {
+      // text(), never html(): the values are not escaped by the app
+      card.find('[data-field="' + field + '"]').text(patch.fields[field] === null ? '' : patch.fields[field]);
+    }
+  });
+  if (patch.fields.hasOwnProperty('icon')) {
+    var icon = card.find('[data-field="icon"]');
+    if (patch.fields.icon === null) {
+      icon.removeAttr('src').hide();
+    } else {
+      icon.attr('src', patch.fields.icon).show();
+    }
+  }
+}
+
+
+function pollPatches(container, patchUrl) {
+  $.ajax({
+    url: patchUrl + '&since=' + patchVersion,
+    dataType: 'json',
+    success: function(patches) {
+      $.each(patches, function(index, patch) {
+        return applyPatch(container, patch);
+      });
+    },
+    complete: function() {
+      window.setTimeout(function() {
+        pollPatches(container, patchUrl);
+      }, POLL_INTERVAL_MILLIS);
+    }
+  });
+}
+
+
+$(document).ready(function() {
+  var container = $('#cards');
+  pollPatches(container, container.data('patch-url'));
+});
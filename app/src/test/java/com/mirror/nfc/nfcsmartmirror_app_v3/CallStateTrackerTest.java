@@ -0,0 +1,67 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CallStateTrackerTest {
+
+    private static final String NUMBER = "+49 170 1234567";
+
+    @Test
+    public void onStateChanged_answeredCall_producesOneEventPerTransition() {
+        final MirrorEventBus bus = new MirrorEventBus(64, 60_000);
+        final CallStateTracker tracker = new CallStateTracker(bus);
+
+        assertEquals(CallStateTracker.Transition.RINGING, tracker.onStateChanged(CallStateTracker.State.RINGING, NUMBER, 1_000));
+        assertEquals(CallStateTracker.Transition.ANSWERED, tracker.onStateChanged(CallStateTracker.State.OFFHOOK, null, 5_000));
+        assertEquals(CallStateTracker.Transition.ENDED, tracker.onStateChanged(CallStateTracker.State.IDLE, null, 70_000));
+        assertEquals(65_000, tracker.getLastDurationMillis());
+        // the number is only reported while ringing
+        assertEquals(NUMBER, tracker.getLastEvent().getTitle());
+        assertEquals("Call ended after 1:05", tracker.getLastEvent().getText());
+
+        final List<MirrorEvent> events = new ArrayList<>();
+        bus.subscribe(events::addAll);
+        bus.flush();
+        // the events of one call share a key, so the bus merges them into the latest state
+        assertEquals(1, events.size());
+        assertEquals("Call ended after 1:05", events.get(0).getText());
+        assertEquals(NUMBER, events.get(0).getTitle());
+        assertEquals(3, bus.getPublishedCount());
+    }
+
+    @Test
+    public void onStateChanged_ringingThenIdle_isMissedCall() {
+        final CallStateTracker tracker = new CallStateTracker(new MirrorEventBus(8, 60_000));
+        tracker.onStateChanged(CallStateTracker.State.RINGING, NUMBER, 0);
+        assertEquals(CallStateTracker.Transition.MISSED, tracker.onStateChanged(CallStateTracker.State.IDLE, null, 20_000));
+        assertEquals(CallStateTracker.Transition.OUTGOING, tracker.onStateChanged(CallStateTracker.State.OFFHOOK, "112", 30_000));
+    }
+
+    /**
+     * Every broadcast is handled by the shared tracker, so the work per state change doesn't grow with the number of broadcasts received before.
+     */
+    @Test
+    public void onStateChanged_after1000Broadcasts_publishesOneEventPerStateChange() {
+        final MirrorEventBus bus = new MirrorEventBus(8, 60_000);
+        final CallStateTracker tracker = new CallStateTracker(bus);
+        final CallStateTracker.State[] cycle = { CallStateTracker.State.RINGING, CallStateTracker.State.OFFHOOK, CallStateTracker.State.IDLE };
+        for (int broadcast = 0; broadcast < 1000; broadcast++) {
+            // the system may report a state more than once
+            tracker.onStateChanged(cycle[broadcast / 2 % cycle.length], NUMBER, broadcast * 1000L);
+        }
+
+        final long publishedBefore = bus.getPublishedCount();
+        assertNull(tracker.onStateChanged(tracker.getState(), NUMBER, 2_000_000));
+        assertEquals(publishedBefore, bus.getPublishedCount());
+        tracker.onStateChanged(CallStateTracker.State.IDLE == tracker.getState() ? CallStateTracker.State.RINGING : CallStateTracker.State.IDLE,
+                NUMBER, 2_001_000);
+        assertEquals(publishedBefore + 1, bus.getPublishedCount());
+        assertEquals(500, publishedBefore);
+    }
+}
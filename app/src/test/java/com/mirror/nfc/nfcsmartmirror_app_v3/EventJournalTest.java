@@ -0,0 +1,150 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    private static MirrorEvent sms(final int number) {
+        return new MirrorEvent(MirrorEvent.Type.SMS, null, "", "+49 170", "+49 170", "message " + number, null, number);
+    }
+
+    @Test
+    public void read_perMirrorCursor_replaysOnlyMissedEventsAfterReopen() throws IOException {
+        try (final EventJournal journal = new EventJournal(this.directory, 64 * 1024, 4)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, journal.append(sms(i)));
+            }
+            journal.append(MirrorEvent.changes(MirrorEvent.Type.NOTIFICATION, "k", "com.example", null, "Title", null, null, 10,
+                    EnumSet.of(MirrorEvent.Field.TITLE)));
+            journal.append(MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "k", "com.example", 11));
+
+            final List<EventJournal.Entry> kitchen = journal.read("kitchen", 4);
+            assertEquals(4, kitchen.size());
+            journal.acknowledge("kitchen", kitchen.get(3).getSequence());
+            journal.acknowledge("hall", 9);
+        }
+
+        try (final EventJournal journal = new EventJournal(this.directory, 64 * 1024, 4)) {
+            assertEquals(12, journal.getNextSequence());
+            final List<EventJournal.Entry> kitchen = journal.read("kitchen", 100);
+            assertEquals(8, kitchen.size());
+            assertEquals(4, kitchen.get(0).getSequence());
+            assertEquals("message 4", kitchen.get(0).getEvent().getText());
+
+            final List<EventJournal.Entry> hall = journal.read("hall", 100);
+            assertEquals(2, hall.size());
+            final MirrorEvent change = hall.get(0).getEvent();
+            assertEquals(EnumSet.of(MirrorEvent.Field.TITLE), change.getChangedFields());
+            assertEquals("Title", change.getTitle());
+            assertNull(change.getText());
+            assertTrue(hall.get(1).getEvent().isRemoved());
+
+            // a new mirror starts with everything kept
+            assertEquals(12, journal.read("bathroom", 100).size());
+            assertEquals(12, journal.append(sms(12)));
+        }
+    }
+
+    @Test
+    public void read_newMirror_startsWithLatestSnapshotReadUnsplit() throws IOException {
+        final MirrorEvent chat = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "chat", "com.example", "", "Alice", "Hi", null, 1);
+        final MirrorEvent mail = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "mail", "com.example", "", "Bob", "Invoice", null, 2);
+        try (final EventJournal journal = new EventJournal(this.directory, 64 * 1024, 4)) {
+            journal.append(sms(0));
+            journal.appendSnapshot(Collections.singletonList(chat));
+            journal.append(sms(1));
+            assertEquals(4, journal.appendSnapshot(Arrays.asList(chat, MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "old", "com.example", 3), mail)));
+            journal.append(sms(2));
+        }
+
+        try (final EventJournal journal = new EventJournal(this.directory, 64 * 1024, 4)) {
+            // the snapshot exceeds the maximum but isn't split
+            final List<EventJournal.Entry> kitchen = journal.read("kitchen", 1);
+            assertEquals(2, kitchen.size());
+            assertEquals(3, kitchen.get(0).getSequence());
+            assertTrue(kitchen.get(0).isSnapshotStart());
+            assertTrue(kitchen.get(1).isSnapshot());
+            assertFalse(kitchen.get(1).isSnapshotStart());
+            assertEquals("mail", kitchen.get(1).getEvent().getKey());
+            journal.acknowledge("kitchen", 4);
+            final List<EventJournal.Entry> rest = journal.read("kitchen", 100);
+            assertEquals(1, rest.size());
+            assertFalse(rest.get(0).isSnapshot());
+
+            // an empty snapshot is kept as well
+            journal.appendSnapshot(Collections.emptyList());
+            final List<EventJournal.Entry> hall = journal.read("hall", 100);
+            assertEquals(1, hall.size());
+            assertTrue(hall.get(0).isSnapshotStart());
+            assertTrue(hall.get(0).getEvent().isRemoved());
+        }
+    }
+
+    @Test
+    public void append_beyondRetention_dropsOldestSegments() throws IOException {
+        try (final EventJournal journal = new EventJournal(this.directory, 4096, 3)) {
+            for (int i = 0; i < 1000; i++) {
+                journal.append(sms(i));
+            }
+            assertEquals(1000, journal.getNextSequence());
+            assertTrue(journal.getFirstSequence() > 0);
+            assertEquals(3, this.directory.listFiles((dir, name) -> name.endsWith(".seg")).length);
+
+            final List<EventJournal.Entry> replay = journal.read("kitchen", 10_000);
+            assertEquals(1000 - journal.getFirstSequence(), replay.size());
+            assertEquals("message 999", replay.get(replay.size() - 1).getEvent().getText());
+        }
+    }
+
+    @Test
+    public void append_throughput() throws IOException {
+        final int events = 200_000;
+        try (final EventJournal journal = new EventJournal(this.directory, EventJournal.DEFAULT_SEGMENT_SIZE, EventJournal.DEFAULT_MAX_SEGMENTS)) {
+            final MirrorEvent event = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "0|com.example.chat|42|null|10123", "com.example.chat",
+                    "Alice: are you coming?", "Alice", "Are you coming tonight? We start at 8.", null, 1_500_000_000_000L);
+            for (int i = 0; i < 10_000; i++) {
+                journal.append(event);
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                journal.append(event);
+            }
+            final long nanos = System.nanoTime() - start;
+            final long perSecond = events * 1_000_000_000L / nanos;
+            assertTrue(perSecond + " events/s", perSecond > 50_000);
+        }
+    }
+}
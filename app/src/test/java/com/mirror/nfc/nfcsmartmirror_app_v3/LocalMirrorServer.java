@@ -0,0 +1,354 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal HTTP/1.1 stand-in for a mirror's api, listening on loopback. Every request is recorded, the response is produced by a {@link Handler}.
+ * By default uploads are answered with the path under which the mirror would serve the file.
+ */
+public class LocalMirrorServer implements Closeable {
+
+    public static final class Request {
+
+        public final String method;
+        public final String path;
+        public final Map<String, String> query;
+        public final Map<String, String> headers;
+        /** decoded body */
+        public final byte[] body;
+        /** number of body bytes on the wire */
+        public final long bodyLength;
+        /** {@code true} if the connection was cut while receiving the body, no response is sent */
+        public final boolean truncated;
+
+        Request(final String method, final String path, final Map<String, String> query, final Map<String, String> headers, final byte[] body,
+                final long bodyLength, final boolean truncated) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+            this.body = body;
+            this.bodyLength = bodyLength;
+            this.truncated = truncated;
+        }
+
+        public String header(final String name) {
+            return this.headers.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public interface Handler {
+
+        /**
+         * @return response body, the status is always 200
+         * @throws IOException to answer with status 500, or with the status of a {@link StatusException}
+         */
+        String handle(Request request) throws IOException;
+    }
+
+    /**
+     * Thrown by a {@link Handler} to answer with another status than 500.
+     */
+    public static final class StatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        public StatusException(final int status, final String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile Handler handler = request -> "/apps/" + request.query.get("appId") + "/" + request.query.get("filePath");
+    private volatile long delayMillis;
+    private volatile long connectDelayMillis;
+    private volatile boolean discardBodies;
+    private volatile LongSupplier bodyCut = () -> -1;
+
+    public LocalMirrorServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(this::acceptLoop, "local-mirror-" + this.serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return api url of this mirror as expected by {@link StaticResourceUploader}
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + this.serverSocket.getLocalPort() + "/api";
+    }
+
+    public void setHandler(final Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Delays every response, simulating a slow link or a busy mirror webserver.
+     */
+    public void setDelayMillis(final long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Delays the first response on every new connection, simulating the connection setup on a slow link.
+     */
+    public void setConnectDelayMillis(final long connectDelayMillis) {
+        this.connectDelayMillis = connectDelayMillis;
+    }
+
+    /**
+     * Only counts the bytes of request bodies instead of recording them, for uploads that would not fit into the heap.
+     */
+    public void setDiscardBodies(final boolean discardBodies) {
+        this.discardBodies = discardBodies;
+    }
+
+    /**
+     * Injects faults: before each request body is read the supplier is asked after how many bytes the connection is cut, {@code -1} reads the whole body.
+     * The handler still sees a cut request, flagged as {@link Request#truncated}.
+     */
+    public void setBodyCut(final LongSupplier bodyCut) {
+        this.bodyCut = bodyCut;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (this.requests) {
+            return new ArrayList<>(this.requests);
+        }
+    }
+
+    /**
+     * @return number of TCP connections accepted so far
+     */
+    public int getConnectionCount() {
+        return this.connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                this.connections.incrementAndGet();
+                final Thread worker = new Thread(() -> serve(socket), "local-mirror-connection");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (final IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try (final Socket s = socket; final InputStream in = s.getInputStream(); final OutputStream out = s.getOutputStream()) {
+            // response head and body are written separately, without this every response waits for the client's delayed ack
+            s.setTcpNoDelay(true);
+            boolean keepAlive = true;
+            boolean connecting = this.connectDelayMillis > 0;
+            while (keepAlive) {
+                final String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                final Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    final int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+                final CountingOutputStream body = new CountingOutputStream(this.discardBodies);
+                final long cut = this.bodyCut.getAsLong();
+                final boolean truncated = !readBody(in, headers, cut >= 0 ? new LimitedOutputStream(body, cut) : body);
+                final String[] parts = requestLine.split(" ");
+                final String target = parts[1];
+                final int questionMark = target.indexOf('?');
+                final String path = questionMark < 0 ? target : target.substring(0, questionMark);
+                final Map<String, String> query = questionMark < 0 ? Collections.emptyMap() : parseQuery(target.substring(questionMark + 1));
+                final Request request = new Request(parts[0], path, query, headers, truncated ? body.toByteArray() : decode(body.toByteArray(), headers),
+                        body.count, truncated);
+                this.requests.add(request);
+                keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+                if (connecting) {
+                    Thread.sleep(this.connectDelayMillis);
+                    connecting = false;
+                }
+                if (this.delayMillis > 0) {
+                    Thread.sleep(this.delayMillis);
+                }
+                int status = 200;
+                String response;
+                try {
+                    response = this.handler.handle(request);
+                } catch (final StatusException e) {
+                    status = e.status;
+                    response = String.valueOf(e.getMessage());
+                } catch (final IOException e) {
+                    status = 500;
+                    response = String.valueOf(e.getMessage());
+                }
+                if (truncated) {
+                    return;
+                }
+                final byte[] responseBytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+                out.write(("HTTP/1.1 " + status + (status == 200 ? " OK" : status == 500 ? " Internal Server Error" : " Error") + "\r\nContent-Type: text/plain\r\nContent-Length: "
+                        + responseBytes.length + "\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(responseBytes);
+                out.flush();
+            }
+        } catch (final IOException | InterruptedException | RuntimeException e) {
+            // connection dropped by the client or the fault injection of a handler
+        }
+    }
+
+    /**
+     * @return {@code false} if reading stopped because the body was cut
+     */
+    private static boolean readBody(final InputStream in, final Map<String, String> headers, final OutputStream body) throws IOException {
+        try {
+            if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                int chunkSize;
+                while ((chunkSize = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                    copy(in, body, chunkSize);
+                    readLine(in);
+                }
+                readLine(in);
+            }
+            else if (headers.containsKey("content-length")) {
+                copy(in, body, Long.parseLong(headers.get("content-length")));
+            }
+            return true;
+        } catch (final BodyCutException e) {
+            return false;
+        }
+    }
+
+    private static final class BodyCutException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class LimitedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long remaining;
+
+        LimitedOutputStream(final OutputStream out, final long limit) {
+            this.out = out;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            final int accepted = (int) Math.min(length, this.remaining);
+            this.out.write(bytes, offset, accepted);
+            this.remaining -= accepted;
+            if (accepted < length) {
+                throw new BodyCutException();
+            }
+        }
+    }
+
+    private static byte[] decode(final byte[] body, final Map<String, String> headers) throws IOException {
+        if (!"gzip".equalsIgnoreCase(headers.get("content-encoding"))) {
+            return body;
+        }
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                decoded.write(buffer, 0, read);
+            }
+        }
+        return decoded.toByteArray();
+    }
+
+    private static void copy(final InputStream in, final OutputStream out, final long length) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of request body");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                final int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+
+        private final boolean discard;
+        private long count;
+
+        CountingOutputStream(final boolean discard) {
+            this.discard = discard;
+        }
+
+        @Override
+        public synchronized void write(final byte[] bytes, final int offset, final int length) {
+            this.count += length;
+            if (!this.discard) {
+                super.write(bytes, offset, length);
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws IOException {
+        final Map<String, String> parameters = new HashMap<>();
+        for (final String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+}
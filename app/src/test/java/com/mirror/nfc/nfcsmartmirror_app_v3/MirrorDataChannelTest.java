@@ -0,0 +1,223 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MirrorDataChannelTest {
+
+    private static final String APP_ID = "test-app";
+    private static final String USER_ID = "test-user";
+
+    private LocalMirrorServer mirror;
+    private MirrorDataChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mirror = new LocalMirrorServer();
+        this.mirror.setHandler(request -> "ok");
+        this.channel = new MirrorDataChannel(this.mirror.getApiUrl(), APP_ID, USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mirror.close();
+    }
+
+    @Test
+    public void send_batch_postsVersionedPatchesInOneRequest() throws Exception {
+        final MirrorEvent sms = new MirrorEvent(MirrorEvent.Type.SMS, null, "", "+49 170", "+49 170", "Say \"hi\"\n<b>", null, 1000);
+        final MirrorEvent change = MirrorEvent.changes(MirrorEvent.Type.NOTIFICATION, "k", "com.example", null, null, "20%", null, 2000,
+                EnumSet.of(MirrorEvent.Field.TEXT));
+        final MirrorEvent removal = MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "k", "com.example", 3000);
+
+        assertEquals(3, this.channel.send("messages", Arrays.asList(sms, change, removal)));
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(1, requests.size());
+        final LocalMirrorServer.Request request = requests.get(0);
+        assertEquals("/api/viewData", request.path);
+        assertEquals("messages", request.query.get("appViewId"));
+        assertEquals(APP_ID, request.query.get("appId"));
+        assertTrue(request.header("Content-Type").startsWith("application/json"));
+        assertEquals("[{\"v\":1,\"key\":null,\"type\":\"SMS\",\"op\":\"set\",\"ts\":1000,\"package\":\"\","
+                + "\"fields\":{\"ticker\":\"+49 170\",\"title\":\"+49 170\",\"text\":\"Say \\\"hi\\\"\\n<b>\"}},"
+                + "{\"v\":2,\"key\":\"k\",\"type\":\"NOTIFICATION\",\"op\":\"set\",\"ts\":2000,\"fields\":{\"text\":\"20%\"}},"
+                + "{\"v\":3,\"key\":\"k\",\"type\":\"NOTIFICATION\",\"op\":\"remove\",\"ts\":3000}]",
+                new String(request.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void send_mirrorStopsAnswering_failsWithTimeoutWithoutUsingUpAVersion() throws Exception {
+        this.mirror.setDelayMillis(5000);
+        this.channel.setTimeoutMillis(200);
+        final MirrorEvent sms = new MirrorEvent(MirrorEvent.Type.SMS, "sms:1", "", "+49 170", "+49 170", "Hi", null, 1000);
+
+        try {
+            this.channel.send("messages", sms);
+            fail("patch sent to a mirror that doesn't answer");
+        } catch (final SocketTimeoutException expected) {
+            // the patch thread is free again
+        }
+        assertEquals(0, this.channel.getVersion("messages"));
+    }
+
+    @Test
+    public void sendSnapshot_thenFailedBatch_keepsVersionsGaplessPerView() throws Exception {
+        final MirrorEvent chat = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "chat", "com.example", "", "Alice", "Hi", null, 1000);
+        final MirrorEvent mail = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "mail", "com.example.mail", "", "Inbox", "2 new", null, 1001);
+        final MirrorEvent removal = MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "gone", "com.example", 1002);
+
+        assertEquals(1, this.channel.sendSnapshot("feed", Arrays.asList(chat, mail, removal)));
+        assertEquals("[{\"v\":1,\"op\":\"snapshot\",\"count\":2,\"patches\":["
+                + "{\"v\":1,\"key\":\"chat\",\"type\":\"NOTIFICATION\",\"op\":\"set\",\"ts\":1000,\"package\":\"com.example\","
+                + "\"fields\":{\"ticker\":\"\",\"title\":\"Alice\",\"text\":\"Hi\"}},"
+                + "{\"v\":1,\"key\":\"mail\",\"type\":\"NOTIFICATION\",\"op\":\"set\",\"ts\":1001,\"package\":\"com.example.mail\","
+                + "\"fields\":{\"ticker\":\"\",\"title\":\"Inbox\",\"text\":\"2 new\"}}]}]",
+                new String(this.mirror.getRequests().get(0).body, StandardCharsets.UTF_8));
+
+        this.mirror.setHandler(request -> {
+            throw new IOException("mirror restarting");
+        });
+        try {
+            this.channel.send("feed", removal);
+            fail("patch sent to a failing mirror");
+        } catch (final IOException expected) {
+            // the failed patch mustn't use up a version
+        }
+        assertEquals(1, this.channel.getVersion("feed"));
+
+        this.mirror.setHandler(request -> "ok");
+        assertEquals(2, this.channel.send("feed", removal));
+        assertEquals(1, this.channel.send("messages", chat));
+    }
+
+    /**
+     * Compares pushing each new message as a full (gzip compressed) page with pushing it as patch to a page uploaded once. The latencies depend too much
+     * on the machine to be compared, a patch is only bounded to a few milliseconds on the local connection.
+     */
+    @Test
+    public void send_comparedToFullPageUpload_transfersFewerBytes() throws Exception {
+        final int messages = 200;
+        final StaticResourceUploader uploader = new StaticResourceUploader(this.mirror.getApiUrl(), APP_ID, USER_ID);
+        final ViewTemplate page = ViewTemplates.getInstance().get(ViewTemplates.MESSAGE_TEMPLATE);
+        this.mirror.setHandler(request -> "/apps/" + APP_ID + "/sms.html");
+
+        // warm up both paths and the keep-alive connection
+        send(uploader, page, 0);
+
+        final long pageStart = System.nanoTime();
+        for (int i = 1; i <= messages; i++) {
+            final Map<String, String> values = values(i);
+            uploader.uploadResource(() -> page.open(values), "sms.html");
+        }
+        final long pageNanos = System.nanoTime() - pageStart;
+        final List<LocalMirrorServer.Request> pageRequests = this.mirror.getRequests();
+        final long pageBytes = pageRequests.get(pageRequests.size() - 1).bodyLength;
+
+        final long patchStart = System.nanoTime();
+        for (int i = 1; i <= messages; i++) {
+            final Map<String, String> values = values(i);
+            this.channel.send("messages", new MirrorEvent(MirrorEvent.Type.SMS, null, "", values.get("TITLE"), values.get("TITLE"), values.get("TEXT"),
+                    null, i));
+        }
+        final long patchNanos = System.nanoTime() - patchStart;
+        final List<LocalMirrorServer.Request> patchRequests = this.mirror.getRequests();
+        final long patchBytes = patchRequests.get(patchRequests.size() - 1).bodyLength;
+
+        assertTrue("patch of " + patchBytes + " bytes, page of " + pageBytes + " bytes", patchBytes * 2 < pageBytes);
+        assertTrue(patchBytes < 300);
+        final long patchMicros = patchNanos / messages / 1000;
+        assertTrue("patch " + patchMicros + " microseconds, page " + pageNanos / messages / 1000 + " microseconds", patchMicros < 50_000);
+    }
+
+    private void send(final StaticResourceUploader uploader, final ViewTemplate page, final int message) throws Exception {
+        final Map<String, String> values = values(message);
+        uploader.uploadResource(() -> page.open(values), "sms.html");
+        this.channel.send("messages", new MirrorEvent(MirrorEvent.Type.SMS, null, "", "", values.get("TITLE"), values.get("TEXT"), null, message));
+    }
+
+    private static Map<String, String> values(final int message) {
+        final Map<String, String> values = new HashMap<>();
+        values.put("TEXT", "Message number " + message + ", see you at 8?");
+        values.put("TITLE", "+49 170 1234567");
+        return values;
+    }
+
+    @Test
+    public void send_notificationsSharingAnIcon_iconUploadedOnceAndReferencedByItsPathOnTheMirror() throws Exception {
+        this.mirror.setHandler(request -> request.path.endsWith("/viewData") ? "ok" : "/apps/" + APP_ID + "/" + request.query.get("filePath"));
+        this.channel.setIconUploader(new StaticResourceUploader(this.mirror.getApiUrl(), APP_ID, USER_ID));
+        final NotificationIconCache icons = new NotificationIconCache(NotificationIconCache.DEFAULT_MAX_BYTES, ".webp");
+        final byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.ISO_8859_1);
+        final MirrorEvent first = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "1", "com.example", "", "Alice", "Hi",
+                icons.get("com.example", 0x3fa4, () -> webp), 1000);
+        final MirrorEvent second = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "2", "com.example", "", "Alice", "Are you there?",
+                icons.get("com.example", 0x3fa4, () -> webp), 2000);
+
+        this.channel.send("feed", first);
+        this.channel.sendSnapshot("feed", Arrays.asList(first, second));
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals("/api/staticResourceUpload", requests.get(0).path);
+        assertEquals("icons/com.example-3fa4.webp", requests.get(0).query.get("filePath"));
+        assertTrue(Arrays.equals(webp, requests.get(0).body));
+        final String icon = "\"icon\":\"/apps/" + APP_ID + "/icons/com.example-3fa4.webp\"";
+        assertTrue(new String(requests.get(1).body, StandardCharsets.UTF_8).contains(icon));
+        final String snapshot = new String(requests.get(2).body, StandardCharsets.UTF_8);
+        assertEquals(snapshot, 2, snapshot.split(Pattern.quote(icon), -1).length - 1);
+        assertEquals(0, this.channel.getIconFailureCount());
+    }
+
+    @Test
+    public void send_iconCantBeTranscoded_patchSentWithoutIcon() throws Exception {
+        this.channel.setIconUploader(new StaticResourceUploader(this.mirror.getApiUrl(), APP_ID, USER_ID));
+        final NotificationIconCache icons = new NotificationIconCache(NotificationIconCache.DEFAULT_MAX_BYTES, ".webp");
+        final MirrorEvent event = new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "1", "com.example", "", "Alice", "Hi", icons.get("com.example", 1, () -> {
+            throw new IOException("recycled bitmap");
+        }), 1000);
+
+        assertEquals(1, this.channel.send("feed", event));
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(1, requests.size());
+        assertFalse(new String(requests.get(0).body, StandardCharsets.UTF_8).contains("\"icon\""));
+        assertEquals(1, this.channel.getIconFailureCount());
+        assertEquals("recycled bitmap", this.channel.getLastIconFailure().getCause().getMessage());
+    }
+
+    @Test
+    public void setVersionFile_newChannelAfterRestart_continuesVersionsPerView() throws Exception {
+        final File file = File.createTempFile("mirror", ".versions");
+        file.deleteOnExit();
+        file.delete();
+        final MirrorEvent sms = new MirrorEvent(MirrorEvent.Type.SMS, "sms:1", "", "+49 170", "+49 170", "Hi", null, 1000);
+        this.channel.setVersionFile(file);
+        this.channel.send("messages", Arrays.asList(sms, sms));
+        this.channel.sendSnapshot("feed", Arrays.asList(sms));
+
+        final MirrorDataChannel restarted = new MirrorDataChannel(this.mirror.getApiUrl(), APP_ID, USER_ID);
+        restarted.setVersionFile(file);
+        assertEquals(3, restarted.send("messages", sms));
+        assertEquals(2, restarted.send("feed", sms));
+        assertEquals(0, restarted.getVersionFileFailureCount());
+        assertEquals(4, this.mirror.getRequests().size());
+    }
+}
@@ -0,0 +1,147 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MirrorEventBusTest {
+
+    private static MirrorEvent notification(final String key, final String text) {
+        return new MirrorEvent(MirrorEvent.Type.NOTIFICATION, key, "com.example.chat", "", "Group", text, null, System.currentTimeMillis());
+    }
+
+    @Test
+    public void publish_burstOfUpdatesToOneKey_deliversLatestOnly() {
+        final MirrorEventBus bus = new MirrorEventBus(16, 60_000);
+        final List<List<MirrorEvent>> batches = new ArrayList<>();
+        bus.subscribe(batches::add);
+
+        bus.publish(notification("chat", "1"));
+        bus.publish(notification("other", "a"));
+        for (int i = 2; i <= 100; i++) {
+            bus.publish(notification("chat", String.valueOf(i)));
+        }
+        bus.flush();
+
+        assertEquals(1, batches.size());
+        final List<MirrorEvent> batch = batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals("100", batch.get(0).getText());
+        assertEquals("a", batch.get(1).getText());
+        assertEquals(101, bus.getPublishedCount());
+        assertEquals(99, bus.getMergedCount());
+        assertEquals(0, bus.getDroppedCount());
+        assertEquals(2, bus.getDeliveredCount());
+
+        // after the delivery the key starts over
+        bus.publish(notification("chat", "101"));
+        bus.flush();
+        assertEquals(2, batches.size());
+        assertEquals("101", batches.get(1).get(0).getText());
+    }
+
+    @Test
+    public void publishSnapshot_bufferedEvents_snapshotSupersedesNotificationsOnly() {
+        final MirrorEventBus bus = new MirrorEventBus(16, 60_000);
+        final List<String> delivered = new ArrayList<>();
+        bus.subscribe(new MirrorEventBus.Consumer() {
+
+            @Override
+            public void onEvents(final List<MirrorEvent> events) {
+                for (final MirrorEvent event : events) {
+                    delivered.add("event " + event.getText());
+                }
+            }
+
+            @Override
+            public void onSnapshot(final List<MirrorEvent> events) {
+                for (final MirrorEvent event : events) {
+                    delivered.add("snapshot " + event.getText());
+                }
+            }
+        });
+
+        bus.publish(notification("chat", "stale"));
+        bus.publish(new MirrorEvent(MirrorEvent.Type.SMS, "sms", "", "", "+49 170", "sms", null, 1));
+        bus.publishSnapshot(Arrays.asList(notification("chat", "current"), notification("mail", "inbox")));
+        bus.publish(notification("chat", "newer"));
+        bus.flush();
+
+        assertEquals("[snapshot current, snapshot inbox, event sms, event newer]", delivered.toString());
+        assertEquals(4, bus.getDeliveredCount());
+    }
+
+    @Test
+    public void publish_fullBuffer_dropsOldest() {
+        final MirrorEventBus bus = new MirrorEventBus(4, 60_000);
+        final List<MirrorEvent> delivered = new ArrayList<>();
+        bus.subscribe(delivered::addAll);
+
+        for (int i = 0; i < 10; i++) {
+            bus.publish(notification(null, String.valueOf(i)));
+        }
+        bus.publish(notification("late", "x"));
+        bus.flush();
+
+        assertEquals(4, delivered.size());
+        assertEquals("7", delivered.get(0).getText());
+        assertEquals("x", delivered.get(3).getText());
+        assertEquals(7, bus.getDroppedCount());
+    }
+
+    @Test
+    public void subscribe_deliversAtCadence() throws InterruptedException {
+        final MirrorEventBus bus = new MirrorEventBus(64, 20);
+        final CountDownLatch received = new CountDownLatch(50);
+        final List<Integer> batchSizes = new ArrayList<>();
+        bus.subscribe(events -> {
+            synchronized (batchSizes) {
+                batchSizes.add(events.size());
+            }
+            for (int i = 0; i < events.size(); i++) {
+                received.countDown();
+            }
+        });
+        for (int i = 0; i < 50; i++) {
+            bus.publish(notification(null, String.valueOf(i)));
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        synchronized (batchSizes) {
+            assertTrue("a burst is delivered in a few batches, got " + batchSizes, batchSizes.size() < 50);
+        }
+    }
+
+    @Test
+    public void flush_failingConsumer_countedAndOthersStillReceive() {
+        final MirrorEventBus bus = new MirrorEventBus(64, 60_000);
+        final IllegalStateException failure = new IllegalStateException("broken consumer");
+        final List<MirrorEvent> received = new ArrayList<>();
+        final MirrorEventBus.Consumer broken = events -> {
+            throw failure;
+        };
+        final MirrorEventBus.Consumer working = received::addAll;
+        bus.subscribe(broken);
+        bus.subscribe(working);
+        bus.publish(notification("a", "1"));
+        bus.publish(notification("b", "2"));
+        bus.flush();
+
+        assertEquals(2, received.size());
+        assertEquals(1, bus.getFailedCount());
+        assertSame(failure, bus.getLastFailure());
+
+        bus.unsubscribe(broken);
+        assertTrue(bus.isDelivering());
+        bus.unsubscribe(working);
+        assertFalse(bus.isDelivering());
+    }
+}
@@ -0,0 +1,102 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationFilterTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long MIDNIGHT = 1_500_076_800_000L; // 2017-07-15T00:00Z
+
+    private static long at(final int hours, final int minutes) {
+        return MIDNIGHT + (hours * 60L + minutes) * 60_000L;
+    }
+
+    @Test
+    public void fromPreferences_packagesAndQuietHours_rejectsBeforeTextIsNeeded() {
+        final Map<String, Object> preferences = new HashMap<>();
+        assertSame(NotificationFilter.ACCEPT_ALL, NotificationFilter.fromPreferences(preferences, UTC));
+
+        preferences.put(NotificationFilter.PREF_ENABLED, true);
+        preferences.put(NotificationFilter.PREF_ALLOWED_PACKAGES, "com.whatsapp, org.telegram.messenger\ncom.google.android.gm");
+        preferences.put(NotificationFilter.PREF_DENIED_PACKAGES, "com.google.android.gm");
+        preferences.put(NotificationFilter.PREF_QUIET_FROM, "22:30");
+        preferences.put(NotificationFilter.PREF_QUIET_UNTIL, "07:00");
+        final NotificationFilter filter = NotificationFilter.fromPreferences(preferences, UTC);
+
+        assertTrue(filter.acceptsPackage("com.whatsapp", at(12, 0)));
+        assertTrue(filter.acceptsPackage("org.telegram.messenger", at(22, 29)));
+        assertFalse(filter.acceptsPackage("com.google.android.gm", at(12, 0)));
+        assertFalse(filter.acceptsPackage("com.facebook.katana", at(12, 0)));
+        assertFalse(filter.acceptsPackage("com.whatsapp", at(22, 30)));
+        assertFalse(filter.acceptsPackage("com.whatsapp", at(3, 0)));
+        assertTrue(filter.acceptsPackage("com.whatsapp", at(7, 0)));
+        // no keywords configured
+        assertTrue(filter.acceptsText(null, null, null));
+    }
+
+    @Test
+    public void acceptsText_overlappingKeywords_matchesCaseInsensitiveInAnyText() {
+        final NotificationFilter filter = NotificationFilter.compile(Collections.<String> emptyList(), Collections.<String> emptyList(),
+                Arrays.asList("he", "she", "his", "hers", "Paket", "  ", "Büro"), -1, -1, UTC);
+
+        assertEquals(6, filter.getRuleCount());
+        assertTrue(filter.acceptsText(null, "USHERS", null));
+        assertTrue(filter.acceptsText("", "", "Ihr paket kommt"));
+        assertTrue(filter.acceptsText("Im BÜRO", null, ""));
+        assertTrue(filter.acceptsText(null, null, "this"));
+        assertFalse(filter.acceptsText("Pake", "Bur", "hi s"));
+        assertFalse(filter.acceptsText(null, null, null));
+    }
+
+    @Test
+    public void benchmark_tenThousandRules_rejectsInMicroseconds() {
+        final List<String> denied = new ArrayList<>();
+        final List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            denied.add("com.example.app" + i);
+            keywords.add("keyword" + i + "x");
+        }
+        final long compileStart = System.nanoTime();
+        final NotificationFilter filter = NotificationFilter.compile(Collections.<String> emptyList(), denied, keywords, 22 * 60, 7 * 60, UTC);
+        final long compileMicros = (System.nanoTime() - compileStart) / 1000;
+        assertEquals(10000, filter.getRuleCount());
+
+        final String[] packages = new String[1000];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = i % 2 == 0 ? "com.example.app" + i * 5 : "org.other.app" + i;
+        }
+        final String title = "Alice sent you a message";
+        final String text = "Do you still have the keyword4999 notes from yesterday's meeting? Otherwise keyword12x is fine too";
+
+        int accepted = 0;
+        long nanosPerNotification = 0;
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            accepted = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < 100_000; i++) {
+                if (filter.acceptsPackage(packages[i % packages.length], at(12, 0)) && filter.acceptsText(null, title, text)) {
+                    accepted++;
+                }
+            }
+            nanosPerNotification = (System.nanoTime() - start) / 100_000;
+        }
+        assertEquals(50_000, accepted);
+        assertTrue("compiled in " + compileMicros + " microseconds", compileMicros < 1_000_000);
+        assertTrue(nanosPerNotification + " ns per notification", nanosPerNotification < 20_000);
+    }
+}
@@ -0,0 +1,76 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NotificationIconCacheTest {
+
+    @Test
+    public void get_sameAvatarFiftyTimes_transcodesOnce() throws Exception {
+        final NotificationIconCache cache = new NotificationIconCache(NotificationIconCache.DEFAULT_MAX_BYTES);
+        final AtomicInteger transcodings = new AtomicInteger();
+        final NotificationIconCache.Transcoder transcoder = () -> {
+            transcodings.incrementAndGet();
+            return new byte[] { 1, 2, 3 };
+        };
+
+        final NotificationIconCache.Handle first = cache.get("com.example.chat", 42, transcoder);
+        for (int i = 1; i < 50; i++) {
+            assertSame(first, cache.get("com.example.chat", 42, transcoder));
+        }
+        assertArrayEquals(new byte[] { 1, 2, 3 }, first.getIcon().get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, transcodings.get());
+        assertEquals(49, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.98, cache.getHitRate(), 1e-9);
+        assertEquals(3, cache.getUsedBytes());
+        // same fingerprint of another app is another icon
+        assertNotSame(first, cache.get("com.example.mail", 42, transcoder));
+    }
+
+    @Test
+    public void get_overBudget_evictsLeastRecentlyUsed() throws Exception {
+        final NotificationIconCache cache = new NotificationIconCache(250);
+        final NotificationIconCache.Handle a = cache.get("a", 1, () -> new byte[100]);
+        final NotificationIconCache.Handle b = cache.get("b", 1, () -> new byte[100]);
+        a.getIcon().get(5, TimeUnit.SECONDS);
+        b.getIcon().get(5, TimeUnit.SECONDS);
+        // touch a, so b is the eldest
+        cache.get("a", 1, () -> new byte[100]);
+        cache.get("c", 1, () -> new byte[100]).getIcon().get(5, TimeUnit.SECONDS);
+
+        assertEquals(200, cache.getUsedBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, cache.get("a", 1, () -> new byte[100]));
+        assertNotSame(b, cache.get("b", 1, () -> new byte[100]));
+    }
+
+    @Test
+    public void get_failingTranscoder_completesExceptionallyAndIsRetried() throws Exception {
+        final NotificationIconCache cache = new NotificationIconCache(1024);
+        final NotificationIconCache.Handle failed = cache.get("a", 1, () -> {
+            throw new IOException("broken bitmap");
+        });
+        try {
+            failed.getIcon().get(5, TimeUnit.SECONDS);
+            fail("transcoding failure expected");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        final NotificationIconCache.Handle retried = cache.get("a", 1, () -> new byte[10]);
+        assertNotSame(failed, retried);
+        assertEquals(10, retried.getIcon().get(5, TimeUnit.SECONDS).length);
+    }
+}
@@ -0,0 +1,68 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationStateTableTest {
+
+    @Test
+    public void posted_progressReposts_sendOnlyChangesAndSuppressNoOps() {
+        final NotificationStateTable table = new NotificationStateTable();
+
+        final MirrorEvent first = table.posted("0|com.example|1", "com.example", "", "Download", "10%", null, 1);
+        assertTrue(first.isComplete());
+
+        assertNull(table.posted("0|com.example|1", "com.example", "", "Download", "10%", null, 2));
+
+        final MirrorEvent progress = table.posted("0|com.example|1", "com.example", "", "Download", "20%", null, 3);
+        assertEquals(EnumSet.of(MirrorEvent.Field.TEXT), progress.getChangedFields());
+        assertEquals("20%", progress.getText());
+        assertNull(progress.getTitle());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void removed_knownNotification_producesTombstone() {
+        final NotificationStateTable table = new NotificationStateTable();
+        table.posted("k", "com.example", "", "Title", "Text", null, 1);
+
+        final MirrorEvent tombstone = table.removed("k", "com.example", 2);
+        assertTrue(tombstone.isRemoved());
+        assertEquals("k", tombstone.getKey());
+        assertEquals(0, table.size());
+        assertNull(table.removed("k", "com.example", 3));
+        // a re-post after the removal is a new notification
+        assertTrue(table.posted("k", "com.example", "", "Title", "Text", null, 4).isComplete());
+    }
+
+    @Test
+    public void publish_pendingChanges_areMergedWithoutLosingFields() {
+        final NotificationStateTable table = new NotificationStateTable();
+        final MirrorEventBus bus = new MirrorEventBus(16, 60_000);
+        final List<MirrorEvent> delivered = new ArrayList<>();
+        bus.subscribe(delivered::addAll);
+        table.posted("k", "com.example", "", "Title", "Text", null, 1);
+
+        bus.publish(table.posted("k", "com.example", "", "New title", "Text", null, 2));
+        bus.publish(table.posted("k", "com.example", "", "New title", "New text", null, 3));
+        bus.flush();
+
+        assertEquals(1, delivered.size());
+        final MirrorEvent merged = delivered.get(0);
+        assertEquals(EnumSet.of(MirrorEvent.Field.TITLE, MirrorEvent.Field.TEXT), merged.getChangedFields());
+        assertEquals("New title", merged.getTitle());
+        assertEquals("New text", merged.getText());
+
+        bus.publish(table.posted("k", "com.example", "", "Title 3", "New text", null, 4));
+        bus.publish(table.removed("k", "com.example", 5));
+        bus.flush();
+        assertTrue(delivered.get(1).isRemoved());
+    }
+}
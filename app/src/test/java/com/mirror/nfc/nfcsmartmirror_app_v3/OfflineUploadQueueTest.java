@@ -0,0 +1,204 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineUploadQueueTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private File directory;
+
+    private final AtomicLong now = new AtomicLong(1_500_000_000_000L);
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("offline").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    private OfflineUploadQueue open(final long maxBytes) throws IOException {
+        return new OfflineUploadQueue(this.directory, maxBytes, this.now::get);
+    }
+
+    private static StaticResourceUploader.InputStreamSupplier content(final String text) {
+        return () -> new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final StaticResourceUploader.InputStreamSupplier supplier) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final InputStream in = supplier.get()) {
+            final byte[] buffer = new byte[64];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void flush_afterReopen_sendsByPriorityAndDropsExpired() throws Exception {
+        OfflineUploadQueue queue = open(1024 * 1024);
+        queue.enqueuePatch("feed", MirrorEvent.changes(MirrorEvent.Type.NOTIFICATION, "k", "com.example", null, "Alice", null,
+                NotificationIconCache.Handle.detached("icons/com.example-1f.webp"), 1, EnumSet.of(MirrorEvent.Field.TITLE, MirrorEvent.Field.ICON)), HOUR);
+        queue.enqueueUpload(content("body { }"), "css/style.css", null, false, false, HOUR);
+        queue.enqueuePatch("feed", MirrorEvent.tombstone(MirrorEvent.Type.NOTIFICATION, "old", "com.example", 2), 1000);
+        queue.enqueueUpload(content("icon"), "icon.png", "feed", false, true, HOUR);
+        queue.enqueueUpload(content("<html>ä</html>"), "index.html", "feed", true, false, HOUR);
+        assertEquals(5, queue.size());
+
+        this.now.addAndGet(2000);
+        queue = open(1024 * 1024);
+        assertEquals(4, queue.size());
+
+        final List<String> sent = new ArrayList<>();
+        final OfflineUploadQueue.FlushResult result = queue.flush(entry -> {
+            if (entry.isPatch()) {
+                sent.add("patch " + entry.getEvent().getKey() + " " + entry.getEvent().getTitle() + " " + entry.getEvent().getIcon().getPath() + " "
+                        + entry.getEvent().getChangedFields());
+            }
+            else {
+                sent.add(entry.getPriority() + " " + entry.getPath() + " " + read(entry.getContent()));
+            }
+        }, 10, 0);
+
+        assertEquals(4, result.getSent());
+        assertEquals(0, result.getRemaining());
+        assertEquals("[MAIN_PAGE index.html <html>ä</html>, ICON icon.png icon, RESOURCE css/style.css body { }, patch k Alice icons/com.example-1f.webp [TITLE, ICON]]",
+                sent.toString());
+        assertEquals(0, queue.getUsedBytes());
+        assertEquals(0, this.directory.listFiles().length);
+    }
+
+    @Test
+    public void enqueue_overBudget_evictsLowestPriorityFirst() throws Exception {
+        final OfflineUploadQueue queue = open(1024);
+        final StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            page.append('x');
+        }
+        for (int i = 0; i < 10; i++) {
+            this.now.incrementAndGet();
+            assertTrue(queue.enqueuePatch("feed", new MirrorEvent(MirrorEvent.Type.SMS, "sms:" + i, "", "+49 170", "+49 170", "message " + i, null, i),
+                    HOUR));
+        }
+        final int patches = queue.size();
+        assertTrue(queue.getUsedBytes() <= 1024);
+
+        assertTrue(queue.enqueueUpload(content(page.toString()), "index.html", "feed", true, false, HOUR));
+        assertTrue(queue.enqueueUpload(content(page.toString()), "icon.png", "feed", false, true, HOUR));
+        assertTrue(queue.getUsedBytes() <= 1024);
+        assertTrue(queue.getEvictedCount() > 0);
+        assertEquals(patches + 2 - queue.getEvictedCount(), queue.size());
+
+        // a second main page evicts the icon, a resource can't evict either main page
+        assertTrue(queue.enqueueUpload(content(page.toString()), "other.html", "other", true, false, HOUR));
+        assertFalse(queue.enqueueUpload(content(page.toString()), "style.css", null, false, false, HOUR));
+        final List<String> kept = new ArrayList<>();
+        queue.flush(entry -> kept.add(entry.isPatch() ? entry.getEvent().getKey() : entry.getPath()), 100, 0);
+        assertEquals("index.html", kept.get(0));
+        assertEquals("other.html", kept.get(1));
+        assertFalse(kept.contains("icon.png"));
+        assertFalse(kept.contains("style.css"));
+        assertFalse(kept.contains("sms:0"));
+    }
+
+    @Test
+    public void flush_mirrorDownAgain_stopsAndKeepsRemainingEntriesInBatches() throws Exception {
+        final OfflineUploadQueue queue = open(1024 * 1024);
+        for (int i = 0; i < 6; i++) {
+            queue.enqueueUpload(content("resource " + i), "r" + i + ".txt", null, false, false, HOUR);
+        }
+
+        final List<String> sent = new ArrayList<>();
+        final long start = System.nanoTime();
+        final OfflineUploadQueue.FlushResult result = queue.flush(entry -> {
+            if (entry.getPath().equals("r0.txt")) {
+                throw new UploadException(UploadException.Reason.REJECTED, "rejected", 1, 0, null);
+            }
+            if (entry.getPath().equals("r5.txt")) {
+                throw new UploadException(UploadException.Reason.UNREACHABLE, "down", 3, 0, null);
+            }
+            sent.add(entry.getPath());
+        }, 2, 50);
+        final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(4, result.getSent());
+        assertEquals(1, result.getRejected());
+        assertEquals(1, result.getRemaining());
+        assertEquals("[r1.txt, r2.txt, r3.txt, r4.txt]", sent.toString());
+        // six attempts in batches of two pause twice
+        assertTrue("flush took " + elapsedMillis + " ms", elapsedMillis >= 100);
+        assertEquals(1, this.directory.listFiles().length);
+    }
+
+    @Test
+    public void enqueueUpload_samePathAgain_keepsOnlyNewestRevision() throws Exception {
+        final OfflineUploadQueue queue = open(1024 * 1024);
+        queue.enqueueUpload(content("<html>old</html>"), "index.html", "feed", true, false, HOUR);
+        queue.enqueueUpload(content("body { }"), "css/style.css", null, false, false, HOUR);
+        queue.enqueueUpload(content("<html>new</html>"), "index.html", "feed", true, false, HOUR);
+        assertEquals(2, queue.size());
+
+        // the stylesheet is uploaded again anyway
+        assertEquals(1, queue.removeUploads(Collections.singleton("css/style.css")));
+        final List<String> sent = new ArrayList<>();
+        queue.flush(entry -> sent.add(entry.getPath() + " " + read(entry.getContent())), 10, 0);
+        assertEquals("[index.html <html>new</html>]", sent.toString());
+        assertEquals(0, this.directory.listFiles().length);
+    }
+
+    @Test
+    public void flush_entryCantBeDelivered_droppedAndLaterEntriesSent() throws Exception {
+        final OfflineUploadQueue queue = open(1024 * 1024);
+        for (int i = 0; i < 4; i++) {
+            queue.enqueueUpload(content("resource " + i), "r" + i + ".txt", null, false, false, HOUR);
+        }
+
+        final List<String> sent = new ArrayList<>();
+        final OfflineUploadQueue.FlushResult result = queue.flush(entry -> {
+            if (entry.getPath().equals("r0.txt")) {
+                throw new UploadException(UploadException.Reason.SOURCE_UNAVAILABLE, "source gone", 1, 0, null);
+            }
+            if (entry.getPath().equals("r1.txt")) {
+                throw new IllegalStateException("broken entry");
+            }
+            sent.add(entry.getPath());
+        }, 10, 0);
+
+        assertEquals(2, result.getSent());
+        assertEquals(2, result.getRejected());
+        assertEquals(0, result.getRemaining());
+        assertEquals("[r2.txt, r3.txt]", sent.toString());
+        assertEquals(0, this.directory.listFiles().length);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuoteRotationTest {
+
+    private LocalMirrorServer mirror;
+    private ViewRegistrator registrator;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mirror = new LocalMirrorServer();
+        this.registrator = new ViewRegistrator("test-app", "test-user");
+        this.registrator.mirrorAvailable("hall", this.mirror.getApiUrl());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.mirror.close();
+    }
+
+    private List<String> pages() {
+        final List<String> pages = new ArrayList<>();
+        for (final LocalMirrorServer.Request request : this.mirror.getRequests()) {
+            if ("quotes/quote.html".equals(request.query.get("filePath"))) {
+                pages.add(new String(request.body, StandardCharsets.UTF_8));
+            }
+        }
+        return pages;
+    }
+
+    private void awaitPages(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pages().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pages().size());
+    }
+
+    @Test
+    public void showNext_sequentialOrder_publishesPagesRenderedAhead() throws Exception {
+        final QuoteStore store = QuoteStore.load(new ByteArrayInputStream("Goethe;Erstes\nSokrates;Zweites <b>\n;Drittes\n".getBytes(StandardCharsets.UTF_8)));
+        final QuoteRotation rotation = new QuoteRotation(store, this.registrator, "quotes", QuoteRotation.Order.SEQUENTIAL, new Random(1), 2);
+        assertEquals(-1, rotation.getCurrentIndex());
+
+        assertEquals(0, rotation.showNext());
+        assertEquals(2, rotation.getPrefetchedCount());
+        assertEquals(1, rotation.showNext());
+        assertEquals(2, rotation.showNext());
+        assertEquals(0, rotation.showNext());
+        // the uploads of the page run one after another, so the mirror receives the pages in order
+        awaitPages(4);
+        assertEquals(0, rotation.getCurrentIndex());
+        assertEquals(2, rotation.getPrefetchedCount());
+        // the prepared page replaces the one rendered from the view's values
+        assertFalse(this.registrator.isDirty("quotes"));
+
+        final List<String> pages = pages();
+        assertTrue(pages.get(0).contains("<p>Erstes</p>"));
+        assertTrue(pages.get(0).contains("Goethe"));
+        assertTrue(pages.get(1).contains("<p>Zweites &lt;b&gt;</p>"));
+        assertTrue(pages.get(2).contains("<cite title=\"Source Title\"></cite>"));
+        assertEquals(pages.get(0), pages.get(3));
+    }
+}
@@ -0,0 +1,119 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuoteStoreTest {
+
+    private static QuoteStore load(final byte[] corpus) throws IOException {
+        return QuoteStore.load(new ByteArrayInputStream(corpus));
+    }
+
+    @Test
+    public void load_separatorsLineBreaksAndByteOrderMark_packsEntries() throws IOException {
+        final ByteArrayOutputStream corpus = new ByteArrayOutputStream();
+        corpus.write(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF });
+        corpus.write(("Goethe;Entscheide lieber ungefähr richtig, als genau falsch.\r\n"
+                + "\n"
+                + ";Wer kämpft, der kann verlieren.\n"
+                + "Winston Churchill;Drei Sorten: solche; solche; und solche.\n"
+                + "Ohne Autor\n"
+                + "Sokrates;Sei, was du scheinen willst.").getBytes(StandardCharsets.UTF_8));
+        final QuoteStore store = load(corpus.toByteArray());
+
+        assertEquals(5, store.size());
+        assertEquals("Goethe", store.getAuthor(0));
+        assertEquals("Entscheide lieber ungefähr richtig, als genau falsch.", store.getText(0));
+        assertEquals("", store.getAuthor(1));
+        assertEquals("Wer kämpft, der kann verlieren.", store.getText(1));
+        assertEquals("Drei Sorten: solche; solche; und solche.", store.getQuote(2).getQuote());
+        assertEquals("", store.getAuthor(3));
+        assertEquals("Ohne Autor", store.getText(3));
+        assertEquals("Sokrates", store.getQuote(4).getAuthor());
+        assertEquals("Sei, was du scheinen willst.", store.getText(4));
+
+        assertEquals(0, store.nextIndex(-1));
+        assertEquals(3, store.nextIndex(2));
+        assertEquals(0, store.nextIndex(4));
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            assertNotEquals(2, store.randomIndex(random, 2));
+        }
+    }
+
+    @Test
+    public void loadResource_shippedCorpus_everyQuoteHasText() throws IOException {
+        final QuoteStore store = QuoteStore.loadResource(QuoteStore.class.getClassLoader());
+
+        assertTrue(store.size() > 200);
+        for (int i = 0; i < store.size(); i++) {
+            assertTrue("quote " + i, !store.getText(i).isEmpty());
+        }
+    }
+
+    @Test
+    public void benchmark_hundredThousandQuotes_packedAndPickedInConstantTime() throws IOException {
+        final int count = 100_000;
+        final InputStream corpus = new InputStream() {
+
+            private byte[] line = new byte[0];
+            private int position;
+            private int lines;
+
+            @Override
+            public int read() {
+                if (this.position == this.line.length) {
+                    if (this.lines == count) {
+                        return -1;
+                    }
+                    this.line = ("Autor " + this.lines + ";Zitat Nummer " + this.lines + ", über Größe und Maß.\n").getBytes(StandardCharsets.UTF_8);
+                    this.position = 0;
+                    this.lines++;
+                }
+                return this.line[this.position++] & 0xFF;
+            }
+        };
+        final long loadStart = System.nanoTime();
+        final QuoteStore store = QuoteStore.load(corpus);
+        final long loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+        assertEquals(count, store.size());
+        assertEquals("Autor 99999", store.getAuthor(count - 1));
+        assertEquals("Zitat Nummer 50000, über Größe und Maß.", store.getText(50_000));
+        // separators and line breaks aren't stored
+        long corpusSize = 0;
+        for (int i = 0; i < count; i++) {
+            corpusSize += ("Autor " + i + ";Zitat Nummer " + i + ", über Größe und Maß.\n").getBytes(StandardCharsets.UTF_8).length;
+        }
+        assertEquals(corpusSize - 2 * count, store.getArenaSize());
+
+        final Random random = new Random(7);
+        final Set<Integer> picked = new HashSet<>();
+        int index = -1;
+        long length = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            index = store.randomIndex(random, index);
+            if (i < 1000) {
+                picked.add(index);
+            }
+            length += store.getText(index).length();
+        }
+        final long nanosPerPick = (System.nanoTime() - start) / 100_000;
+        assertTrue(length > 0);
+        assertTrue(picked.size() > 990);
+        assertTrue("loaded in " + loadMillis + " ms", loadMillis < 10_000);
+        assertTrue(nanosPerPick + " ns per pick and decode", nanosPerPick < 50_000);
+    }
+}
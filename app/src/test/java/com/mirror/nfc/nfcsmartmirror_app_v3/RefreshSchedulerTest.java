@@ -0,0 +1,101 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class RefreshSchedulerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> refreshes = new ArrayList<>();
+
+    private RefreshScheduler scheduler(final int burst, final long refillMillis) {
+        return new RefreshScheduler(250, 1000, burst, refillMillis, this.clock::get, null);
+    }
+
+    private RefreshScheduler.Refresher recorder() {
+        return viewId -> this.refreshes.add(this.clock.get() + " " + viewId);
+    }
+
+    /**
+     * Advances the virtual clock millisecond by millisecond and runs the scheduler whenever a refresh is due.
+     */
+    private void runUntil(final RefreshScheduler scheduler, final long end) {
+        while (this.clock.get() < end) {
+            this.clock.incrementAndGet();
+            if (scheduler.getNextRunTime() <= this.clock.get()) {
+                scheduler.runDue();
+            }
+        }
+    }
+
+    @Test
+    public void request_burstOfThirtyMessages_refreshedOncePerMaxLatency() {
+        final RefreshScheduler scheduler = scheduler(4, 500);
+        scheduler.register("sms", RefreshScheduler.Priority.NORMAL, recorder());
+
+        // 30 messages within two seconds
+        for (int i = 0; i < 30; i++) {
+            runUntil(scheduler, i * 66L);
+            scheduler.request("sms");
+        }
+        runUntil(scheduler, 3000);
+        // the debounce never expires during the burst, the maximum latency bounds the delay
+        assertEquals(Arrays.asList("1000 sms", "2056 sms"), this.refreshes);
+
+        // a single request waits for the debounce only
+        scheduler.request("sms");
+        runUntil(scheduler, 4000);
+        assertEquals("3250 sms", this.refreshes.get(2));
+        assertEquals(3, scheduler.getRefreshCount());
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(Long.MAX_VALUE, scheduler.getNextRunTime());
+    }
+
+    @Test
+    public void runDue_rateLimited_higherPrioritiesPreemptQuoteRotation() {
+        final RefreshScheduler scheduler = scheduler(2, 500);
+        scheduler.register("quotes", RefreshScheduler.Priority.BACKGROUND, recorder());
+        scheduler.register("notifications", RefreshScheduler.Priority.NORMAL, recorder());
+        scheduler.register("sms", RefreshScheduler.Priority.NORMAL, recorder());
+        scheduler.register("call", RefreshScheduler.Priority.URGENT, recorder());
+
+        scheduler.request("quotes");
+        scheduler.request("notifications");
+        scheduler.request("sms");
+        scheduler.request("call");
+        runUntil(scheduler, 800);
+        // the call comes in again while the quote is still waiting for a token
+        scheduler.request("call");
+        runUntil(scheduler, 3000);
+
+        assertEquals(Arrays.asList("250 call", "250 notifications", "750 sms", "1250 call", "1750 quotes"), this.refreshes);
+    }
+
+    @Test
+    public void runDue_failingRefresher_othersRefreshedAndViewRequestableAgain() {
+        final RefreshScheduler scheduler = scheduler(4, 500);
+        scheduler.register("broken", RefreshScheduler.Priority.URGENT, viewId -> {
+            throw new IOException("mirror gone");
+        });
+        scheduler.register("sms", RefreshScheduler.Priority.NORMAL, recorder());
+
+        scheduler.request("broken");
+        scheduler.request("sms");
+        runUntil(scheduler, 300);
+        assertEquals(Arrays.asList("250 sms"), this.refreshes);
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(1, scheduler.getFailureCount());
+        assertEquals("mirror gone", scheduler.getLastFailure().getMessage());
+
+        scheduler.request("broken");
+        assertEquals(1, scheduler.getPendingCount());
+        assertEquals(550, scheduler.getNextRunTime());
+    }
+}
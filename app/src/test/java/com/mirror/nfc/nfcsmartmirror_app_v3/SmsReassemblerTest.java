@@ -0,0 +1,119 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SmsReassemblerTest {
+
+    private static final String ADDRESS = "+491701234567";
+
+    /**
+     * Builds an SMS-DELIVER PDU as found in the {@code pdus} extra, with an optional concatenation header.
+     */
+    private static byte[] pdu(final int informationElement, final int reference, final int total, final int sequence) {
+        final ByteArrayOutputStream pdu = new ByteArrayOutputStream();
+        pdu.write(0x00); // no service center address
+        pdu.write(informationElement < 0 ? 0x04 : 0x44); // SMS-DELIVER, user data header indicator
+        pdu.write(12); // address digits
+        pdu.write(0x91);
+        pdu.write(new byte[] { (byte) 0x94, 0x71, 0x10, 0x32, 0x54, 0x76 }, 0, 6);
+        pdu.write(0x00); // protocol identifier
+        pdu.write(0x04); // 8 bit data
+        pdu.write(new byte[7], 0, 7); // timestamp
+        if (informationElement < 0) {
+            pdu.write(2);
+            pdu.write('h');
+            pdu.write('i');
+            return pdu.toByteArray();
+        }
+        final boolean wide = informationElement == 0x08;
+        pdu.write(wide ? 9 : 8);
+        pdu.write(wide ? 6 : 5); // user data header length
+        pdu.write(informationElement);
+        if (wide) {
+            pdu.write(4);
+            pdu.write(reference >> 8);
+        }
+        else {
+            pdu.write(3);
+        }
+        pdu.write(reference & 0xFF);
+        pdu.write(total);
+        pdu.write(sequence);
+        pdu.write('x');
+        pdu.write('y');
+        return pdu.toByteArray();
+    }
+
+    @Test
+    public void parseConcatenation_readsEightAndSixteenBitReferences() {
+        final SmsReassembler.Concatenation narrow = SmsReassembler.parseConcatenation(pdu(0x00, 0x2A, 3, 2));
+        assertEquals(0x2A, narrow.reference);
+        assertEquals(3, narrow.total);
+        assertEquals(2, narrow.sequence);
+
+        final SmsReassembler.Concatenation wide = SmsReassembler.parseConcatenation(pdu(0x08, 0x1234, 4, 4));
+        assertEquals(0x1234, wide.reference);
+        assertEquals(4, wide.total);
+        assertEquals(4, wide.sequence);
+
+        assertNull(SmsReassembler.parseConcatenation(pdu(-1, 0, 0, 0)));
+        assertNull(SmsReassembler.parseConcatenation(new byte[] { 0x00, 0x44 }));
+    }
+
+    @Test
+    public void offer_partsOutOfOrder_emitsOneMessage() {
+        final SmsReassembler reassembler = new SmsReassembler(60_000);
+
+        assertNull(reassembler.offer(ADDRESS, "c", 1, pdu(0x00, 7, 3, 3)));
+        assertNull(reassembler.offer(ADDRESS, "a", 2, pdu(0x00, 7, 3, 1)));
+        // same reference from another sender is another message
+        assertNull(reassembler.offer("+4930123", "other", 2, pdu(0x00, 7, 3, 1)));
+        // duplicates are ignored
+        assertNull(reassembler.offer(ADDRESS, "a", 2, pdu(0x00, 7, 3, 1)));
+        final SmsReassembler.Message message = reassembler.offer(ADDRESS, "b", 3, pdu(0x00, 7, 3, 2));
+
+        assertNotNull(message);
+        assertEquals("abc", message.getBody());
+        assertEquals(ADDRESS, message.getAddress());
+        assertEquals(1, message.getTimestamp());
+        assertEquals(3, message.getParts());
+        assertTrue(message.isComplete());
+        assertEquals(1, reassembler.getPendingCount());
+    }
+
+    @Test
+    public void offer_singlePart_isEmittedImmediately() {
+        final SmsReassembler reassembler = new SmsReassembler(60_000);
+        final SmsReassembler.Message message = reassembler.offer(ADDRESS, "hi", 5, pdu(-1, 0, 0, 0));
+        assertEquals("hi", message.getBody());
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals("no pdu", reassembler.offer(ADDRESS, "no pdu", 5, null).getBody());
+    }
+
+    @Test
+    public void offer_missingPart_emitsReceivedPartsAfterTimeout() throws InterruptedException {
+        final SmsReassembler reassembler = new SmsReassembler(50);
+        final BlockingQueue<SmsReassembler.Message> timedOut = new ArrayBlockingQueue<>(1);
+        reassembler.setListener(timedOut::add);
+
+        assertNull(reassembler.offer(ADDRESS, "first ", 1, pdu(0x00, 9, 3, 1)));
+        assertNull(reassembler.offer(ADDRESS, "third", 1, pdu(0x00, 9, 3, 3)));
+
+        final SmsReassembler.Message message = timedOut.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("first third", message.getBody());
+        assertFalse(message.isComplete());
+        assertEquals(0, reassembler.getPendingCount());
+    }
+}
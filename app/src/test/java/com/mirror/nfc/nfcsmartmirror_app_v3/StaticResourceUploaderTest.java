@@ -0,0 +1,701 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads against a {@link LocalMirrorServer} on loopback.
+ */
+public class StaticResourceUploaderTest {
+
+    private static final String APP_ID = "test-app";
+    private static final String USER_ID = "test-user";
+
+    private LocalMirrorServer mirror;
+    private StaticResourceUploader uploader;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mirror = new LocalMirrorServer();
+        this.uploader = new StaticResourceUploader(this.mirror.getApiUrl(), APP_ID, USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mirror.close();
+    }
+
+    @Test
+    public void uploadResource_returnsServerPath() throws Exception {
+        final String path = this.uploader.uploadResource("hello".getBytes(StandardCharsets.UTF_8), "views/hello.html");
+
+        assertEquals("/apps/test-app/views/hello.html", path);
+        final LocalMirrorServer.Request request = this.mirror.getRequests().get(0);
+        assertEquals("/api/staticResourceUpload", request.path);
+        assertEquals(USER_ID, request.query.get("userId"));
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), request.body);
+    }
+
+    @Test
+    public void uploadAll_reportsFailuresPerFile() throws Exception {
+        final List<StaticResourceUploader.UploadJob> jobs = new ArrayList<>();
+        jobs.add(job("a.css"));
+        jobs.add(new StaticResourceUploader.UploadJob(() -> {
+            throw new IOException("resource missing");
+        }, "b.css"));
+        jobs.add(job("c.css"));
+
+        final List<StaticResourceUploader.UploadResult> results = this.uploader.uploadAll(jobs);
+
+        assertEquals(3, results.size());
+        assertEquals("/apps/test-app/a.css", results.get(0).getPath());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals(UploadException.Reason.SOURCE_UNAVAILABLE, results.get(1).getFailureReason());
+        assertEquals("resource missing", results.get(1).getError().getCause().getMessage());
+        assertSame(jobs.get(1), results.get(1).getJob());
+        assertEquals("/apps/test-app/c.css", results.get(2).getPath());
+    }
+
+    @Test
+    public void uploadAll_isFasterThanSerialUploadsOnSlowMirror() throws Exception {
+        this.mirror.setDelayMillis(50);
+        final List<StaticResourceUploader.UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            jobs.add(job("file" + i + ".js"));
+        }
+
+        final long serialStart = System.nanoTime();
+        for (final StaticResourceUploader.UploadJob job : jobs) {
+            assertNotNull(this.uploader.uploadResource(job.getInputStreamSupplier(), job.getUrlBasePath()));
+        }
+        final long serialNanos = System.nanoTime() - serialStart;
+
+        final long batchStart = System.nanoTime();
+        for (final StaticResourceUploader.UploadResult result : this.uploader.uploadAll(jobs)) {
+            assertTrue(result.isSuccess());
+        }
+        final long batchNanos = System.nanoTime() - batchStart;
+
+        assertTrue("serial " + serialNanos / 1000000 + " ms, batch " + batchNanos / 1000000 + " ms", batchNanos * 2 < serialNanos);
+    }
+
+    @Test
+    public void uploadResource_skipsUnchangedResourcesKnownToManifest() throws Exception {
+        final File manifestFile = File.createTempFile("upload-manifest", ".bin");
+        manifestFile.deleteOnExit();
+        assertTrue(manifestFile.delete());
+        this.uploader.setUploadManifest(new UploadManifest(manifestFile, 100));
+
+        this.uploader.uploadResource("v1".getBytes(StandardCharsets.UTF_8), "style.css");
+        this.uploader.uploadResource("v1".getBytes(StandardCharsets.UTF_8), "style.css");
+        assertEquals(1, this.mirror.getRequests().size());
+
+        this.uploader.uploadResource("v2".getBytes(StandardCharsets.UTF_8), "style.css");
+        assertEquals(2, this.mirror.getRequests().size());
+
+        // a new uploader instance picks up the persisted manifest
+        final StaticResourceUploader reconnected = new StaticResourceUploader(this.mirror.getApiUrl(), APP_ID, USER_ID);
+        reconnected.setUploadManifest(new UploadManifest(manifestFile, 100));
+        assertEquals("/apps/test-app/style.css", reconnected.uploadResource("v2".getBytes(StandardCharsets.UTF_8), "style.css"));
+        assertEquals(2, this.mirror.getRequests().size());
+
+        reconnected.invalidateUploadedResources();
+        reconnected.uploadResource("v2".getBytes(StandardCharsets.UTF_8), "style.css");
+        assertEquals(3, this.mirror.getRequests().size());
+    }
+
+    @Test
+    public void uploadResource_streamsWithFixedLengthOrChunks() throws Exception {
+        final byte[] content = "known size".getBytes(StandardCharsets.UTF_8);
+        this.uploader.uploadResource(content, "known.txt");
+        this.uploader.uploadResource(() -> new ByteArrayInputStream(content), "unknown.txt");
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(String.valueOf(content.length), requests.get(0).header("Content-Length"));
+        assertEquals("chunked", requests.get(1).header("Transfer-Encoding"));
+        assertArrayEquals(content, requests.get(1).body);
+    }
+
+    @Test
+    public void uploadResource_compressesOnlyTextResources() throws Exception {
+        final StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            html.append("<div class=\"quote\"><p>line ").append(i).append("</p></div>\n");
+        }
+        final byte[] htmlBytes = html.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] pngBytes = new byte[htmlBytes.length];
+
+        // compression is opt-in
+        this.uploader.uploadResource(htmlBytes, "views/plain.html");
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        this.uploader.uploadResource(htmlBytes, "views/sms.html");
+        this.uploader.uploadResource(pngBytes, "views/sms.png");
+        this.uploader.uploadResource("<p>tiny</p>".getBytes(StandardCharsets.UTF_8), "views/tiny.html");
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertNull(requests.get(0).header("Content-Encoding"));
+        assertEquals("gzip", requests.get(1).header("Content-Encoding"));
+        assertArrayEquals(htmlBytes, requests.get(1).body);
+        assertTrue(requests.get(1).bodyLength * 4 < htmlBytes.length);
+        assertNull(requests.get(2).header("Content-Encoding"));
+        assertNull(requests.get(3).header("Content-Encoding"));
+    }
+
+    @Test
+    public void uploadResource_mirrorRejectsGzip_sentUncompressedFromThenOn() throws Exception {
+        this.mirror.setHandler(request -> {
+            if ("gzip".equals(request.header("Content-Encoding"))) {
+                throw new LocalMirrorServer.StatusException(415, "unsupported content encoding");
+            }
+            return "/apps/test-app/" + request.query.get("filePath");
+        });
+        final StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            css.append(".line").append(i).append(" { color: white; }\n");
+        }
+        final byte[] cssBytes = css.toString().getBytes(StandardCharsets.UTF_8);
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        this.uploader.setRetryPolicy(RetryPolicy.NONE);
+
+        assertEquals("/apps/test-app/first.css", this.uploader.uploadResource(cssBytes, "first.css"));
+        assertEquals("/apps/test-app/second.css", this.uploader.uploadResource(cssBytes, "second.css"));
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals("gzip", requests.get(0).header("Content-Encoding"));
+        assertNull(requests.get(1).header("Content-Encoding"));
+        assertArrayEquals(cssBytes, requests.get(1).body);
+        assertNull(requests.get(2).header("Content-Encoding"));
+    }
+
+    @Test
+    public void uploadResource_mirrorRejectsUploadWith400_failsAsRejectedAndKeepsCompressing() throws Exception {
+        this.mirror.setHandler(request -> {
+            if (request.query.get("filePath").equals("first.css")) {
+                throw new LocalMirrorServer.StatusException(400, "view not registered");
+            }
+            return "/apps/test-app/" + request.query.get("filePath");
+        });
+        final StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            css.append(".line").append(i).append(" { color: white; }\n");
+        }
+        final byte[] cssBytes = css.toString().getBytes(StandardCharsets.UTF_8);
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        this.uploader.setRetryPolicy(RetryPolicy.NONE);
+
+        try {
+            this.uploader.uploadResource(cssBytes, "first.css");
+            fail("mirror rejects the upload");
+        } catch (final UploadException e) {
+            assertEquals(UploadException.Reason.REJECTED, e.getReason());
+        }
+        // without measurements of the loopback link, only the mirror's answer decides
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        assertEquals("/apps/test-app/second.css", this.uploader.uploadResource(cssBytes, "second.css"));
+
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("gzip", requests.get(0).header("Content-Encoding"));
+        assertEquals("gzip", requests.get(1).header("Content-Encoding"));
+    }
+
+    @Test
+    public void uploadResource_mirrorAnswers400NamingTheEncoding_sentUncompressed() throws Exception {
+        this.mirror.setHandler(request -> {
+            if ("gzip".equals(request.header("Content-Encoding"))) {
+                throw new LocalMirrorServer.StatusException(400, "Unknown Content-Encoding gzip");
+            }
+            return "/apps/test-app/" + request.query.get("filePath");
+        });
+        final StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            css.append(".line").append(i).append(" { color: white; }\n");
+        }
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        this.uploader.setRetryPolicy(RetryPolicy.NONE);
+
+        assertEquals("/apps/test-app/first.css", this.uploader.uploadResource(css.toString().getBytes(StandardCharsets.UTF_8), "first.css"));
+        final List<LocalMirrorServer.Request> requests = this.mirror.getRequests();
+        assertEquals(2, requests.size());
+        assertNull(requests.get(1).header("Content-Encoding"));
+    }
+
+    @Test
+    public void compressionPolicy_disablesItselfWhenCompressionCostsMoreThanItSaves() {
+        final CompressionPolicy policy = new CompressionPolicy();
+        assertTrue(policy.shouldCompress("style.css", 10000));
+
+        // 1 ms compressing to save 1000 bytes on a link sending 1000 bytes in 10 microseconds
+        policy.record(2000, 1000, 1000000, 10000);
+
+        assertFalse(policy.isEffective());
+        int compressed = 0;
+        for (int i = 0; i < 40; i++) {
+            if (policy.shouldCompress("style.css", 10000)) {
+                compressed++;
+            }
+        }
+        assertEquals(2, compressed);
+    }
+
+    @Test
+    public void uploadBundle_sendsAllResourcesInOneRequest() throws Exception {
+        this.mirror.setHandler(StaticResourceUploaderTest::answerBundle);
+        this.mirror.setDelayMillis(30);
+        final List<StaticResourceUploader.UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            jobs.add(job("views/file" + i + ".css"));
+        }
+        jobs.add(2, new StaticResourceUploader.UploadJob(() -> {
+            throw new IOException("resource missing");
+        }, "views/broken.css"));
+
+        final long bundleStart = System.nanoTime();
+        final List<StaticResourceUploader.UploadResult> results = this.uploader.uploadBundle(jobs);
+        final long bundleNanos = System.nanoTime() - bundleStart;
+
+        assertEquals(1, this.mirror.getRequests().size());
+        assertEquals("/api/staticResourceBundleUpload", this.mirror.getRequests().get(0).path);
+        assertEquals(21, results.size());
+        assertEquals("/apps/test-app/views/file0.css", results.get(0).getPath());
+        assertEquals(UploadException.Reason.SOURCE_UNAVAILABLE, results.get(2).getFailureReason());
+        assertEquals("/apps/test-app/views/file19.css", results.get(20).getPath());
+
+        this.mirror.setHandler(request -> "/apps/test-app/" + request.query.get("filePath"));
+        final long perFileStart = System.nanoTime();
+        jobs.remove(2);
+        for (final StaticResourceUploader.UploadJob job : jobs) {
+            this.uploader.uploadResource(job.getInputStreamSupplier(), job.getUrlBasePath());
+        }
+        final long perFileNanos = System.nanoTime() - perFileStart;
+        assertTrue("per file " + perFileNanos / 1000000 + " ms, bundle " + bundleNanos / 1000000 + " ms", bundleNanos * 5 < perFileNanos);
+    }
+
+    /**
+     * Mirror side of a bundle upload: registers every file listed in the manifest.
+     */
+    private static String answerBundle(final LocalMirrorServer.Request request) throws IOException {
+        final List<String> entries = new ArrayList<>();
+        String manifest = null;
+        try (final ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(request.body))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (StaticResourceUploader.BUNDLE_MANIFEST_ENTRY.equals(entry.getName())) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = zip.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    manifest = new String(out.toByteArray(), StandardCharsets.UTF_8);
+                }
+                else {
+                    entries.add(entry.getName());
+                }
+            }
+        }
+        assertNotNull(manifest);
+        final StringBuilder response = new StringBuilder();
+        for (final String line : manifest.split("\n")) {
+            final String filePath = URLDecoder.decode(line.split("\t")[0], "UTF-8");
+            assertTrue(entries.contains(filePath));
+            response.append("/apps/").append(request.query.get("appId")).append('/').append(filePath).append('\n');
+        }
+        return response.toString().trim();
+    }
+
+    @Test
+    public void uploadBundle_missingAndFailingResources_leftOutOfTheBundle() throws Exception {
+        final List<String> entries = new ArrayList<>();
+        this.mirror.setHandler(request -> {
+            try (final ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(request.body))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    entries.add(entry.getName());
+                }
+            }
+            return answerBundle(request);
+        });
+        final List<StaticResourceUploader.UploadJob> jobs = new ArrayList<>();
+        jobs.add(job("views/first.css"));
+        jobs.add(new StaticResourceUploader.UploadJob(() -> null, "views/missing.css"));
+        jobs.add(new StaticResourceUploader.UploadJob(() -> new InputStream() {
+
+            private int remaining = 64 * 1024;
+
+            @Override
+            public int read() throws IOException {
+                if (this.remaining-- == 0) {
+                    throw new IOException("storage unmounted");
+                }
+                return 'x';
+            }
+        }, "views/broken.js"));
+        jobs.add(job("views/last.css"));
+
+        final List<StaticResourceUploader.UploadResult> results = this.uploader.uploadBundle(jobs);
+
+        assertEquals("/apps/test-app/views/first.css", results.get(0).getPath());
+        assertEquals(UploadException.Reason.SOURCE_UNAVAILABLE, results.get(1).getFailureReason());
+        assertEquals(UploadException.Reason.SOURCE_UNAVAILABLE, results.get(2).getFailureReason());
+        assertEquals("storage unmounted", results.get(2).getError().getCause().getMessage());
+        assertEquals("/apps/test-app/views/last.css", results.get(3).getPath());
+        // the request with the half written entry never completed
+        assertEquals(1, this.mirror.getRequests().size());
+        assertEquals(3, entries.size());
+        assertEquals("views/first.css", entries.get(0));
+        assertEquals("views/last.css", entries.get(1));
+        assertEquals(StaticResourceUploader.BUNDLE_MANIFEST_ENTRY, entries.get(2));
+    }
+
+    @Test
+    public void uploadResource_resumesAtConfirmedOffsetAfterConnectionCuts() throws Exception {
+        final byte[] content = new byte[256 * 1024];
+        new Random(7).nextBytes(content);
+        final Map<String, ByteArrayOutputStream> received = new HashMap<>();
+        this.mirror.setHandler(request -> {
+            final String uploadId = request.query.get("uploadId");
+            synchronized (received) {
+                if (request.path.endsWith("/staticResourceUploadStatus")) {
+                    return received.containsKey(uploadId) ? String.valueOf(received.get(uploadId).size()) : "0";
+                }
+                final ByteArrayOutputStream stored = received.computeIfAbsent(uploadId, id -> new ByteArrayOutputStream());
+                assertEquals(stored.size(), Long.parseLong(request.query.get("offset")));
+                stored.write(request.body, 0, request.body.length);
+                return "/apps/test-app/" + request.query.get("filePath");
+            }
+        });
+        final Random faults = new Random(11);
+        final int[] cuts = { 0 };
+        this.mirror.setBodyCut(() -> cuts[0]++ < 3 ? faults.nextInt(64 * 1024) : -1);
+        this.uploader.setRetryPolicy(new RetryPolicy(5, 10, 50, 10000));
+
+        final String path = this.uploader.uploadResource(content, "media/video.bin");
+
+        assertEquals("/apps/test-app/media/video.bin", path);
+        assertEquals(1, received.size());
+        assertArrayEquals(content, received.values().iterator().next().toByteArray());
+        long sent = 0;
+        for (final LocalMirrorServer.Request request : this.mirror.getRequests()) {
+            sent += request.bodyLength;
+        }
+        assertTrue("resuming must not send the resource again", sent < content.length + 3 * 64 * 1024);
+    }
+
+    @Test
+    public void uploadResource_compressedResourceCut_restartsFromTheBeginning() throws Exception {
+        final StringBuilder html = new StringBuilder("<ul>\n");
+        final Random random = new Random(5);
+        while (html.length() < 256 * 1024) {
+            html.append("<li>").append(random.nextInt()).append("</li>\n");
+        }
+        final byte[] content = html.append("</ul>\n").toString().getBytes(StandardCharsets.UTF_8);
+        final Map<String, Long> received = new HashMap<>();
+        this.mirror.setHandler(request -> {
+            final String uploadId = request.query.get("uploadId");
+            synchronized (received) {
+                if (request.path.endsWith("/staticResourceUploadStatus")) {
+                    // like the mirror, count the bytes received on the wire
+                    return String.valueOf(received.getOrDefault(uploadId, 0L));
+                }
+                received.merge(uploadId, request.bodyLength, Long::sum);
+                return "/apps/test-app/" + request.query.get("filePath");
+            }
+        });
+        final Random faults = new Random(11);
+        final int[] cuts = { 0 };
+        this.mirror.setBodyCut(() -> cuts[0]++ < 3 ? faults.nextInt(16 * 1024) : -1);
+        this.uploader.setCompressionPolicy(new CompressionPolicy());
+        this.uploader.setRetryPolicy(new RetryPolicy(5, 10, 50, 10000));
+
+        final String path = this.uploader.uploadResource(content, "views/list.html");
+
+        assertEquals("/apps/test-app/views/list.html", path);
+        final List<LocalMirrorServer.Request> uploads = new ArrayList<>();
+        for (final LocalMirrorServer.Request request : this.mirror.getRequests()) {
+            if (request.path.endsWith("/staticResourceUpload")) {
+                uploads.add(request);
+            }
+        }
+        assertEquals(4, uploads.size());
+        for (final LocalMirrorServer.Request request : uploads) {
+            assertEquals("gzip", request.header("Content-Encoding"));
+            assertEquals("0", request.query.get("offset"));
+        }
+        final LocalMirrorServer.Request last = uploads.get(3);
+        assertFalse(last.truncated);
+        assertArrayEquals(content, last.body);
+        assertEquals(4, received.size());
+    }
+
+    @Test
+    public void uploadResource_reportsTypedFailureWhenRetryBudgetIsUsedUp() throws Exception {
+        this.mirror.setHandler(request -> {
+            throw new IOException("mirror busy");
+        });
+        this.uploader.setRetryPolicy(new RetryPolicy(3, 1, 5, 10000));
+
+        try {
+            this.uploader.uploadResource("x".getBytes(StandardCharsets.UTF_8), "x.bin");
+            fail("expected UploadException");
+        } catch (final UploadException e) {
+            assertEquals(UploadException.Reason.UNREACHABLE, e.getReason());
+            assertEquals(3, e.getAttempts());
+        }
+    }
+
+    @Test
+    public void uploadResource_mirrorStopsAnswering_attemptsTimeOutWithinBudget() throws Exception {
+        this.mirror.setDelayMillis(5000);
+        // two attempts of a second each
+        this.uploader.setRetryPolicy(new RetryPolicy(2, 1, 5, 2000));
+
+        final long start = System.nanoTime();
+        try {
+            this.uploader.uploadResource("x".getBytes(StandardCharsets.UTF_8), "x.bin");
+            fail("expected UploadException");
+        } catch (final UploadException e) {
+            assertEquals(UploadException.Reason.UNREACHABLE, e.getReason());
+            assertEquals(2, e.getAttempts());
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis + " ms", millis < 4000);
+    }
+
+    @Test
+    public void uploadAllAsync_completesOnceAllResourcesAreUploaded() throws Exception {
+        final List<StaticResourceUploader.UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            jobs.add(job("views/asset" + i + ".js"));
+        }
+
+        final List<StaticResourceUploader.UploadResult> results = this.uploader.uploadAllAsync(jobs).get(5, TimeUnit.SECONDS);
+
+        assertEquals(6, results.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("/apps/test-app/views/asset" + i + ".js", results.get(i).getPath());
+        }
+    }
+
+    @Test
+    public void uploadResourceAsync_failsWithTimeoutOnSlowMirror() throws Exception {
+        this.mirror.setDelayMillis(2000);
+        final CompletableFuture<String> future = this.uploader.uploadResourceAsync(job("slow.css").getInputStreamSupplier(), "slow.css", null, 100,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("expected timeout");
+        } catch (final ExecutionException e) {
+            assertEquals(UploadException.Reason.TIMED_OUT, ((UploadException) e.getCause()).getReason());
+        }
+    }
+
+    @Test
+    public void uploadResource_reusesPersistentConnection() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            this.uploader.uploadResource(("file " + i).getBytes(StandardCharsets.UTF_8), "pooled" + i + ".txt");
+        }
+        assertEquals(1, this.mirror.getConnectionCount());
+
+        this.uploader.setPersistentConnections(false);
+        for (int i = 0; i < 20; i++) {
+            this.uploader.uploadResource(("file " + i).getBytes(StandardCharsets.UTF_8), "closed" + i + ".txt");
+        }
+        // the first upload still takes the pooled connection and closes it afterwards
+        assertEquals(20, this.mirror.getConnectionCount());
+    }
+
+    @Test
+    public void uploadResource_persistentConnections_higherThroughputOnSlowConnectionSetup() throws Exception {
+        this.mirror.setConnectDelayMillis(10);
+        final int count = 40;
+
+        final long persistentStart = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            this.uploader.uploadResource(("file " + i).getBytes(StandardCharsets.UTF_8), "pooled" + i + ".txt");
+        }
+        final long persistentNanos = System.nanoTime() - persistentStart;
+        assertEquals(1, this.mirror.getConnectionCount());
+
+        this.uploader.setPersistentConnections(false);
+        final long closedStart = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            this.uploader.uploadResource(("file " + i).getBytes(StandardCharsets.UTF_8), "closed" + i + ".txt");
+        }
+        final long closedNanos = System.nanoTime() - closedStart;
+
+        final long persistentPerSecond = count * 1_000_000_000L / persistentNanos;
+        final long closedPerSecond = count * 1_000_000_000L / closedNanos;
+        assertTrue("persistent " + persistentPerSecond + " uploads/s, closed " + closedPerSecond + " uploads/s", persistentPerSecond > 3 * closedPerSecond);
+    }
+
+    @Test
+    public void uploadResource_file_sentWithFixedLength() throws Exception {
+        final File file = File.createTempFile("mirror-icon", ".png");
+        file.deleteOnExit();
+        final byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+
+        assertEquals("/apps/test-app/icon.png", this.uploader.uploadResource(file, "icon.png"));
+
+        final LocalMirrorServer.Request request = this.mirror.getRequests().get(0);
+        assertEquals(String.valueOf(content.length), request.header("Content-Length"));
+        assertArrayEquals(content, request.body);
+    }
+
+    @Test
+    public void uploadResource_largeFile_readMemoryMappedAndSentUnchanged() throws Exception {
+        final File file = File.createTempFile("mirror-photo", ".jpg");
+        file.deleteOnExit();
+        final byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+
+        assertEquals("/apps/test-app/photo.jpg", this.uploader.uploadResource(file, "photo.jpg"));
+
+        final LocalMirrorServer.Request request = this.mirror.getRequests().get(0);
+        assertEquals(String.valueOf(content.length), request.header("Content-Length"));
+        assertArrayEquals(content, request.body);
+    }
+
+    @Test
+    public void benchmark_largeFile_mappedReadsKeepUpWithStreamCopyInConstantMemory() throws Exception {
+        final int size = 64 * 1024 * 1024;
+        final File file = File.createTempFile("mirror-video", ".mp4");
+        file.deleteOnExit();
+        final byte[] block = new byte[1024 * 1024];
+        new Random(7).nextBytes(block);
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < size / block.length; i++) {
+                out.write(block);
+            }
+        }
+        this.mirror.setDiscardBodies(true);
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final URLConnectionFactory.UploadTarget target = new URLConnectionFactory.UploadTarget(this.mirror.getApiUrl(), APP_ID, USER_ID);
+        final StaticResourceUploader.InputStreamSupplier mapped = () -> new FileInputStream(file);
+        // the wrapper hides the file stream, so the upload takes the copy loop
+        final StaticResourceUploader.InputStreamSupplier stream = () -> new FilterInputStream(new FileInputStream(file)) {
+        };
+
+        long mappedNanos = Long.MAX_VALUE;
+        long streamNanos = Long.MAX_VALUE;
+        long mappedAllocated = Long.MAX_VALUE;
+        long streamAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < 4; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            StaticResourceUploader.upload(mapped, size, target.forFile("mapped.mp4", null, false, false, null, 0));
+            mappedNanos = Math.min(mappedNanos, System.nanoTime() - start);
+            mappedAllocated = Math.min(mappedAllocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+
+            allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            StaticResourceUploader.upload(stream, size, target.forFile("stream.mp4", null, false, false, null, 0));
+            streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+            streamAllocated = Math.min(streamAllocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        for (final LocalMirrorServer.Request request : this.mirror.getRequests()) {
+            assertEquals(size, request.bodyLength);
+        }
+
+        final String measured = String.format("mapped %d MB/s, %d bytes allocated; stream %d MB/s, %d bytes allocated",
+                size * 1000L / mappedNanos, mappedAllocated, size * 1000L / streamNanos, streamAllocated);
+        // neither path buffers the file, what they allocate is the connection's
+        assertTrue(measured, mappedAllocated < size / 100);
+        assertTrue(measured, streamAllocated < size / 100);
+        // about 10 % faster on a desktop JVM, loopback throughput varies between runs though
+        assertTrue(measured, mappedNanos < streamNanos * 3 / 2);
+    }
+
+    @Test
+    public void uploadResource_usesConstantMemoryForLargeResources() throws Exception {
+        final long size = 200L * 1024 * 1024;
+        this.mirror.setDiscardBodies(true);
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final String path = this.uploader.uploadResource(() -> new GeneratedInputStream(size), "large.bin");
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals("/apps/test-app/large.bin", path);
+        assertEquals(size, this.mirror.getRequests().get(0).bodyLength);
+        assertTrue("allocated " + allocated + " bytes", allocated < size / 100);
+    }
+
+    /**
+     * Produces the given number of bytes without holding them in memory.
+     */
+    private static final class GeneratedInputStream extends InputStream {
+
+        private long remaining;
+
+        GeneratedInputStream(final long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            this.remaining--;
+            return 'x';
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            final int read = (int) Math.min(length, this.remaining);
+            Arrays.fill(bytes, offset, offset + read, (byte) 'x');
+            this.remaining -= read;
+            return read;
+        }
+    }
+
+    private static StaticResourceUploader.UploadJob job(final String path) {
+        final byte[] content = ("content of " + path).getBytes(StandardCharsets.UTF_8);
+        return new StaticResourceUploader.UploadJob(() -> new ByteArrayInputStream(content), path);
+    }
+}
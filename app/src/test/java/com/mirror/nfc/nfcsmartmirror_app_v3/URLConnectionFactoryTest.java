@@ -0,0 +1,81 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+public class URLConnectionFactoryTest {
+
+    private static final String MIRROR = "http://192.168.0.10:8080/api";
+    private static final int FILES = 40;
+    private static final int ROUNDS = 1000;
+
+    @Test
+    public void uploadTarget_producesSameUrlParametersAsBuilder() throws Throwable {
+        final URLConnectionFactory.UploadTarget target = new URLConnectionFactory.UploadTarget(MIRROR, "mirror app", "user@home");
+
+        final URL url = target.forFile("views/sms view.html", "SMS View", true, false, null, 0).create().getURL();
+
+        assertEquals("/api/staticResourceUpload", url.getPath());
+        final String query = url.getQuery();
+        assertTrue(query, query.contains("appId=mirror+app"));
+        assertTrue(query, query.contains("userId=user%40home"));
+        assertTrue(query, query.contains("filePath=views%2Fsms+view.html"));
+        assertTrue(query, query.contains("appViewId=SMS+View"));
+        assertTrue(query, query.contains("mainPage=true"));
+        assertTrue(query, query.contains("icon=false"));
+    }
+
+    /**
+     * Microbenchmark: bytes allocated per connection factory when uploading the files of a view again and again.
+     */
+    @Test
+    public void uploadTarget_allocatesLessThanBuilderPerFactory() throws Throwable {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final URLConnectionFactory.UploadTarget target = new URLConnectionFactory.UploadTarget(MIRROR, "mirror-app", "user");
+        viaBuilder();
+        viaTarget(target);
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        viaBuilder();
+        final long builderBytes = (threads.getThreadAllocatedBytes(threadId) - start) / (FILES * ROUNDS);
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        viaTarget(target);
+        final long targetBytes = (threads.getThreadAllocatedBytes(threadId) - start) / (FILES * ROUNDS);
+
+        assertTrue("builder " + builderBytes + ", upload target " + targetBytes, targetBytes * 2 < builderBytes);
+    }
+
+    private static void viaBuilder() throws Throwable {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int file = 0; file < FILES; file++) {
+                final URLConnectionFactory.Builder builder = new URLConnectionFactory.Builder();
+                builder.setMirrorApiUrl(MIRROR);
+                builder.setAppId("mirror-app");
+                builder.setUserId("user");
+                builder.setAppViewId(null);
+                builder.setRelativeUrlFilePath("views/file" + file + ".html");
+                assertNotNull(builder.build());
+            }
+        }
+    }
+
+    private static void viaTarget(final URLConnectionFactory.UploadTarget target) throws Throwable {
+        final String[] paths = new String[FILES];
+        for (int file = 0; file < FILES; file++) {
+            paths[file] = "views/file" + file + ".html";
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int file = 0; file < FILES; file++) {
+                assertNotNull(target.forFile(paths[file], null, false, false, null, 0));
+            }
+        }
+    }
+}
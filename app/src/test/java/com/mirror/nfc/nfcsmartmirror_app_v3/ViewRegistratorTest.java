@@ -0,0 +1,559 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ViewRegistratorTest {
+
+    private static final byte[] PAGE = "<html>mirror</html>".getBytes(StandardCharsets.UTF_8);
+
+    private LocalMirrorServer hall;
+    private LocalMirrorServer kitchen;
+    private LocalMirrorServer office;
+    private File manifests;
+    private ViewRegistrator registrator;
+
+    @Before
+    public void setUp() throws IOException {
+        this.hall = new LocalMirrorServer();
+        this.kitchen = new LocalMirrorServer();
+        this.office = new LocalMirrorServer();
+        this.manifests = Files.createTempDirectory("manifests").toFile();
+        this.registrator = new ViewRegistrator("test-app", "test-user");
+        this.registrator.setManifestDirectory(this.manifests);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.hall.close();
+        this.kitchen.close();
+        this.office.close();
+        final File[] files = this.manifests.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.manifests.delete();
+    }
+
+    private static StaticResourceUploader.InputStreamSupplier page() {
+        return () -> new ByteArrayInputStream(PAGE);
+    }
+
+    private static int uploads(final LocalMirrorServer mirror) {
+        int uploads = 0;
+        for (final LocalMirrorServer.Request request : mirror.getRequests()) {
+            if (!request.path.endsWith("/viewData")) {
+                uploads++;
+            }
+        }
+        return uploads;
+    }
+
+    @Test
+    public void publishResource_slowAndFailingMirror_othersCompleteIndependently() throws Exception {
+        this.kitchen.setDelayMillis(1500);
+        this.office.setHandler(request -> {
+            throw new IOException("disk full");
+        });
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        this.registrator.mirrorAvailable("kitchen", this.kitchen.getApiUrl());
+        this.registrator.mirrorAvailable("office", this.office.getApiUrl());
+
+        final long start = System.nanoTime();
+        final Map<String, CompletableFuture<String>> results = this.registrator.publishResource(page(), "index.html",
+                new StaticResourceUploader.ResourceRegistrationConfig("feed", true, false));
+        assertEquals(3, results.size());
+
+        assertEquals("/apps/test-app/index.html", results.get("hall").get(1, TimeUnit.SECONDS));
+        final long hallMillis = (System.nanoTime() - start) / 1_000_000;
+        assertFalse(results.get("kitchen").isDone());
+        assertTrue("hall took " + hallMillis + " ms", hallMillis < 1000);
+
+        assertEquals("/apps/test-app/index.html", results.get("kitchen").get(5, TimeUnit.SECONDS));
+        try {
+            results.get("office").get(10, TimeUnit.SECONDS);
+            fail("upload to a failing mirror succeeded");
+        } catch (final ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof UploadException);
+        }
+
+        final Map<String, ViewRegistrator.MirrorStatus> status = this.registrator.getMirrorStatus();
+        assertEquals(1, status.get("hall").getUploadCount());
+        assertEquals(0, status.get("hall").getFailureCount());
+        assertEquals(1, status.get("kitchen").getUploadCount());
+        assertEquals(0, status.get("office").getUploadCount());
+        assertEquals(1, status.get("office").getFailureCount());
+        assertNotNull(status.get("office").getLastFailure());
+    }
+
+    @Test
+    public void mirrorAvailable_lateMirror_receivesPublishedResourcesWithDedupPerMirror() throws Exception {
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        this.registrator.publishResource(page(), "index.html", new StaticResourceUploader.ResourceRegistrationConfig("feed", true, false)).get("hall")
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(1, uploads(this.hall));
+
+        this.registrator.mirrorAvailable("kitchen", this.kitchen.getApiUrl()).get(5, TimeUnit.SECONDS);
+        assertEquals(1, uploads(this.kitchen));
+        // reporting a known mirror again changes nothing
+        this.registrator.mirrorAvailable("kitchen", this.kitchen.getApiUrl()).get(5, TimeUnit.SECONDS);
+        assertEquals(1, uploads(this.kitchen));
+
+        // unchanged content isn't transferred again, each mirror tracks its own uploads
+        for (final CompletableFuture<String> result : this.registrator.publishResource(page(), "index.html",
+                new StaticResourceUploader.ResourceRegistrationConfig("feed", true, false)).values()) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(1, uploads(this.hall));
+        assertEquals(1, uploads(this.kitchen));
+        assertEquals(2, this.manifests.listFiles().length);
+
+        this.registrator.mirrorLost("hall");
+        assertEquals(Collections.singleton("kitchen"), this.registrator.getMirrorStatus().keySet());
+    }
+
+    @Test
+    public void publishResource_samePathTwice_newerRevisionStaysOnMirror() throws Exception {
+        final Map<String, String> stored = new ConcurrentHashMap<>();
+        this.hall.setHandler(request -> {
+            final String body = new String(request.body, StandardCharsets.UTF_8);
+            if ("v1".equals(body)) {
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            stored.put(request.query.get("filePath"), body);
+            return "/apps/test-app/" + request.query.get("filePath");
+        });
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+
+        final CompletableFuture<String> first = this.registrator.publishResource(() -> new ByteArrayInputStream("v1".getBytes(StandardCharsets.UTF_8)),
+                "quote.html", null).get("hall");
+        final CompletableFuture<String> second = this.registrator.publishResource(() -> new ByteArrayInputStream("v2".getBytes(StandardCharsets.UTF_8)),
+                "quote.html", null).get("hall");
+
+        assertEquals("/apps/test-app/quote.html", second.get(5, TimeUnit.SECONDS));
+        assertTrue(first.isDone());
+        assertEquals("v2", stored.get("quote.html"));
+        assertEquals(2, this.registrator.getMirrorStatus().get("hall").getUploadCount());
+    }
+
+    @Test
+    public void publishEvents_slowMirror_doesntDelayPatchesToOthers() throws Exception {
+        this.kitchen.setDelayMillis(1000);
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        this.registrator.mirrorAvailable("kitchen", this.kitchen.getApiUrl());
+
+        final List<MirrorEvent> events = Collections.singletonList(new MirrorEvent(MirrorEvent.Type.SMS, null, "", "+49 170", "+49 170", "Hi", null, 1));
+        final long start = System.nanoTime();
+        Map<String, CompletableFuture<Long>> results = null;
+        for (int i = 0; i < 3; i++) {
+            results = this.registrator.publishEvents("messages", events);
+        }
+        assertEquals(Long.valueOf(3), results.get("hall").get(1, TimeUnit.SECONDS));
+        final long hallMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("hall took " + hallMillis + " ms", hallMillis < 1000);
+        assertFalse(results.get("kitchen").isDone());
+
+        assertEquals(Long.valueOf(3), results.get("kitchen").get(10, TimeUnit.SECONDS));
+        assertEquals(3, this.registrator.getMirrorStatus().get("kitchen").getPatchCount());
+    }
+
+    @Test
+    public void consumer_snapshotAndEventsOnBus_arriveAtMirror() throws Exception {
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        final MirrorEventBus bus = new MirrorEventBus(16, 10);
+        bus.subscribe(this.registrator.consumer("feed"));
+
+        bus.publishSnapshot(Arrays.asList(new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "0|chat|1", "chat", "Alice", "Alice", "Hi", null, 1),
+                new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "0|mail|2", "mail", "Bob", "Bob", "Invoice", null, 2)));
+        bus.publish(new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "0|chat|3", "chat", "Carol", "Carol", "Lunch?", null, 3));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.hall.getRequests().size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("/api/viewData", requests.get(0).path);
+        assertEquals("feed", requests.get(0).query.get("appViewId"));
+        final String snapshot = new String(requests.get(0).body, StandardCharsets.UTF_8);
+        assertTrue(snapshot.startsWith("[{\"v\":1,\"op\":\"snapshot\",\"count\":2,"));
+        assertTrue(snapshot.contains("\"Invoice\""));
+        assertTrue(new String(requests.get(1).body, StandardCharsets.UTF_8).startsWith("[{\"v\":2,\"key\":\"0|chat|3\""));
+        // counted once the mirror's response arrived
+        while (this.registrator.getMirrorStatus().get("hall").getPatchCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, this.registrator.getMirrorStatus().get("hall").getPatchCount());
+    }
+
+    @Test
+    public void mirrorAvailable_uploadAndPatchFailedWhileUnreachable_deliveredFromOfflineQueue() throws Exception {
+        final File queues = Files.createTempDirectory("offline").toFile();
+        try {
+            this.registrator.setOfflineQueueDirectory(queues, 1024 * 1024, 60_000);
+            final LocalMirrorServer gone = new LocalMirrorServer();
+            final String goneUrl = gone.getApiUrl();
+            gone.close();
+            this.registrator.mirrorAvailable("hall", goneUrl).get(10, TimeUnit.SECONDS);
+
+            final CompletableFuture<String> upload = this.registrator.publishResource(page(), "view/index.html", null).get("hall");
+            final CompletableFuture<Long> patch = this.registrator.publishEvents("feed", Collections.singletonList(sms(1))).get("hall");
+            try {
+                upload.get(10, TimeUnit.SECONDS);
+                fail("mirror is unreachable");
+            } catch (final ExecutionException e) {
+                assertEquals(UploadException.Reason.UNREACHABLE, ((UploadException) e.getCause()).getReason());
+            }
+            try {
+                patch.get(10, TimeUnit.SECONDS);
+                fail("mirror is unreachable");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+
+            // found again at another address
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            // the page is uploaded again with the published resources, its queued copy is dropped
+            awaitRequests(this.hall, 2);
+            final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+            final List<String> paths = new ArrayList<>();
+            for (final LocalMirrorServer.Request request : requests) {
+                paths.add(request.path.endsWith("/viewData") ? request.query.get("appViewId") : request.query.get("filePath"));
+            }
+            // the queued patch goes out before the page is uploaded again
+            assertEquals(Arrays.asList("feed", "view/index.html"), paths);
+        } finally {
+            deleteRecursively(queues);
+        }
+    }
+
+    @Test
+    public void mirrorAvailable_longOfflineQueue_livePatchesSentDuringFlush() throws Exception {
+        final File queues = Files.createTempDirectory("offline").toFile();
+        try {
+            this.registrator.setOfflineQueueDirectory(queues, 1024 * 1024, 60_000);
+            final LocalMirrorServer gone = new LocalMirrorServer();
+            final String goneUrl = gone.getApiUrl();
+            gone.close();
+            this.registrator.mirrorAvailable("hall", goneUrl).get(10, TimeUnit.SECONDS);
+            final int queued = 3 * RefreshScheduler.DEFAULT_BURST;
+            for (int i = 0; i < queued; i++) {
+                try {
+                    this.registrator.publishEvents("feed", Collections.singletonList(sms(i))).get("hall").get(10, TimeUnit.SECONDS);
+                    fail("mirror is unreachable");
+                } catch (final ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            // the flush pauses between its batches, the live patch doesn't wait for it
+            this.registrator.publishEvents("feed", Collections.singletonList(sms(99))).get("hall").get(10, TimeUnit.SECONDS);
+            awaitRequests(this.hall, queued + 1);
+            int live = -1;
+            final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+            for (int i = 0; i < requests.size(); i++) {
+                if (new String(requests.get(i).body, StandardCharsets.UTF_8).contains("\"sms:99\"")) {
+                    live = i;
+                }
+            }
+            assertTrue("live patch sent as request " + live, live >= 0 && live < queued);
+        } finally {
+            deleteRecursively(queues);
+        }
+    }
+
+    @Test
+    public void mirrorAvailable_afterLossAndAppRestart_patchVersionsContinue() throws Exception {
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        assertEquals(Long.valueOf(1), this.registrator.publishEvents("feed", Collections.singletonList(sms(1))).get("hall").get(5, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(2), this.registrator.publishEvents("feed", Collections.singletonList(sms(2))).get("hall").get(5, TimeUnit.SECONDS));
+
+        // lost and found again, the page on the mirror still knows version 2
+        this.registrator.mirrorLost("hall");
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        assertEquals(Long.valueOf(3), this.registrator.publishEvents("feed", Collections.singletonList(sms(3))).get("hall").get(5, TimeUnit.SECONDS));
+
+        // the app restarts and finds the mirror again
+        final ViewRegistrator restarted = new ViewRegistrator("test-app", "test-user");
+        restarted.setManifestDirectory(this.manifests);
+        restarted.mirrorAvailable("hall", this.hall.getApiUrl());
+        assertEquals(Long.valueOf(4), restarted.publishEvents("feed", Collections.singletonList(sms(4))).get("hall").get(5, TimeUnit.SECONDS));
+        final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+        assertTrue(new String(requests.get(requests.size() - 1).body, StandardCharsets.UTF_8).startsWith("[{\"v\":4,"));
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (final File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void mirrorAvailable_eventsPublishedWhileLost_exactlyThoseReplayed() throws Exception {
+        final File directory = Files.createTempDirectory("journal").toFile();
+        try (EventJournal journal = new EventJournal(directory, 64 * 1024, 4)) {
+            this.registrator.setEventJournal(journal, "feed");
+            final MirrorEventBus.Consumer consumer = this.registrator.consumer("feed");
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            consumer.onEvents(Collections.singletonList(sms(0)));
+            awaitRequests(this.hall, 1);
+
+            this.registrator.mirrorLost("hall");
+            final int missed = 5;
+            for (int i = 1; i <= missed; i++) {
+                consumer.onEvents(Collections.singletonList(sms(i)));
+            }
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            // the missed events are sent as one batch
+            awaitRequests(this.hall, 2);
+            // further events follow the replayed ones without being sent twice
+            consumer.onEvents(Collections.singletonList(sms(missed + 1)));
+            awaitRequests(this.hall, 3);
+
+            final List<String> delivered = new ArrayList<>();
+            for (final LocalMirrorServer.Request request : this.hall.getRequests()) {
+                final Matcher key = Pattern.compile("\"key\":\"(sms:[0-9]+)\"").matcher(new String(request.body, StandardCharsets.UTF_8));
+                while (key.find()) {
+                    delivered.add(key.group(1));
+                }
+            }
+            assertEquals(Arrays.asList("sms:0", "sms:1", "sms:2", "sms:3", "sms:4", "sms:5", "sms:6"), delivered);
+            assertEquals(journal.getNextSequence(), journal.getCursor("hall"));
+        } finally {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void mirrorAvailable_journaledSnapshot_newMirrorGetsLatestSnapshotAndEventsAfterIt() throws Exception {
+        final File directory = Files.createTempDirectory("journal").toFile();
+        try (EventJournal journal = new EventJournal(directory, 64 * 1024, 4)) {
+            this.registrator.setEventJournal(journal, "feed");
+            final MirrorEventBus.Consumer consumer = this.registrator.consumer("feed");
+            consumer.onEvents(Collections.singletonList(sms(0)));
+            consumer.onSnapshot(Collections.singletonList(new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "chat", "com.example", "", "Alice", "Hi",
+                    null, 1)));
+            consumer.onEvents(Collections.singletonList(sms(1)));
+
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            awaitRequests(this.hall, 2);
+            final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+            final String snapshot = new String(requests.get(0).body, StandardCharsets.UTF_8);
+            assertTrue(snapshot, snapshot.startsWith("[{\"v\":1,\"op\":\"snapshot\",\"count\":1,"));
+            assertTrue(snapshot, snapshot.contains("\"chat\""));
+            assertTrue(new String(requests.get(1).body, StandardCharsets.UTF_8).startsWith("[{\"v\":2,\"key\":\"sms:1\""));
+            assertEquals(journal.getNextSequence(), journal.getCursor("hall"));
+
+            // lost while the notifications were cleared, the empty snapshot is replayed as snapshot
+            this.registrator.mirrorLost("hall");
+            consumer.onSnapshot(Collections.emptyList());
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            awaitRequests(this.hall, 3);
+            assertTrue(new String(this.hall.getRequests().get(2).body, StandardCharsets.UTF_8).startsWith("[{\"v\":3,\"op\":\"snapshot\",\"count\":0,"));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void consumer_notificationsWithIcon_iconUploadedOnceAndReferencedAlsoWhenReplayed() throws Exception {
+        final File directory = Files.createTempDirectory("journal").toFile();
+        final NotificationIconCache icons = new NotificationIconCache(NotificationIconCache.DEFAULT_MAX_BYTES, ".webp");
+        final byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.ISO_8859_1);
+        try (EventJournal journal = new EventJournal(directory, 64 * 1024, 4)) {
+            this.registrator.setEventJournal(journal, "feed");
+            final MirrorEventBus.Consumer consumer = this.registrator.consumer("feed");
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            consumer.onEvents(Collections.singletonList(new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "chat:1", "com.example", "", "Alice", "Hi",
+                    icons.get("com.example", 0x3fa4, () -> webp), 1)));
+            awaitRequests(this.hall, 2);
+
+            // missed while lost, replayed from the journal which only keeps the icon's path
+            this.registrator.mirrorLost("hall");
+            consumer.onEvents(Collections.singletonList(new MirrorEvent(MirrorEvent.Type.NOTIFICATION, "chat:2", "com.example", "", "Alice",
+                    "Are you there?", icons.get("com.example", 0x3fa4, () -> webp), 2)));
+            this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+            awaitRequests(this.hall, 3);
+
+            final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+            assertEquals("icons/com.example-3fa4.webp", requests.get(0).query.get("filePath"));
+            assertTrue(Arrays.equals(webp, requests.get(0).body));
+            final String icon = "\"icon\":\"/apps/test-app/icons/com.example-3fa4.webp\"";
+            final String live = new String(requests.get(1).body, StandardCharsets.UTF_8);
+            assertTrue(live, live.contains("\"chat:1\"") && live.contains(icon));
+            final String replayed = new String(requests.get(2).body, StandardCharsets.UTF_8);
+            assertTrue(replayed, replayed.contains("\"chat:2\"") && replayed.contains(icon));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static MirrorEvent sms(final int number) {
+        return new MirrorEvent(MirrorEvent.Type.SMS, "sms:" + number, "", "+49 30 1234", "+49 30 1234", "Message " + number, null, number);
+    }
+
+    private static void awaitRequests(final LocalMirrorServer mirror, final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mirror.getRequests().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(count, mirror.getRequests().size());
+    }
+
+    @Test
+    public void addFeedView_mirrorAvailable_pagePollsTheViewsDataChannel() throws Exception {
+        this.registrator.addFeedView("feed", null, "/api");
+        assertFalse(this.registrator.isDirty("feed"));
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+
+        awaitUploads(this.hall, 1);
+        final LocalMirrorServer.Request request = this.hall.getRequests().get(0);
+        assertEquals("feed/feed.html", request.query.get("filePath"));
+        assertEquals("true", request.query.get("mainPage"));
+        final String page = new String(request.body, StandardCharsets.UTF_8);
+        // escaped as attribute value, the browser hands the page the plain url
+        assertTrue(page, page.contains("data-patch-url=\"/api/viewData?appId=test-app&amp;userId=test-user&amp;appViewId=feed\""));
+    }
+
+    @Test
+    public void publishDirty_changedReplacements_rendersAndUploadsOnlyDirtyViews() throws Exception {
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        this.registrator.addView("sms", ViewTemplates.MESSAGE_TEMPLATE, "de/iolite/insys/mirror/views/quote.png");
+        this.registrator.addView("welcome", ViewTemplates.WELCOME_TEMPLATE, null);
+        assertTrue(this.registrator.isDirty("sms"));
+
+        final Map<String, String> sms = new HashMap<>();
+        sms.put("TITLE", "+49 170");
+        sms.put("TEXT", "<b>Hi</b>");
+        assertTrue(this.registrator.setReplacements("sms", sms));
+        assertEquals(2, this.registrator.publishDirty());
+        awaitUploads(this.hall, 3);
+
+        // unchanged values, unknown slots and clean views cost nothing
+        assertFalse(this.registrator.setReplacements("sms", sms));
+        assertFalse(this.registrator.setReplacement("sms", "NOT_IN_TEMPLATE", "x"));
+        assertFalse(this.registrator.isDirty("sms"));
+        assertEquals(0, this.registrator.publishDirty());
+
+        assertTrue(this.registrator.setReplacement("welcome", "USERNAME", "Alice"));
+        assertEquals(1, this.registrator.publishDirty());
+        awaitUploads(this.hall, 4);
+
+        final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+        final LocalMirrorServer.Request smsPage = requests.stream().filter(request -> "sms/message.html".equals(request.query.get("filePath")))
+                .findFirst().get();
+        final String page = new String(smsPage.body, StandardCharsets.UTF_8);
+        assertTrue(page.contains("&lt;b&gt;Hi&lt;/b&gt;"));
+        assertTrue(page.contains("+49 170"));
+        assertEquals("welcome/welcome.html", requests.get(3).query.get("filePath"));
+    }
+
+    @Test
+    public void publishDirty_failedUpload_viewStaysDirtyUntilMirrorStoredIt() throws Exception {
+        final AtomicBoolean overQuota = new AtomicBoolean(true);
+        this.hall.setHandler(request -> {
+            if (overQuota.get()) {
+                throw new LocalMirrorServer.StatusException(403, "quota exceeded");
+            }
+            return "/apps/test-app/" + request.query.get("filePath");
+        });
+        this.registrator.mirrorAvailable("hall", this.hall.getApiUrl());
+        this.registrator.addView("welcome", ViewTemplates.WELCOME_TEMPLATE, null);
+        this.registrator.setReplacement("welcome", "USERNAME", "Alice");
+
+        assertEquals(1, this.registrator.publishDirty());
+        awaitDirty("welcome", true);
+
+        overQuota.set(false);
+        assertEquals(1, this.registrator.publishDirty());
+        // a page on its way isn't published again
+        assertEquals(0, this.registrator.publishDirty());
+        awaitUploadCount("hall", 1);
+        awaitDirty("welcome", false);
+        assertEquals(0, this.registrator.publishDirty());
+
+        // a prepared page that failed is published again as it is
+        overQuota.set(true);
+        final byte[] page = this.registrator.renderMainPage("welcome", Collections.singletonMap("USERNAME", "Bob"));
+        try {
+            this.registrator.publishMainPage("welcome", page).get("hall").get(5, TimeUnit.SECONDS);
+            fail("upload over quota succeeded");
+        } catch (final ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof UploadException);
+        }
+        awaitDirty("welcome", true);
+        overQuota.set(false);
+        assertTrue(this.registrator.publishDirty("welcome"));
+        awaitUploadCount("hall", 2);
+        final List<LocalMirrorServer.Request> requests = this.hall.getRequests();
+        assertTrue(new String(requests.get(requests.size() - 1).body, StandardCharsets.UTF_8).contains("Bob"));
+    }
+
+    private void awaitDirty(final String viewId, final boolean dirty) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.registrator.isDirty(viewId) != dirty && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(dirty, this.registrator.isDirty(viewId));
+    }
+
+    private void awaitUploadCount(final String mirrorId, final long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.registrator.getMirrorStatus().get(mirrorId).getUploadCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.registrator.getMirrorStatus().get(mirrorId).getUploadCount());
+    }
+
+    private static void awaitUploads(final LocalMirrorServer mirror, final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (uploads(mirror) < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, uploads(mirror));
+    }
+}
@@ -0,0 +1,76 @@
+package com.mirror.nfc.nfcsmartmirror_app_v3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ViewTemplateTest {
+
+    private static String render(final ViewTemplate template, final Map<String, String> values) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(out, values);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[37];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void render_escapesValuesAndKeepsOtherBraces() throws IOException {
+        final ViewTemplate template = ViewTemplate.compile("<style>p { color: red }</style><p>{TEXT}</p><cite>{TITLE}</cite>{lower}{UNCLOSED"
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("TEXT", "TITLE"), template.getSlots());
+
+        final Map<String, String> values = new HashMap<>();
+        values.put("TEXT", "1 < 2 & \"3\" > 'x' ä€😀");
+        values.put("TITLE", "+49 170 1234567");
+        assertEquals("<style>p { color: red }</style><p>1 &lt; 2 &amp; &quot;3&quot; &gt; &#39;x&#39; ä€😀</p>"
+                + "<cite>+49 170 1234567</cite>{lower}{UNCLOSED", render(template, values));
+
+        values.remove("TITLE");
+        assertTrue(render(template, values).contains("<cite></cite>"));
+    }
+
+    @Test
+    public void open_streamsSameBytesAsRender() throws IOException {
+        final ViewTemplate template = ViewTemplates.getInstance().get(ViewTemplates.MESSAGE_TEMPLATE);
+        final StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            longMessage.append("<ö😀").append(i);
+        }
+        final Map<String, String> values = new HashMap<>();
+        values.put("TEXT", longMessage.toString());
+        values.put("TITLE", "Alice & Bob");
+
+        final String rendered = render(template, values);
+        assertEquals(rendered, read(template.open(values)));
+        assertTrue(rendered.contains("<p>&lt;ö😀0&lt;"));
+        assertTrue(rendered.contains("Alice &amp; Bob"));
+        assertSame(template, ViewTemplates.getInstance().get(ViewTemplates.MESSAGE_TEMPLATE));
+    }
+
+    @Test
+    public void compile_bundledTemplates_findSlots() throws IOException {
+        final ViewTemplate quote = ViewTemplates.getInstance().get(ViewTemplates.QUOTE_TEMPLATE);
+        assertEquals(Arrays.asList("QUOTE", "AUTHOR"), quote.getSlots());
+        final ViewTemplate welcome = ViewTemplates.getInstance().get(ViewTemplates.WELCOME_TEMPLATE);
+        assertEquals(Arrays.asList("USERNAME"), welcome.getSlots());
+    }
+}